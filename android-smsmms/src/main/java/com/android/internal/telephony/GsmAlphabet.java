@@ -19,11 +19,10 @@ package com.android.internal.telephony;
 import android.text.TextUtils;
 import timber.log.Timber;
 
-import android.util.SparseIntArray;
-
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -388,8 +387,8 @@ public class GsmAlphabet {
         }
         int byteCount = ((septetCount * 7) + 7) / 8;
         byte[] ret = new byte[byteCount + 1];  // Include space for one byte length prefix.
-        SparseIntArray charToLanguageTable = sCharsToGsmTables[languageTable];
-        SparseIntArray charToShiftTable = sCharsToShiftTables[languageShiftTable];
+        SeptetTable charToLanguageTable = sCharsToGsmTables[languageTable];
+        SeptetTable charToShiftTable = sCharsToShiftTables[languageShiftTable];
         for (int i = 0, septets = startingSeptetOffset, bitOffset = startingSeptetOffset * 7;
              i < dataLen && septets < septetCount;
              i++, bitOffset += 7) {
@@ -664,8 +663,8 @@ public class GsmAlphabet {
     public static void
     stringToGsm8BitUnpackedField(String s, byte dest[], int offset, int length) {
         int outByteIndex = offset;
-        SparseIntArray charToLanguageTable = sCharsToGsmTables[0];
-        SparseIntArray charToShiftTable = sCharsToShiftTables[0];
+        SeptetTable charToLanguageTable = sCharsToGsmTables[0];
+        SeptetTable charToShiftTable = sCharsToShiftTables[0];
 
         // Septets are stored in byte-aligned octets
         for (int i = 0, sz = s.length()
@@ -744,6 +743,32 @@ public class GsmAlphabet {
         }
     }
 
+    /**
+     * Returns the count of 7-bit GSM alphabet characters needed
+     * to represent this character, using the specified 7-bit language table
+     * and extension table (0 for GSM default tables).
+     *
+     * @param c                  the character to examine
+     * @param languageTable      the 7 bit language table, or 0 for the default GSM alphabet
+     * @param languageShiftTable the 7 bit single shift language table, or 0 for the default
+     *                           GSM extension table
+     * @return the septet count for c, 0 for the escape character, which is skipped when
+     * counting strings, or -1 if c is unencodable
+     */
+    public static int countGsmSeptetsUsingTables(char c, int languageTable,
+                                                 int languageShiftTable) {
+        if (c == GSM_EXTENDED_ESCAPE) {
+            return 0;
+        }
+        if (sCharsToGsmTables[languageTable].get(c, -1) != -1) {
+            return 1;
+        }
+        if (sCharsToShiftTables[languageShiftTable].get(c, -1) != -1) {
+            return 2; // escape + shift table index
+        }
+        return -1;
+    }
+
     /**
      * Returns the count of 7-bit GSM alphabet characters needed
      * to represent this string, using the specified 7-bit language table
@@ -762,8 +787,8 @@ public class GsmAlphabet {
                                                  int languageTable, int languageShiftTable) {
         int count = 0;
         int sz = s.length();
-        SparseIntArray charToLanguageTable = sCharsToGsmTables[languageTable];
-        SparseIntArray charToShiftTable = sCharsToShiftTables[languageShiftTable];
+        SeptetTable charToLanguageTable = sCharsToGsmTables[languageTable];
+        SeptetTable charToShiftTable = sCharsToShiftTables[languageShiftTable];
         for (int i = 0; i < sz; i++) {
             char c = s.charAt(i);
             if (c == GSM_EXTENDED_ESCAPE) {
@@ -809,7 +834,7 @@ public class GsmAlphabet {
             enableCountrySpecificEncodings();
         }
         // fast path for common case where no national language shift tables are enabled
-        if (sEnabledSingleShiftTables.length + sEnabledLockingShiftTables.length == 0) {
+        if (onlyDefaultTablesEnabled()) {
             TextEncodingDetails ted = new TextEncodingDetails();
             int septets = GsmAlphabet.countGsmSeptetsUsingTables(s, use7bitOnly, 0, 0);
             if (septets == -1) {
@@ -843,23 +868,38 @@ public class GsmAlphabet {
             }
         }
 
+        int pairCount = 0;
+        for (LanguagePairCount lpc : lpcList) {
+            for (int table = 0; table <= maxSingleShiftCode; table++) {
+                if (lpc.septetCounts[table] != -1) {
+                    pairCount++;
+                }
+            }
+        }
+
         int sz = s.length();
-        // calculate septet count for each valid table / shift table pair
-        for (int i = 0; i < sz && !lpcList.isEmpty(); i++) {
+        // calculate septet count for each valid table / shift table pair in a single pass,
+        // stopping once no pair can encode the string
+        for (int i = 0; i < sz && pairCount > 0; i++) {
             char c = s.charAt(i);
             if (c == GSM_EXTENDED_ESCAPE) {
                 Timber.w("countGsmSeptets() string contains Escape character, ignoring!");
                 continue;
             }
+            // the single shift tables containing c, which are only looked up when needed,
+            // and then only once for all of the locking shift tables
+            int shiftTables = -1;
             // iterate through enabled locking shift tables
             for (LanguagePairCount lpc : lpcList) {
                 int tableIndex = sCharsToGsmTables[lpc.languageCode].get(c, -1);
                 if (tableIndex == -1) {
+                    if (shiftTables == -1) {
+                        shiftTables = findShiftTables(c, maxSingleShiftCode);
+                    }
                     // iterate through single shift tables for this locking table
                     for (int table = 0; table <= maxSingleShiftCode; table++) {
                         if (lpc.septetCounts[table] != -1) {
-                            int shiftTableIndex = sCharsToShiftTables[table].get(c, -1);
-                            if (shiftTableIndex == -1) {
+                            if ((shiftTables & (1 << table)) == 0) {
                                 if (use7bitOnly) {
                                     // can't encode char, use space instead
                                     lpc.septetCounts[table]++;
@@ -867,6 +907,7 @@ public class GsmAlphabet {
                                 } else {
                                     // can't encode char, remove language pair from list
                                     lpc.septetCounts[table] = -1;
+                                    pairCount--;
                                 }
                             } else {
                                 // encode as Escape + index into shift table
@@ -943,6 +984,38 @@ public class GsmAlphabet {
         return ted;
     }
 
+    /**
+     * Returns whether only the default GSM alphabet and extension table can be used, in which
+     * case there's no need to compare language table pairs.
+     */
+    private static boolean onlyDefaultTablesEnabled() {
+        for (int table : sEnabledSingleShiftTables) {
+            if (table != 0) {
+                return false;
+            }
+        }
+        for (int table : sEnabledLockingShiftTables) {
+            if (table != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a bit mask of the single shift tables, up to <code>maxSingleShiftCode</code>,
+     * which contain this character.
+     */
+    private static int findShiftTables(char c, int maxSingleShiftCode) {
+        int shiftTables = 0;
+        for (int table = 0; table <= maxSingleShiftCode; table++) {
+            if (sCharsToShiftTables[table].get(c, -1) != -1) {
+                shiftTables |= 1 << table;
+            }
+        }
+        return shiftTables;
+    }
+
     /**
      * Returns the index into <code>s</code> of the first character
      * after <code>limit</code> septets have been reached, starting at
@@ -963,8 +1036,8 @@ public class GsmAlphabet {
         int accumulator = 0;
         int size = s.length();
 
-        SparseIntArray charToLangTable = sCharsToGsmTables[langTable];
-        SparseIntArray charToLangShiftTable = sCharsToShiftTables[langShiftTable];
+        SeptetTable charToLangTable = sCharsToGsmTables[langTable];
+        SeptetTable charToLangShiftTable = sCharsToShiftTables[langShiftTable];
         for (int i = start; i < size; i++) {
             int encodedSeptet = charToLangTable.get(s.charAt(i), -1);
             if (encodedSeptet == -1) {
@@ -1037,6 +1110,39 @@ public class GsmAlphabet {
         return sEnabledLockingShiftTables;
     }
 
+    /**
+     * Return the number of national language tables, including the default GSM alphabet.
+     * This is used for unit testing.
+     *
+     * @return the number of language tables
+     */
+    static int getLanguageTableCount() {
+        return sLanguageTables.length;
+    }
+
+    /**
+     * Return a national language locking shift table, as a string of the characters at each
+     * septet, or an empty string if the table isn't defined. This is used for unit testing.
+     *
+     * @param languageTable the 7 bit language table, or 0 for the default GSM alphabet
+     * @return the table
+     */
+    static String getLanguageTable(int languageTable) {
+        return sLanguageTables[languageTable];
+    }
+
+    /**
+     * Return a national language single shift table, as a string of the characters at each
+     * septet, or an empty string if the table isn't defined. This is used for unit testing.
+     *
+     * @param languageShiftTable the 7 bit single shift language table, or 0 for the default
+     *                           GSM extension table
+     * @return the table
+     */
+    static String getLanguageShiftTable(int languageShiftTable) {
+        return sLanguageShiftTables[languageShiftTable];
+    }
+
     /**
      * Enable country-specific language tables from MCC-specific overlays.
      *
@@ -1058,12 +1164,12 @@ public class GsmAlphabet {
     /**
      * Reverse mapping from Unicode characters to indexes into language tables.
      */
-    private static final SparseIntArray[] sCharsToGsmTables;
+    private static final SeptetTable[] sCharsToGsmTables;
 
     /**
      * Reverse mapping from Unicode characters to indexes into language shift tables.
      */
-    private static final SparseIntArray[] sCharsToShiftTables;
+    private static final SeptetTable[] sCharsToShiftTables;
 
     /**
      * OEM configured list of enabled national language single shift tables for encoding.
@@ -1085,6 +1191,36 @@ public class GsmAlphabet {
      */
     private static boolean sDisableCountryEncodingCheck = false;
 
+    /**
+     * Reverse mapping from Unicode characters to indexes into a language or shift table.
+     * <p/>
+     * The BMP is split into pages of 256 characters, and only the pages containing characters
+     * of the table are allocated, so each lookup is two array reads rather than the binary
+     * search of a SparseIntArray. Most tables only use two or three pages.
+     */
+    private static final class SeptetTable {
+        private final byte[][] mPages = new byte[256][];
+
+        void put(char c, int septet) {
+            byte[] page = mPages[c >>> 8];
+            if (page == null) {
+                page = new byte[256];
+                Arrays.fill(page, (byte) -1);
+                mPages[c >>> 8] = page;
+            }
+            page[c & 0xff] = (byte) septet;
+        }
+
+        int get(char c, int valueIfKeyNotFound) {
+            byte[] page = mPages[c >>> 8];
+            if (page == null) {
+                return valueIfKeyNotFound;
+            }
+            int septet = page[c & 0xff];
+            return septet == -1 ? valueIfKeyNotFound : septet;
+        }
+    }
+
     /**
      * Septet counter for a specific locking shift table and all of
      * the single shift tables that it can be paired with.
@@ -1457,7 +1593,7 @@ public class GsmAlphabet {
                     " != shift tables array length " + numShiftTables);
         }
 
-        sCharsToGsmTables = new SparseIntArray[numTables];
+        sCharsToGsmTables = new SeptetTable[numTables];
         for (int i = 0; i < numTables; i++) {
             String table = sLanguageTables[i];
 
@@ -1467,7 +1603,7 @@ public class GsmAlphabet {
                         " length " + tableLen + " (expected 128 or 0)");
             }
 
-            SparseIntArray charToGsmTable = new SparseIntArray(tableLen);
+            SeptetTable charToGsmTable = new SeptetTable();
             sCharsToGsmTables[i] = charToGsmTable;
             for (int j = 0; j < tableLen; j++) {
                 char c = table.charAt(j);
@@ -1475,7 +1611,7 @@ public class GsmAlphabet {
             }
         }
 
-        sCharsToShiftTables = new SparseIntArray[numTables];
+        sCharsToShiftTables = new SeptetTable[numTables];
         for (int i = 0; i < numShiftTables; i++) {
             String shiftTable = sLanguageShiftTables[i];
 
@@ -1485,7 +1621,7 @@ public class GsmAlphabet {
                         " length " + shiftTableLen + " (expected 128 or 0)");
             }
 
-            SparseIntArray charToShiftTable = new SparseIntArray(shiftTableLen);
+            SeptetTable charToShiftTable = new SeptetTable();
             sCharsToShiftTables[i] = charToShiftTable;
             for (int j = 0; j < shiftTableLen; j++) {
                 char c = shiftTable.charAt(j);
@@ -16,6 +16,7 @@
 
 package com.android.mms.service_alt;
 
+import android.app.Activity;
 import android.app.PendingIntent;
 import android.content.ContentValues;
 import android.content.Context;
@@ -40,6 +41,13 @@ import com.google.android.mms.util_alt.SqliteWrapper;
 import com.klinker.android.send_message.BroadcastUtils;
 import com.klinker.android.send_message.Transaction;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.UUID;
+
 /**
  * Request to download an MMS
  */
@@ -58,6 +66,9 @@ public class DownloadRequest extends MmsRequest {
     private final PendingIntent mDownloadedIntent;
     private final Uri mContentUri;
 
+    // Where the response is streamed to, unless the caller wants the response handed back to it
+    private File mResponseFile;
+
     public DownloadRequest(RequestManager manager, int subId, String locationUrl,
             Uri contentUri, PendingIntent downloadedIntent, String creator,
             Bundle configOverrides, Context context) throws MmsException {
@@ -81,14 +92,31 @@ public class DownloadRequest extends MmsRequest {
             Timber.e("MMS network is not ready!");
             throw new MmsHttpException(0/*statusCode*/, "MMS network is not ready");
         }
-        return mmsHttpClient.execute(
+
+        // The response is only needed in memory if it's being transferred back to the caller
+        if (mDownloadedIntent != null) {
+            return mmsHttpClient.execute(
+                    mLocationUrl,
+                    null/*pud*/,
+                    MmsHttpClient.METHOD_GET,
+                    apn.isProxySet(),
+                    apn.getProxyAddress(),
+                    apn.getProxyPort(),
+                    mMmsConfig);
+        }
+
+        if (mResponseFile == null) {
+            mResponseFile = new File(context.getCacheDir(),
+                    "download." + UUID.randomUUID() + ".dat");
+        }
+        mmsHttpClient.download(
                 mLocationUrl,
-                null/*pud*/,
-                MmsHttpClient.METHOD_GET,
+                mResponseFile,
                 apn.isProxySet(),
                 apn.getProxyAddress(),
                 apn.getProxyPort(),
                 mMmsConfig);
+        return null;
     }
 
     @Override
@@ -103,21 +131,59 @@ public class DownloadRequest extends MmsRequest {
 
     @Override
     protected Uri persistIfRequired(Context context, int result, byte[] response) {
-        if (!mRequestManager.getAutoPersistingPref()) {
-            notifyOfDownload(context);
-            return null;
-        }
+        try {
+            if (!mRequestManager.getAutoPersistingPref()) {
+                notifyOfDownload(context);
+                return null;
+            }
 
-        return persist(context, response, mMmsConfig, mLocationUrl, mSubId, mCreator);
+            // A failed download has already deleted the file
+            if (result == Activity.RESULT_OK && mResponseFile != null && mResponseFile.exists()) {
+                return persist(context, mResponseFile, mMmsConfig, mLocationUrl, mSubId,
+                        mCreator);
+            }
+            return persist(context, response, mMmsConfig, mLocationUrl, mSubId, mCreator);
+        } finally {
+            if (mResponseFile != null) {
+                mResponseFile.delete();
+            }
+        }
     }
 
     public static Uri persist(Context context, byte[] response, MmsConfig.Overridden mmsConfig,
                               String locationUrl, int subId, String creator) {
+        return persist(context, response != null ? ByteBuffer.wrap(response) : null, mmsConfig,
+                locationUrl, subId, creator);
+    }
+
+    /**
+     * Persists a downloaded PDU directly from the file it was downloaded to. The file is
+     * memory-mapped rather than read onto the heap, so large messages only need memory for the
+     * parsed parts.
+     */
+    public static Uri persist(Context context, File response, MmsConfig.Overridden mmsConfig,
+                              String locationUrl, int subId, String creator) {
+        try (RandomAccessFile file = new RandomAccessFile(response, "r");
+             FileChannel channel = file.getChannel()) {
+            // The mapping remains valid after the channel is closed
+            final ByteBuffer buffer = channel.size() > 0
+                    ? channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                    : null;
+            return persist(context, buffer, mmsConfig, locationUrl, subId, creator);
+        } catch (IOException e) {
+            Timber.e(e, "DownloadRequest.persistIfRequired: can not read response");
+            return persist(context, (ByteBuffer) null, mmsConfig, locationUrl, subId, creator);
+        }
+    }
+
+    private static Uri persist(Context context, ByteBuffer response,
+                               MmsConfig.Overridden mmsConfig, String locationUrl, int subId,
+                               String creator) {
         // Let any mms apps running as secondary user know that a new mms has been downloaded.
         notifyOfDownload(context);
 
         Timber.d("DownloadRequest.persistIfRequired");
-        if (response == null || response.length < 1) {
+        if (response == null || !response.hasRemaining()) {
             Timber.e("DownloadRequest.persistIfRequired: empty response");
             // Update the retrieve status of the NotificationInd
             final ContentValues values = new ContentValues(1);
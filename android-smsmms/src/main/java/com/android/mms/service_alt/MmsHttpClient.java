@@ -17,6 +17,7 @@
 package com.android.mms.service_alt;
 
 import android.content.Context;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import timber.log.Timber; import android.util.Log; import static com.klinker.android.timberworkarounds.TimberExtensionsKt.Timber_isLoggable; // inserted with sed
 
@@ -31,9 +32,10 @@ import com.squareup.okhttp.internal.Internal;
 import com.squareup.okhttp.internal.huc.HttpURLConnectionImpl;
 import com.squareup.okhttp.internal.huc.HttpsURLConnectionImpl;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -80,6 +82,16 @@ public class MmsHttpClient {
     private static final String HEADER_VALUE_CONTENT_TYPE_WITHOUT_CHARSET =
             "application/vnd.wap.mms-message";
 
+    // Reused between requests on the same thread, so large responses are read in big chunks
+    // without allocating a buffer each time
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final ThreadLocal<byte[]> BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
     private final Context mContext;
     private final SocketFactory mSocketFactory;
     private final MmsNetworkManager mHostResolver;
@@ -124,13 +136,105 @@ public class MmsHttpClient {
         checkMethod(method);
         HttpURLConnection connection = null;
         try {
-            Proxy proxy = null;
-            if (isProxySet) {
-                proxy = new Proxy(Proxy.Type.HTTP, new InetSocketAddress(proxyHost, proxyPort));
+            connection = connect(urlString, pdu, method, isProxySet, proxyHost, proxyPort,
+                    mmsConfig);
+            final InputStream in = connection.getInputStream();
+            final ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
+            final byte[] buf = BUFFER.get();
+            int count = 0;
+            while ((count = in.read(buf)) > 0) {
+                byteOut.write(buf, 0, count);
             }
-            final URL url = new URL(urlString);
-            // Now get the connection
-            connection = openConnection(url, proxy);
+            in.close();
+            final byte[] responseBody = byteOut.toByteArray();
+            Timber.d("HTTP: response size="
+                    + (responseBody != null ? responseBody.length : 0));
+            return responseBody;
+        } catch (IOException e) {
+            throw toMmsHttpException(urlString, e);
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Download an MMS with a GET request, streaming the response body straight to a file rather
+     * than collecting it in memory
+     *
+     * @param urlString The message URL
+     * @param target The file to write the response body to. It's deleted if the download fails
+     * @param isProxySet Is there a proxy for the MMSC
+     * @param proxyHost The proxy host
+     * @param proxyPort The proxy port
+     * @param mmsConfig The MMS config to use. Responses larger than its max message size are
+     *                  rejected as soon as they're known to be
+     * @return The size of the response body
+     * @throws MmsHttpException For any failures
+     */
+    public long download(String urlString, File target, boolean isProxySet, String proxyHost,
+            int proxyPort, MmsConfig.Overridden mmsConfig) throws MmsHttpException {
+        Timber.d("HTTP: download " + redactUrlForNonVerbose(urlString)
+                + (isProxySet ? (", proxy=" + proxyHost + ":" + proxyPort) : ""));
+        final long maxSize = mmsConfig.getMaxMessageSize();
+        final long start = SystemClock.elapsedRealtime();
+        HttpURLConnection connection = null;
+        boolean succeeded = false;
+        try {
+            connection = connect(urlString, null, METHOD_GET, isProxySet, proxyHost, proxyPort,
+                    mmsConfig);
+            final long contentLength = connection.getContentLength();
+            if (maxSize > 0 && contentLength > maxSize) {
+                throw tooLarge(contentLength, maxSize);
+            }
+
+            long size = 0;
+            try (InputStream in = connection.getInputStream();
+                 OutputStream out = new FileOutputStream(target)) {
+                final byte[] buf = BUFFER.get();
+                int count;
+                while ((count = in.read(buf)) > 0) {
+                    size += count;
+                    // the length header is optional, so check as we go as well
+                    if (maxSize > 0 && size > maxSize) {
+                        throw tooLarge(size, maxSize);
+                    }
+                    out.write(buf, 0, count);
+                }
+            }
+
+            final long elapsed = Math.max(1, SystemClock.elapsedRealtime() - start);
+            Timber.d("HTTP: downloaded " + size + " bytes in " + elapsed + "ms ("
+                    + (size * 1000 / elapsed) + " bytes/s)");
+            succeeded = true;
+            return size;
+        } catch (IOException e) {
+            throw toMmsHttpException(urlString, e);
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+            if (!succeeded) {
+                target.delete();
+            }
+        }
+    }
+
+    /**
+     * Opens the connection and makes the request, leaving the response body to be read
+     */
+    private HttpURLConnection connect(String urlString, byte[] pdu, String method,
+            boolean isProxySet, String proxyHost, int proxyPort, MmsConfig.Overridden mmsConfig)
+            throws IOException, MmsHttpException {
+        Proxy proxy = null;
+        if (isProxySet) {
+            proxy = new Proxy(Proxy.Type.HTTP, new InetSocketAddress(proxyHost, proxyPort));
+        }
+        final URL url = new URL(urlString);
+        // Now get the connection
+        final HttpURLConnection connection = openConnection(url, proxy);
+        try {
             connection.setDoInput(true);
             connection.setConnectTimeout(mmsConfig.getHttpSocketTimeout());
             // ------- COMMON HEADERS ---------
@@ -193,33 +297,31 @@ public class MmsHttpClient {
             if (responseCode / 100 != 2) {
                 throw new MmsHttpException(responseCode, responseMessage);
             }
-            final InputStream in = new BufferedInputStream(connection.getInputStream());
-            final ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
-            final byte[] buf = new byte[4096];
-            int count = 0;
-            while ((count = in.read(buf)) > 0) {
-                byteOut.write(buf, 0, count);
-            }
-            in.close();
-            final byte[] responseBody = byteOut.toByteArray();
-            Timber.d("HTTP: response size="
-                    + (responseBody != null ? responseBody.length : 0));
-            return responseBody;
-        } catch (MalformedURLException e) {
+            return connection;
+        } catch (IOException | MmsHttpException | RuntimeException e) {
+            connection.disconnect();
+            throw e;
+        }
+    }
+
+    private static MmsHttpException tooLarge(long size, long maxSize) {
+        Timber.e("HTTP: response of at least " + size + " bytes is over the max of " + maxSize);
+        return new MmsHttpException(HttpURLConnection.HTTP_ENTITY_TOO_LARGE,
+                "Response larger than " + maxSize + " bytes");
+    }
+
+    private static MmsHttpException toMmsHttpException(String urlString, IOException e) {
+        if (e instanceof MalformedURLException) {
             final String redactedUrl = redactUrlForNonVerbose(urlString);
             Timber.e(e, "HTTP: invalid URL %s", redactedUrl);
-            throw new MmsHttpException(0/*statusCode*/, "Invalid URL " + redactedUrl, e);
-        } catch (ProtocolException e) {
+            return new MmsHttpException(0/*statusCode*/, "Invalid URL " + redactedUrl, e);
+        } else if (e instanceof ProtocolException) {
             final String redactedUrl = redactUrlForNonVerbose(urlString);
             Timber.e(e, "HTTP: invalid URL protocol %s", redactedUrl);
-            throw new MmsHttpException(0/*statusCode*/, "Invalid URL protocol " + redactedUrl, e);
-        } catch (IOException e) {
+            return new MmsHttpException(0/*statusCode*/, "Invalid URL protocol " + redactedUrl, e);
+        } else {
             Timber.e(e, "HTTP: IO failure");
-            throw new MmsHttpException(0/*statusCode*/, e);
-        } finally {
-            if (connection != null) {
-                connection.disconnect();
-            }
+            return new MmsHttpException(0/*statusCode*/, e);
         }
     }
 
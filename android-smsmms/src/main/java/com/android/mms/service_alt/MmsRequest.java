@@ -37,6 +37,8 @@ import com.klinker.android.send_message.Utils;
 import com.android.mms.service_alt.exception.ApnException;
 import com.android.mms.service_alt.exception.MmsHttpException;
 
+import java.net.HttpURLConnection;
+
 /**
  * Base class for MMS requests. This has the common logic of sending/downloading MMS.
  */
@@ -219,6 +221,10 @@ public abstract class MmsRequest {
                     Timber.e(e, "MmsRequest: HTTP or network I/O failure");
                     result = SmsManager.MMS_ERROR_HTTP_FAILURE;
                     httpStatusCode = e.getStatusCode();
+                    // A response that's too large won't be any smaller next time
+                    if (httpStatusCode == HttpURLConnection.HTTP_ENTITY_TOO_LARGE) {
+                        break;
+                    }
                     // Retry
                 } catch (Exception e) {
                     Timber.e(e, "MmsRequest: unexpected failure");
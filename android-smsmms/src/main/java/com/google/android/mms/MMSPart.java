@@ -7,4 +7,20 @@ public class MMSPart {
     public String MimeType = "";
     public byte[] Data;
     public Uri Path;
-}
\ No newline at end of file
+
+    /**
+     * The length of the data at {@link #Path}, which is streamed into the part rather than
+     * read into memory. Only used when {@link #Data} isn't set
+     */
+    public long Length = -1;
+
+    /**
+     * @return the length of the part data, whether it's held in memory or at {@link #Path}
+     */
+    public long getDataLength() {
+        if (Data != null) {
+            return Data.length;
+        }
+        return Math.max(Length, 0);
+    }
+}
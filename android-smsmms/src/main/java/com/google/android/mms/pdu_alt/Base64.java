@@ -122,6 +122,17 @@ public class Base64 {
         return decodedData;
     }
 
+    /**
+     * Get the 6 bit value of a base64 character.
+     *
+     * @param octect the character
+     * @return the value, or -1 if it isn't in the base64 alphabet
+     */
+    static int valueOf(int octect) {
+        int index = octect & 0xFF;
+        return index < BASELENGTH ? base64Alphabet[index] : -1;
+    }
+
     /**
      * Check octect wheter it is a base64 encoding.
      *
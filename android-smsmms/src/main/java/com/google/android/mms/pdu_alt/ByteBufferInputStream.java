@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2015 Jacob Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.pdu_alt;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link ByteArrayInputStream} that reads from a {@link ByteBuffer} instead of a byte array,
+ * so that the parser can work directly on a memory-mapped PDU file without copying it onto the
+ * heap first.
+ *
+ * <p>The inherited {@code buf}, {@code pos} and {@code count} fields are unused, so every method
+ * of {@link ByteArrayInputStream} that reads them directly is overridden here.
+ */
+class ByteBufferInputStream extends ByteArrayInputStream {
+    private static final byte[] EMPTY = new byte[0];
+
+    private final ByteBuffer mBuffer;
+    private int mMark = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param buffer the buffer to read, from its current position to its limit. The buffer's
+     *               own position is not modified.
+     */
+    ByteBufferInputStream(ByteBuffer buffer) {
+        super(EMPTY);
+        mBuffer = buffer.slice();
+    }
+
+    /**
+     * Returns a view of the next {@code length} bytes, or of the rest of the buffer if it's
+     * shorter, and skips past them. No data is copied.
+     */
+    ByteBuffer readSlice(int length) {
+        int count = Math.max(0, Math.min(length, mBuffer.remaining()));
+        ByteBuffer slice = mBuffer.slice();
+        slice.limit(count);
+        mBuffer.position(mBuffer.position() + count);
+        return slice;
+    }
+
+    /**
+     * Copies the remaining bytes of {@code buffer} into a new array, without modifying the
+     * buffer's position.
+     */
+    static byte[] toArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    @Override
+    public int read() {
+        if (!mBuffer.hasRemaining()) {
+            return -1;
+        }
+        return mBuffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        if (!mBuffer.hasRemaining()) {
+            return -1;
+        }
+        int count = Math.min(len, mBuffer.remaining());
+        mBuffer.get(b, off, count);
+        return count;
+    }
+
+    @Override
+    public int readNBytes(byte[] b, int off, int len) {
+        int count = Math.min(len, mBuffer.remaining());
+        mBuffer.get(b, off, count);
+        return count;
+    }
+
+    @Override
+    public byte[] readAllBytes() {
+        byte[] bytes = toArray(mBuffer);
+        mBuffer.position(mBuffer.limit());
+        return bytes;
+    }
+
+    @Override
+    public long transferTo(OutputStream out) throws IOException {
+        int count = mBuffer.remaining();
+        if (mBuffer.hasArray()) {
+            out.write(mBuffer.array(), mBuffer.arrayOffset() + mBuffer.position(), count);
+        } else {
+            out.write(toArray(mBuffer));
+        }
+        mBuffer.position(mBuffer.limit());
+        return count;
+    }
+
+    @Override
+    public long skip(long n) {
+        int count = (int) Math.max(0, Math.min(n, mBuffer.remaining()));
+        mBuffer.position(mBuffer.position() + count);
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return mBuffer.remaining();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public void mark(int readAheadLimit) {
+        mMark = mBuffer.position();
+    }
+
+    @Override
+    public void reset() {
+        mBuffer.position(mMark);
+    }
+}
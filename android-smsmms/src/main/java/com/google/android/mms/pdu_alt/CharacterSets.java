@@ -17,6 +17,8 @@
 package com.google.android.mms.pdu_alt;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 
 public class CharacterSets {
@@ -117,16 +119,23 @@ public class CharacterSets {
 
     private static final HashMap<Integer, String> MIBENUM_TO_NAME_MAP;
     private static final HashMap<String, Integer> NAME_TO_MIBENUM_MAP;
+    private static final HashMap<Integer, Charset> MIBENUM_TO_CHARSET_MAP;
 
     static {
         // Create the HashMaps.
         MIBENUM_TO_NAME_MAP = new HashMap<Integer, String>();
         NAME_TO_MIBENUM_MAP = new HashMap<String, Integer>();
+        MIBENUM_TO_CHARSET_MAP = new HashMap<Integer, Charset>();
         assert(MIBENUM_NUMBERS.length == MIME_NAMES.length);
         int count = MIBENUM_NUMBERS.length - 1;
         for(int i = 0; i <= count; i++) {
             MIBENUM_TO_NAME_MAP.put(MIBENUM_NUMBERS[i], MIME_NAMES[i]);
             NAME_TO_MIBENUM_MAP.put(MIME_NAMES[i], MIBENUM_NUMBERS[i]);
+            try {
+                MIBENUM_TO_CHARSET_MAP.put(MIBENUM_NUMBERS[i], Charset.forName(MIME_NAMES[i]));
+            } catch (IllegalArgumentException e) {
+                // Not supported by this platform, or not a charset at all, like "*"
+            }
         }
     }
 
@@ -168,4 +177,43 @@ public class CharacterSets {
         }
         return mibEnumValue;
     }
+
+    /**
+     * Map an MIBEnum number to the charset which this number is assigned to by IANA. The
+     * charsets are looked up once, so this is cheaper than going through {@link #getMimeName}.
+     *
+     * @param mibEnumValue An IANA assigned MIBEnum number.
+     * @return The charset, or null if it isn't a well-known charset supported by the platform.
+     */
+    public static Charset getCharset(int mibEnumValue) {
+        switch (mibEnumValue) {
+            case US_ASCII: return StandardCharsets.US_ASCII;
+            case ISO_8859_1: return StandardCharsets.ISO_8859_1;
+            case UTF_8: return StandardCharsets.UTF_8;
+            default: return MIBENUM_TO_CHARSET_MAP.get(mibEnumValue);
+        }
+    }
+
+    /**
+     * Decode text in the charset assigned to an MIBEnum number. If the charset is unsupported,
+     * the text is treated as iso-8859-1, and {@link #ANY_CHARSET} uses the system default.
+     *
+     * @param mibEnumValue An IANA assigned MIBEnum number.
+     * @param data The encoded text.
+     * @param offset The index of the first byte to decode.
+     * @param length The number of bytes to decode.
+     * @return The decoded String.
+     */
+    public static String decode(int mibEnumValue, byte[] data, int offset, int length) {
+        if (ANY_CHARSET == mibEnumValue) {
+            return new String(data, offset, length); // system default encoding.
+        }
+
+        Charset charset = getCharset(mibEnumValue);
+        if (charset == null) {
+            charset = StandardCharsets.ISO_8859_1;
+        }
+
+        return new String(data, offset, length, charset);
+    }
 }
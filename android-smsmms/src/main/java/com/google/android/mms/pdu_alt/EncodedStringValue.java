@@ -27,8 +27,6 @@ import java.util.ArrayList;
  * Encoded-string-value = Text-string | Value-length Char-set Text-string
  */
 public class EncodedStringValue implements Cloneable {
-    private static final boolean LOCAL_LOGV = false;
-
     /**
      * The Char-set value.
      */
@@ -39,6 +37,11 @@ public class EncodedStringValue implements Cloneable {
      */
     private byte[] mData;
 
+    /**
+     * The decoded Text-string, once {@link #getString()} has been called.
+     */
+    private String mString;
+
     /**
      * Constructor.
      *
@@ -93,6 +96,7 @@ public class EncodedStringValue implements Cloneable {
     public void setCharacterSet(int charset) {
         // TODO: CharSet needs to be validated against MIBEnum.
         mCharacterSet = charset;
+        mString = null;
     }
 
     /**
@@ -120,6 +124,7 @@ public class EncodedStringValue implements Cloneable {
 
         mData = new byte[textString.length];
         System.arraycopy(textString, 0, mData, 0, textString.length);
+        mString = null;
     }
 
     /**
@@ -130,23 +135,54 @@ public class EncodedStringValue implements Cloneable {
      * @return The decoded String.
      */
     public String getString()  {
-        if (CharacterSets.ANY_CHARSET == mCharacterSet) {
-            return new String(mData); // system default encoding.
-        } else {
-            try {
-                String name = CharacterSets.getMimeName(mCharacterSet);
-                return new String(mData, name);
-            } catch (UnsupportedEncodingException e) {
-            	if (LOCAL_LOGV) {
-            		Timber.v(e);
-            	}
-            	try {
-                    return new String(mData, CharacterSets.MIMENAME_ISO_8859_1);
-                } catch (UnsupportedEncodingException f) {
-                    return new String(mData); // system default encoding.
-                }
+        String string = mString;
+        if (string == null) {
+            string = CharacterSets.decode(mCharacterSet, mData, 0, mData.length);
+            mString = string;
+        }
+        return string;
+    }
+
+    /**
+     * Decode a Text-string read back from the telephony provider, which stores it with each
+     * byte packed into a char (see {@link PduPersister#toIsoString(byte[])}).
+     *
+     * This is the same as {@code new EncodedStringValue(charset,
+     * PduPersister.getBytes(packed)).getString()}, but text that decodes to itself, like ASCII
+     * in any ASCII compatible charset, is returned as is without copying it.
+     *
+     * @param charset the Char-set value
+     * @param packed the Text-string, as stored by the provider
+     * @return The decoded String.
+     */
+    public static String decodeIsoString(int charset, String packed) {
+        int max = 0;
+        for (int i = 0, length = packed.length(); i < length; i++) {
+            max |= packed.charAt(i);
+        }
+
+        if (max <= 0xFF && CharacterSets.ISO_8859_1 == charset) {
+            return packed;
+        }
+        if (max < 0x80) {
+            switch (charset) {
+                case CharacterSets.US_ASCII:
+                case CharacterSets.UTF_8:
+                case CharacterSets.ISO_8859_1:
+                case CharacterSets.ISO_8859_2:
+                case CharacterSets.ISO_8859_3:
+                case CharacterSets.ISO_8859_4:
+                case CharacterSets.ISO_8859_5:
+                case CharacterSets.ISO_8859_6:
+                case CharacterSets.ISO_8859_7:
+                case CharacterSets.ISO_8859_8:
+                case CharacterSets.ISO_8859_9:
+                    return packed;
             }
         }
+
+        byte[] data = PduPersister.getBytes(packed);
+        return CharacterSets.decode(charset, data, 0, data.length);
     }
 
     /**
@@ -178,6 +214,7 @@ public class EncodedStringValue implements Cloneable {
 
             mData = newTextString.toByteArray();
         }
+        mString = null;
     }
 
     /*
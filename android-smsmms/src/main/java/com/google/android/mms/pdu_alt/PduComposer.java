@@ -18,6 +18,7 @@ package com.google.android.mms.pdu_alt;
 
 import android.content.ContentResolver;
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
 import android.text.TextUtils;
 import timber.log.Timber;
 
@@ -25,6 +26,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.HashMap;
 
@@ -79,12 +81,23 @@ public class PduComposer {
     /**
      * Block size when read data from InputStream.
      */
-    static private final int PDU_COMPOSER_BLOCK_SIZE = 1024;
+    static private final int PDU_COMPOSER_BLOCK_SIZE = 8192;
     /**
      * The output message.
      */
     protected ByteArrayOutputStream mMessage = null;
 
+    /**
+     * The stream part data is written to directly, when composing with
+     * {@link #make(OutputStream)}.
+     */
+    private OutputStream mOutput = null;
+
+    /**
+     * The error that stopped writing to {@link #mOutput}, if any.
+     */
+    private IOException mOutputException = null;
+
     /**
      * The PDU.
      */
@@ -147,36 +160,63 @@ public class PduComposer {
      *         the PDU is invalid.
      */
     public byte[] make() {
+        mOutput = null;
+        if (compose() != PDU_COMPOSE_SUCCESS) {
+            return null;
+        }
+
+        return mMessage.toByteArray();
+    }
+
+    /**
+     * Make the message and write it to a stream. Part data is streamed from its
+     * source straight to {@code out}, so that only the headers are buffered in
+     * memory, however big the attachments are.
+     *
+     * @param out the stream to write the message to
+     * @return false if the PDU is invalid or its part data couldn't be read, in
+     *         which case part of the message may already have been written
+     * @throws IOException if writing to {@code out} failed
+     */
+    public boolean make(OutputStream out) throws IOException {
+        mOutput = out;
+        mOutputException = null;
+        try {
+            if (compose() != PDU_COMPOSE_SUCCESS) {
+                if (mOutputException != null) {
+                    throw mOutputException;
+                }
+                return false;
+            }
+
+            mMessage.writeTo(out);
+            mMessage.reset();
+            return true;
+        } finally {
+            mOutput = null;
+        }
+    }
+
+    /**
+     * Compose the message for its message type.
+     */
+    private int compose() {
         // Get Message-type.
         int type = mPdu.getMessageType();
 
         /* make the message */
         switch (type) {
             case PduHeaders.MESSAGE_TYPE_SEND_REQ:
-                if (makeSendReqPdu() != PDU_COMPOSE_SUCCESS) {
-                    return null;
-                }
-                break;
+                return makeSendReqPdu();
             case PduHeaders.MESSAGE_TYPE_NOTIFYRESP_IND:
-                if (makeNotifyResp() != PDU_COMPOSE_SUCCESS) {
-                    return null;
-                }
-                break;
+                return makeNotifyResp();
             case PduHeaders.MESSAGE_TYPE_ACKNOWLEDGE_IND:
-                if (makeAckInd() != PDU_COMPOSE_SUCCESS) {
-                    return null;
-                }
-                break;
+                return makeAckInd();
             case PduHeaders.MESSAGE_TYPE_READ_REC_IND:
-                if (makeReadRecInd() != PDU_COMPOSE_SUCCESS) {
-                    return null;
-                }
-                break;
+                return makeReadRecInd();
             default:
-                return null;
+                return PDU_COMPOSE_FIELD_NOT_SUPPORTED;
         }
-
-        return mMessage.toByteArray();
     }
 
     /**
@@ -977,47 +1017,123 @@ public class PduComposer {
             // content
             int headerLength = attachment.getLength();
 
-            int dataLength = 0; // Just for safety...
-            byte[] partData = part.getData();
-
-            if (partData != null) {
-                arraycopy(partData, 0, partData.length);
-                dataLength = partData.length;
-            } else {
-                InputStream cr = null;
-                try {
-                    byte[] buffer = new byte[PDU_COMPOSER_BLOCK_SIZE];
-                    cr = mResolver.openInputStream(part.getDataUri());
-                    int len = 0;
-                    while ((len = cr.read(buffer)) != -1) {
-                        mMessage.write(buffer, 0, len);
-                        mPosition += len;
-                        dataLength += len;
-                    }
-                } catch (FileNotFoundException e) {
-                    return PDU_COMPOSE_CONTENT_ERROR;
-                } catch (IOException e) {
-                    return PDU_COMPOSE_CONTENT_ERROR;
-                } catch (RuntimeException e) {
-                    return PDU_COMPOSE_CONTENT_ERROR;
-                } finally {
-                    if (cr != null) {
-                        try {
-                            cr.close();
-                        } catch (IOException e) {
-                        }
-                    }
-                }
-            }
-
-            if (dataLength != (attachment.getLength() - headerLength)) {
-                throw new RuntimeException("BUG: Length sanity check failed");
+            // The data length goes ahead of the headers, so measure the data before
+            // writing it. This lets the data be streamed rather than buffered.
+            long dataLength = getPartDataLength(part);
+            if (dataLength < 0) {
+                return PDU_COMPOSE_CONTENT_ERROR;
             }
 
             mStack.pop();
             appendUintvarInteger(headerLength);
             appendUintvarInteger(dataLength);
             mStack.copy();
+
+            if (appendPartData(part, dataLength) != PDU_COMPOSE_SUCCESS) {
+                return PDU_COMPOSE_CONTENT_ERROR;
+            }
+        }
+
+        return PDU_COMPOSE_SUCCESS;
+    }
+
+    /**
+     * Get the length of a part's data, without reading it into memory.
+     *
+     * @return the length, or -1 if the data can't be read
+     */
+    private long getPartDataLength(PduPart part) {
+        if (part.hasData()) {
+            return part.getDataLength();
+        }
+
+        AssetFileDescriptor afd = null;
+        InputStream cr = null;
+        try {
+            afd = mResolver.openAssetFileDescriptor(part.getDataUri(), "r");
+            if (afd != null && afd.getLength() != AssetFileDescriptor.UNKNOWN_LENGTH) {
+                return afd.getLength();
+            }
+
+            // The provider doesn't know the length, so count it
+            long length = 0;
+            byte[] buffer = new byte[PDU_COMPOSER_BLOCK_SIZE];
+            cr = mResolver.openInputStream(part.getDataUri());
+            for (int len = 0; (len = cr.read(buffer)) != -1; ) {
+                length += len;
+            }
+            return length;
+        } catch (IOException | RuntimeException e) {
+            Timber.e(e, "can't get part data length");
+            return -1;
+        } finally {
+            try {
+                if (afd != null) {
+                    afd.close();
+                }
+                if (cr != null) {
+                    cr.close();
+                }
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /**
+     * Append a part's data, streaming it to the output stream if there is one.
+     *
+     * @param dataLength the length returned by {@link #getPartDataLength(PduPart)}
+     */
+    private int appendPartData(PduPart part, long dataLength) {
+        if (mOutput != null) {
+            // Everything before the data is complete, so it can be sent on ahead
+            try {
+                mMessage.writeTo(mOutput);
+                mMessage.reset();
+            } catch (IOException e) {
+                mOutputException = e;
+                return PDU_COMPOSE_CONTENT_ERROR;
+            }
+        }
+
+        long written = 0;
+        InputStream cr = null;
+        try {
+            cr = part.hasData() ? part.getDataStream() : mResolver.openInputStream(part.getDataUri());
+            byte[] buffer = new byte[PDU_COMPOSER_BLOCK_SIZE];
+            for (int len = 0; (len = cr.read(buffer)) != -1; ) {
+                if (mOutput != null) {
+                    try {
+                        mOutput.write(buffer, 0, len);
+                    } catch (IOException e) {
+                        mOutputException = e;
+                        return PDU_COMPOSE_CONTENT_ERROR;
+                    }
+                } else {
+                    mMessage.write(buffer, 0, len);
+                }
+                mPosition += len;
+                written += len;
+            }
+        } catch (FileNotFoundException e) {
+            return PDU_COMPOSE_CONTENT_ERROR;
+        } catch (IOException e) {
+            return PDU_COMPOSE_CONTENT_ERROR;
+        } catch (RuntimeException e) {
+            return PDU_COMPOSE_CONTENT_ERROR;
+        } finally {
+            if (cr != null) {
+                try {
+                    cr.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+
+        if (written != dataLength) {
+            // The data changed between measuring and writing it
+            Timber.e("part data length changed from %d to %d", dataLength, written);
+            return PDU_COMPOSE_CONTENT_ERROR;
         }
 
         return PDU_COMPOSE_SUCCESS;
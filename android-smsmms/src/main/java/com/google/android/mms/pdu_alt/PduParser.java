@@ -25,6 +25,7 @@ import android.util.Log;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.HashMap;
 
@@ -103,6 +104,17 @@ public class PduParser {
         mParseContentDisposition = parseContentDisposition;
     }
 
+    /**
+     * Constructor for pdu data that isn't on the heap, ie. a memory-mapped file.
+     *
+     * @param pduData pdu data to be parsed, from its position to its limit
+     * @param parseContentDisposition whether to parse the Content-Disposition part header
+     */
+    public PduParser(ByteBuffer pduData, boolean parseContentDisposition) {
+        mPduDataStream = new ByteBufferInputStream(pduData);
+        mParseContentDisposition = parseContentDisposition;
+    }
+
     /**
      * Constructor. Default the parsing content disposition.
      *
@@ -913,34 +925,31 @@ public class PduParser {
 
             /* get part's data */
             if (dataLength > 0) {
-                byte[] partData = new byte[dataLength];
+                ByteBuffer partData;
+                if (pduDataStream instanceof ByteBufferInputStream) {
+                    // reference the part's data in the source buffer rather than copying it
+                    partData = ((ByteBufferInputStream) pduDataStream).readSlice(dataLength);
+                } else {
+                    byte[] partBytes = new byte[dataLength];
+                    pduDataStream.read(partBytes, 0, dataLength);
+                    partData = ByteBuffer.wrap(partBytes);
+                }
                 String partContentType = new String(part.getContentType());
-                pduDataStream.read(partData, 0, dataLength);
                 if (partContentType.equalsIgnoreCase(ContentType.MULTIPART_ALTERNATIVE)) {
                     // parse "multipart/vnd.wap.multipart.alternative".
-                    PduBody childBody = parseParts(new ByteArrayInputStream(partData));
+                    PduBody childBody = parseParts(new ByteBufferInputStream(partData));
                     // take the first part of children.
                     part = childBody.getPart(0);
                 } else {
-                    // Check Content-Transfer-Encoding.
-                    byte[] partDataEncoding = part.getContentTransferEncoding();
-                    if (null != partDataEncoding) {
-                        String encoding = new String(partDataEncoding);
-                        if (encoding.equalsIgnoreCase(PduPart.P_BASE64)) {
-                            // Decode "base64" into "binary".
-                            partData = Base64.decodeBase64(partData);
-                        } else if (encoding.equalsIgnoreCase(PduPart.P_QUOTED_PRINTABLE)) {
-                            // Decode "quoted-printable" into "binary".
-                            partData = QuotedPrintable.decodeQuotedPrintable(partData);
-                        } else {
-                            // "binary" is the default encoding.
-                        }
-                    }
-                    if (null == partData) {
-                        log("Decode part data error!");
-                        return null;
+                    // Check Content-Transfer-Encoding. "base64" and "quoted-printable" data
+                    // is only decoded once somebody asks for it
+                    String encoding = getTransferEncoding(part);
+                    if (null != encoding) {
+                        part.setEncodedData(partData, encoding);
+                    } else {
+                        // "binary" is the default encoding.
+                        part.setData(partData);
                     }
-                    part.setData(partData);
                 }
             }
 
@@ -957,6 +966,22 @@ public class PduParser {
         return body;
     }
 
+    /**
+     * @return the part's Content-Transfer-Encoding if it's one that needs decoding, else null
+     */
+    private static String getTransferEncoding(PduPart part) {
+        byte[] partDataEncoding = part.getContentTransferEncoding();
+        if (null == partDataEncoding) {
+            return null;
+        }
+        String encoding = new String(partDataEncoding);
+        if (encoding.equalsIgnoreCase(PduPart.P_BASE64)
+                || encoding.equalsIgnoreCase(PduPart.P_QUOTED_PRINTABLE)) {
+            return encoding;
+        }
+        return null;
+    }
+
     /**
      * Log status.
      *
@@ -1633,6 +1658,7 @@ public class PduParser {
         int tempPos = 0;
         int lastLen = length;
         while(0 < lastLen) {
+            pduDataStream.mark(1);
             int header = pduDataStream.read();
             assert(-1 != header);
             lastLen--;
@@ -1735,7 +1761,8 @@ public class PduParser {
                     break;
                 }
             } else if ((header >= TEXT_MIN) && (header <= TEXT_MAX)) {
-                // Not assigned header.
+                // Not assigned header. The octet we read is the first character of its name.
+                pduDataStream.reset();
                 byte[] tempHeader = parseWapString(pduDataStream, TYPE_TEXT_STRING);
                 byte[] tempValue = parseWapString(pduDataStream, TYPE_TEXT_STRING);
 
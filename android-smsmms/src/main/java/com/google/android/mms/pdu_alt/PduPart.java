@@ -18,6 +18,13 @@ package com.google.android.mms.pdu_alt;
 
 import android.net.Uri;
 
+import timber.log.Timber;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -112,12 +119,29 @@ public class PduPart {
       * Data uri.
       */
      private Uri mUri = null;
+     private long mUriDataLength = -1;
 
      /**
       * Part data.
       */
      private byte[] mPartData = null;
 
+     /**
+      * Part data, when it's a view of the buffer the PDU was parsed from.
+      */
+     private ByteBuffer mPartDataBuffer = null;
+
+     /**
+      * Transfer encoding of the part data, while it hasn't been decoded yet.
+      */
+     private String mPartDataEncoding = null;
+
+     /**
+      * Decoded length of the transfer encoded part data, or -1 if it hasn't been
+      * counted yet.
+      */
+     private int mDecodedDataLength = -1;
+
      /**
       * Empty Constructor.
       */
@@ -137,6 +161,64 @@ public class PduPart {
 
          mPartData = new byte[data.length];
          System.arraycopy(data, 0, mPartData, 0, data.length);
+         mPartDataBuffer = null;
+         mPartDataEncoding = null;
+         mDecodedDataLength = -1;
+     }
+
+     /**
+      * Set part data as a view of a buffer, from its position to its limit. The
+      * data isn't copied, so the buffer's content must not change while the part
+      * is in use.
+      *
+      * @param data the data
+      */
+     public void setData(ByteBuffer data) {
+         if(data == null) {
+            return;
+        }
+
+         mPartDataBuffer = data.slice().asReadOnlyBuffer();
+         mPartData = null;
+         mPartDataEncoding = null;
+         mDecodedDataLength = -1;
+     }
+
+     /**
+      * Set part data that is still transfer encoded. It's only decoded once it's
+      * needed, so that consumers who only look at the headers don't pay for it.
+      *
+      * @param data the encoded data, which isn't copied
+      * @param encoding either {@link #P_BASE64} or {@link #P_QUOTED_PRINTABLE}
+      */
+     void setEncodedData(ByteBuffer data, String encoding) {
+         setData(data);
+         mPartDataEncoding = encoding;
+     }
+
+     /**
+      * Decode the part data, if it's still transfer encoded. If decoding fails,
+      * the data is dropped.
+      */
+     private void decodeData() {
+         if(mPartDataEncoding == null) {
+             return;
+         }
+
+         InputStream is = getDataStream();
+         ByteArrayOutputStream os = new ByteArrayOutputStream(mPartDataBuffer.remaining());
+         byte[] buffer = new byte[8192];
+         try {
+             for (int len = 0; (len = is.read(buffer)) != -1; ) {
+                 os.write(buffer, 0, len);
+             }
+             mPartData = os.toByteArray();
+         } catch (IOException e) {
+             Timber.e(e, "Decode part data error!");
+             mPartData = null;
+         }
+         mPartDataBuffer = null;
+         mPartDataEncoding = null;
      }
 
      /**
@@ -145,6 +227,14 @@ public class PduPart {
       * @see #getDataUri
       */
      public byte[] getData() {
+         decodeData();
+
+         if(mPartDataBuffer != null) {
+             byte[] byteArray = new byte[mPartDataBuffer.remaining()];
+             mPartDataBuffer.duplicate().get(byteArray);
+             return byteArray;
+         }
+
          if(mPartData == null) {
             return null;
          }
@@ -158,14 +248,73 @@ public class PduPart {
      * @return The length of the data, if this object have data, else 0.
      */
      public int getDataLength() {
-         if(mPartData != null){
+         if(mPartDataEncoding != null) {
+             // count the decoded bytes without keeping them around, once
+             if(mDecodedDataLength == -1) {
+                 try {
+                     mDecodedDataLength = (int) getDataStream().skip(Integer.MAX_VALUE);
+                 } catch (IOException e) {
+                     mDecodedDataLength = 0;
+                 }
+             }
+             return mDecodedDataLength;
+         } else if(mPartDataBuffer != null) {
+             return mPartDataBuffer.remaining();
+         } else if(mPartData != null){
              return mPartData.length;
+         } else if(mUriDataLength > 0) {
+             return (int) mUriDataLength;
          } else {
              return 0;
          }
      }
 
 
+     /**
+      * @return A read-only view of the part data, without copying it, or null if
+      *         the data wasn't set or the data is stored as Uri.
+      * @see #getData
+      */
+     public ByteBuffer getDataBuffer() {
+         decodeData();
+
+         if(mPartDataBuffer != null) {
+             return mPartDataBuffer.duplicate();
+         } else if(mPartData != null) {
+             return ByteBuffer.wrap(mPartData).asReadOnlyBuffer();
+         } else {
+             return null;
+         }
+     }
+
+     /**
+      * @return A stream of the part data, which is decoded while it's read if
+      *         it's still transfer encoded, or null if the data wasn't set or
+      *         the data is stored as Uri.
+      * @see #getData
+      */
+     public InputStream getDataStream() {
+         if(mPartDataBuffer != null) {
+             InputStream is = new ByteBufferInputStream(mPartDataBuffer);
+             if(mPartDataEncoding != null) {
+                 is = new TransferDecodingInputStream(is, mPartDataEncoding);
+             }
+             return is;
+         } else if(mPartData != null) {
+             return new ByteArrayInputStream(mPartData);
+         } else {
+             return null;
+         }
+     }
+
+     /**
+      * @return true if the part has data as bytes rather than as Uri, without
+      *         decoding it.
+      */
+     public boolean hasData() {
+         return mPartDataBuffer != null || mPartData != null;
+     }
+
      /**
       * Set data uri. The data are stored as Uri.
       *
@@ -175,6 +324,19 @@ public class PduPart {
          mUri = uri;
      }
 
+     /**
+      * Set data uri, along with the length of the data behind it, so that the
+      * part can be sized without reading it. The length is kept if the uri is
+      * later changed with {@link #setDataUri(Uri)}, since the data is the same.
+      *
+      * @param uri the uri
+      * @param length the length of the data, or -1 if it isn't known
+      */
+     public void setDataUri(Uri uri, long length) {
+         mUri = uri;
+         mUriDataLength = length;
+     }
+
      /**
       * @return The Uri of the part data or null if the data wasn't set or
       *         the data is stored as byte array.
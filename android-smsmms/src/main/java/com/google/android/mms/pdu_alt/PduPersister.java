@@ -17,16 +17,20 @@
 package com.google.android.mms.pdu_alt;
 
 import android.Manifest;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.pm.PackageManager;
 import android.database.Cursor;
 import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteException;
 import android.drm.DrmManagerClient;
 import android.net.Uri;
+import android.os.RemoteException;
 import android.provider.MediaStore;
 import android.provider.Telephony;
 import android.provider.Telephony.Mms;
@@ -58,12 +62,18 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This class is the high-level manager of PDU storage.
@@ -96,6 +106,12 @@ public class PduPersister {
     private static PduPersister sPersister;
     private static final PduCache PDU_CACHE_INSTANCE;
 
+    /**
+     * Writes the data of the parts of a message in parallel.
+     */
+    private static final ThreadPoolExecutor PART_DATA_EXECUTOR;
+    private static final int PART_DATA_THREADS = 3;
+
     private static final int[] ADDRESS_FIELDS = new int[] {
             PduHeaders.BCC,
             PduHeaders.CC,
@@ -276,6 +292,10 @@ public class PduPersister {
         LONG_COLUMN_NAME_MAP.put(PduHeaders.MESSAGE_SIZE, Mms.MESSAGE_SIZE);
 
         PDU_CACHE_INSTANCE = PduCache.getInstance();
+
+        PART_DATA_EXECUTOR = new ThreadPoolExecutor(PART_DATA_THREADS, PART_DATA_THREADS,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        PART_DATA_EXECUTOR.allowCoreThreadTimeOut(true);
      }
 
     private final Context mContext;
@@ -543,17 +563,19 @@ public class PduPersister {
                         Timber.e(e, "load: ");
                     }
                 }
+            }
 
-                cacheEntry = PDU_CACHE_INSTANCE.get(uri);
-                if (cacheEntry != null) {
-                    return cacheEntry.getPdu();
-                }
-
-                // Tell the cache to indicate to other callers that this item
-                // is currently being updated.
-                PDU_CACHE_INSTANCE.setUpdating(uri, true);
+            // The cache can be read without holding its lock, which is only needed to wait
+            // for whoever is updating this item.
+            cacheEntry = PDU_CACHE_INSTANCE.get(uri);
+            if (cacheEntry != null) {
+                return cacheEntry.getPdu();
             }
 
+            // Tell the cache to indicate to other callers that this item
+            // is currently being updated.
+            PDU_CACHE_INSTANCE.setUpdating(uri, true);
+
             Cursor c = SqliteWrapper.query(mContext, mContentResolver, uri,
                     PDU_PROJECTION, null, null, null);
             PduHeaders headers = new PduHeaders();
@@ -706,7 +728,29 @@ public class PduPersister {
     public Uri persistPart(PduPart part, long msgId, HashMap<Uri, InputStream> preOpenedFiles)
             throws MmsException {
         Uri uri = Uri.parse("content://mms/" + msgId + "/part");
-        ContentValues values = new ContentValues(8);
+        ContentValues values = getPartValues(part);
+        String contentType = values.getAsString(Part.CONTENT_TYPE);
+
+        Uri res = SqliteWrapper.insert(mContext, mContentResolver, uri, values);
+        if (res == null) {
+            throw new MmsException("Failed to persist part, return null.");
+        }
+
+        persistData(part, res, contentType, preOpenedFiles);
+        // After successfully store the data, we should update
+        // the dataUri of the part.
+        part.setDataUri(res);
+
+        return res;
+    }
+
+    /**
+     * Build the row of a part, without its data.
+     *
+     * @throws MmsException if the part has no MIME type
+     */
+    private static ContentValues getPartValues(PduPart part) throws MmsException {
+        ContentValues values = new ContentValues(9);
 
         int charset = part.getCharset();
         if (charset != 0 ) {
@@ -756,17 +800,155 @@ public class PduPersister {
             values.put(Part.CONTENT_LOCATION, (String) value);
         }
 
-        Uri res = SqliteWrapper.insert(mContext, mContentResolver, uri, values);
-        if (res == null) {
-            throw new MmsException("Failed to persist part, return null.");
+        return values;
+    }
+
+    private static boolean isTextContentType(String contentType) {
+        return ContentType.TEXT_PLAIN.equals(contentType)
+                || ContentType.APP_SMIL.equals(contentType)
+                || ContentType.TEXT_HTML.equals(contentType);
+    }
+
+    /**
+     * Persist all the parts of a body with {@code msgId}. The part rows, including the text of
+     * text parts, are inserted with a single batch, and then the data of the other parts is
+     * streamed in parallel. If the batch fails, the parts are persisted one by one instead.
+     */
+    private void persistParts(PduBody body, long msgId,
+            final HashMap<Uri, InputStream> preOpenedFiles) throws MmsException {
+        Uri uri = Uri.parse("content://mms/" + msgId + "/part");
+        int partsNum = body.getPartsNum();
+        String[] contentTypes = new String[partsNum];
+        ArrayList<ContentProviderOperation> ops =
+                new ArrayList<ContentProviderOperation>(partsNum);
+        for (int i = 0; i < partsNum; i++) {
+            PduPart part = body.getPart(i);
+            ContentValues values = getPartValues(part);
+            contentTypes[i] = values.getAsString(Part.CONTENT_TYPE);
+            if (isTextContentType(contentTypes[i])) {
+                values.put(Part.TEXT, getPartText(part));
+            }
+            ops.add(ContentProviderOperation.newInsert(uri).withValues(values).build());
         }
 
-        persistData(part, res, contentType, preOpenedFiles);
-        // After successfully store the data, we should update
-        // the dataUri of the part.
-        part.setDataUri(res);
+        ContentProviderResult[] results;
+        try {
+            results = mContentResolver.applyBatch(Mms.CONTENT_URI.getAuthority(), ops);
+        } catch (RemoteException | OperationApplicationException | RuntimeException e) {
+            Timber.w(e, "Batch insert of parts failed, persisting them one by one");
+            SqliteWrapper.delete(mContext, mContentResolver, uri, null, null);
+            for (int i = 0; i < partsNum; i++) {
+                persistPart(body.getPart(i), msgId, preOpenedFiles);
+            }
+            return;
+        }
 
-        return res;
+        ArrayList<Future<Void>> pending = new ArrayList<Future<Void>>(partsNum);
+        for (int i = 0; i < partsNum; i++) {
+            final PduPart part = body.getPart(i);
+            final Uri res = results[i].uri;
+            final String contentType = contentTypes[i];
+            if (res == null) {
+                throw new MmsException("Failed to persist part, return null.");
+            }
+
+            if (isTextContentType(contentType)) {
+                part.setDataUri(res);
+                continue;
+            }
+
+            pending.add(PART_DATA_EXECUTOR.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws MmsException {
+                    persistData(part, res, contentType, preOpenedFiles);
+                    // After successfully store the data, we should update
+                    // the dataUri of the part.
+                    part.setDataUri(res);
+                    return null;
+                }
+            }));
+        }
+
+        MmsException error = null;
+        for (Future<Void> future : pending) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (error == null) {
+                    error = e.getCause() instanceof MmsException
+                            ? (MmsException) e.getCause() : new MmsException(e.getCause());
+                }
+            } catch (InterruptedException e) {
+                // Don't leave the remaining parts being written for a message that's given up on
+                for (Future<Void> remaining : pending) {
+                    remaining.cancel(true);
+                }
+                Thread.currentThread().interrupt();
+                throw new MmsException(e);
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Get the text of a text part, the way {@link #persistData} stores it.
+     */
+    private static String getPartText(PduPart part) {
+        byte[] data = part.getData();
+        if (data == null) {
+            return "";
+        }
+        return new EncodedStringValue(data).getString();
+    }
+
+    /**
+     * Set the message id of the parts that were persisted with {@code dummyId}, and persist
+     * the addresses of the message, with a single batch. Falls back to doing it one row at a
+     * time if the batch fails.
+     */
+    private void persistPartIdAndAddresses(long dummyId, long msgId,
+            HashMap<Integer, EncodedStringValue[]> addressMap) {
+        Uri partUri = Uri.parse("content://mms/" + dummyId + "/part");
+        Uri addrUri = Uri.parse("content://mms/" + msgId + "/addr");
+
+        ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>();
+        ops.add(ContentProviderOperation.newUpdate(partUri)
+                .withValue(Part.MSG_ID, msgId)
+                .build());
+        for (int addrType : ADDRESS_FIELDS) {
+            EncodedStringValue[] array = addressMap.get(addrType);
+            if (array != null) {
+                for (EncodedStringValue addr : array) {
+                    ops.add(ContentProviderOperation.newInsert(addrUri)
+                            .withValue(Addr.ADDRESS, toIsoString(addr.getTextString()))
+                            .withValue(Addr.CHARSET, addr.getCharacterSet())
+                            .withValue(Addr.TYPE, addrType)
+                            .build());
+                }
+            }
+        }
+
+        try {
+            mContentResolver.applyBatch(Mms.CONTENT_URI.getAuthority(), ops);
+            return;
+        } catch (RemoteException | OperationApplicationException | RuntimeException e) {
+            Timber.w(e, "Batch insert of addresses failed, persisting them one by one");
+        }
+
+        ContentValues values = new ContentValues(1);
+        values.put(Part.MSG_ID, msgId);
+        SqliteWrapper.update(mContext, mContentResolver, partUri, values, null, null);
+
+        // Drop any addresses the batch managed to insert before failing
+        SqliteWrapper.delete(mContext, mContentResolver, addrUri, null, null);
+        for (int addrType : ADDRESS_FIELDS) {
+            EncodedStringValue[] array = addressMap.get(addrType);
+            if (array != null) {
+                persistAddress(msgId, addrType, array);
+            }
+        }
     }
 
     private static String cutString(String src, int expectSize) {
@@ -820,10 +1002,10 @@ public class PduPersister {
         String path = null;
 
         try {
-            byte[] data = part.getData();
             if (ContentType.TEXT_PLAIN.equals(contentType)
                     || ContentType.APP_SMIL.equals(contentType)
                     || ContentType.TEXT_HTML.equals(contentType)) {
+                byte[] data = part.getData();
                 ContentValues cv = new ContentValues();
                 if (data == null) {
                     data = new String("").getBytes(CharacterSets.DEFAULT_CHARSET_NAME);
@@ -874,7 +1056,10 @@ public class PduPersister {
                 // uri can look like:
                 // content://mms/part/98
                 os = mContentResolver.openOutputStream(uri);
-                if (data == null) {
+                // stream the part data, which may be a view of the received PDU that's still
+                // transfer encoded, rather than materialising it
+                is = part.getDataStream();
+                if (is == null) {
                     dataUri = part.getDataUri();
                     if ((dataUri == null) || (dataUri == uri)) {
                         Timber.w("Can't find data for this part.");
@@ -888,33 +1073,18 @@ public class PduPersister {
                     if (is == null) {
                         is = mContentResolver.openInputStream(dataUri);
                     }
+                }
 
-                    if (LOCAL_LOGV) {
-                        Timber.v("Saving data to: %s", uri);
-                    }
+                if (LOCAL_LOGV) {
+                    Timber.v("Saving data to: %s", uri);
+                }
 
-                    byte[] buffer = new byte[8192];
-                    for (int len = 0; (len = is.read(buffer)) != -1; ) {
-                        if (!isDrm) {
-                            os.write(buffer, 0, len);
-                        } else {
-                            byte[] convertedData = drmConvertSession.convert(buffer, len);
-                            if (convertedData != null) {
-                                os.write(convertedData, 0, convertedData.length);
-                            } else {
-                                throw new MmsException("Error converting drm data.");
-                            }
-                        }
-                    }
-                } else {
-                    if (LOCAL_LOGV) {
-                        Timber.v("Saving data to: %s", uri);
-                    }
+                byte[] buffer = new byte[8192];
+                for (int len = 0; (len = is.read(buffer)) != -1; ) {
                     if (!isDrm) {
-                        os.write(data);
+                        os.write(buffer, 0, len);
                     } else {
-                        dataUri = uri;
-                        byte[] convertedData = drmConvertSession.convert(data, data.length);
+                        byte[] convertedData = drmConvertSession.convert(buffer, len);
                         if (convertedData != null) {
                             os.write(convertedData, 0, convertedData.length);
                         } else {
@@ -1175,7 +1345,7 @@ public class PduPersister {
         // Only update the data when:
         // 1. New binary data supplied or
         // 2. The Uri of the part is different from the current one.
-        if ((part.getData() != null)
+        if (part.hasData()
                 || (uri != part.getDataUri())) {
             persistData(part, uri, contentType, preOpenedFiles);
         }
@@ -1192,7 +1362,7 @@ public class PduPersister {
     public void updateParts(Uri uri, PduBody body, HashMap<Uri, InputStream> preOpenedFiles)
             throws MmsException {
         try {
-            PduCacheEntry cacheEntry;
+            boolean waited = false;
             synchronized(PDU_CACHE_INSTANCE) {
                 if (PDU_CACHE_INSTANCE.isUpdating(uri)) {
                     if (LOCAL_LOGV) {
@@ -1203,16 +1373,20 @@ public class PduPersister {
                     } catch (InterruptedException e) {
                         Timber.e(e, "updateParts: ");
                     }
-                    cacheEntry = PDU_CACHE_INSTANCE.get(uri);
-                    if (cacheEntry != null) {
-                        ((MultimediaMessagePdu) cacheEntry.getPdu()).setBody(body);
-                    }
+                    waited = true;
                 }
                 // Tell the cache to indicate to other callers that this item
                 // is currently being updated.
                 PDU_CACHE_INSTANCE.setUpdating(uri, true);
             }
 
+            if (waited) {
+                PduCacheEntry cacheEntry = PDU_CACHE_INSTANCE.get(uri);
+                if (cacheEntry != null) {
+                    ((MultimediaMessagePdu) cacheEntry.getPdu()).setBody(body);
+                }
+            }
+
             ArrayList<PduPart> toBeCreated = new ArrayList<PduPart>();
             HashMap<Uri, PduPart> toBeUpdated = new HashMap<Uri, PduPart>();
 
@@ -1439,10 +1613,10 @@ public class PduPersister {
                     // Otherwise, a slideshow with two text slides would be marked as textOnly.
                     textOnly = false;
                 }
+                persistParts(body, dummyId, preOpenedFiles);
                 for (int i = 0; i < partsNum; i++) {
                     PduPart part = body.getPart(i);
                     messageSize += part.getDataLength();
-                    persistPart(part, dummyId, preOpenedFiles);
 
                     // If we've got anything besides text/plain or SMIL part, then we've got
                     // an mms message with some other type of attachment.
@@ -1482,11 +1656,9 @@ public class PduPersister {
             msgId = ContentUris.parseId(res);
         }
 
-        values = new ContentValues(1);
-        values.put(Part.MSG_ID, msgId);
-        SqliteWrapper.update(mContext, mContentResolver,
-                             Uri.parse("content://mms/" + dummyId + "/part"),
-                             values, null, null);
+        // Move the parts to the real ID and save the addresses
+        persistPartIdAndAddresses(dummyId, msgId, addressMap);
+
         // We should return the longest URI of the persisted PDU, for
         // example, if input URI is "content://mms/inbox" and the _ID of
         // persisted PDU is '8', we should return "content://mms/inbox/8"
@@ -1496,14 +1668,6 @@ public class PduPersister {
             res = Uri.parse(uri + "/" + msgId);
         }
 
-        // Save address information.
-        for (int addrType : ADDRESS_FIELDS) {
-            EncodedStringValue[] array = addressMap.get(addrType);
-            if (array != null) {
-                persistAddress(msgId, addrType, array);
-            }
-        }
-
         return res;
     }
 
@@ -1579,26 +1743,14 @@ public class PduPersister {
      * Wrap a byte[] into a String.
      */
     public static String toIsoString(byte[] bytes) {
-        try {
-            return new String(bytes, CharacterSets.MIMENAME_ISO_8859_1);
-        } catch (UnsupportedEncodingException e) {
-            // Impossible to reach here!
-            Timber.e(e, "ISO_8859_1 must be supported!");
-            return "";
-        }
+        return new String(bytes, StandardCharsets.ISO_8859_1);
     }
 
     /**
      * Unpack a given String into a byte[].
      */
     public static byte[] getBytes(String data) {
-        try {
-            return data.getBytes(CharacterSets.MIMENAME_ISO_8859_1);
-        } catch (UnsupportedEncodingException e) {
-            // Impossible to reach here!
-            Timber.e(e, "ISO_8859_1 must be supported!");
-            return new byte[0];
-        }
+        return data.getBytes(StandardCharsets.ISO_8859_1);
     }
 
     /**
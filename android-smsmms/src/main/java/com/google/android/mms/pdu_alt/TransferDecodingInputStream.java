@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2015 Jacob Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.pdu_alt;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An {@link InputStream} that decodes base64 or quoted-printable data as it's read, so that
+ * encoded part data can be written out without decoding all of it into memory first.
+ *
+ * The decoding matches {@link Base64#decodeBase64(byte[])} and
+ * {@link QuotedPrintable#decodeQuotedPrintable(byte[])}, except that invalid quoted-printable
+ * data causes an {@link IOException} rather than a null result.
+ */
+class TransferDecodingInputStream extends FilterInputStream {
+    private final boolean mBase64;
+
+    // Holds encoded data read ahead from the underlying stream
+    private final byte[] mBuffer = new byte[4096];
+    private int mBufferPos = 0;
+    private int mBufferLen = 0;
+
+    // Holds the last base64 quadruple, and the bytes decoded from it
+    private final byte[] mQuadruple = new byte[Base64.FOURBYTE];
+    private final byte[] mDecoded = new byte[3];
+    private int mDecodedPos = 0;
+    private int mDecodedLen = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param in the encoded data
+     * @param encoding either {@link PduPart#P_BASE64} or {@link PduPart#P_QUOTED_PRINTABLE}
+     */
+    TransferDecodingInputStream(InputStream in, String encoding) {
+        super(in);
+        mBase64 = PduPart.P_BASE64.equalsIgnoreCase(encoding);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (mBase64) {
+            if (mDecodedPos == mDecodedLen && !readQuadruple()) {
+                return -1;
+            }
+            return mDecoded[mDecodedPos++] & 0xFF;
+        }
+
+        return readQuotedPrintable();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        int count = 0;
+        if (mBase64) {
+            while (count < len) {
+                if (mDecodedPos == mDecodedLen && !readQuadruple()) {
+                    break;
+                }
+                int n = Math.min(len - count, mDecodedLen - mDecodedPos);
+                System.arraycopy(mDecoded, mDecodedPos, b, off + count, n);
+                mDecodedPos += n;
+                count += n;
+            }
+        } else {
+            while (count < len) {
+                int value = readQuotedPrintable();
+                if (value == -1) {
+                    break;
+                }
+                b[off + count++] = (byte) value;
+            }
+        }
+        return count == 0 ? -1 : count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] scratch = new byte[(int) Math.max(0, Math.min(n, 8192))];
+        long count = 0;
+        while (count < n) {
+            int len = read(scratch, 0, (int) Math.min(n - count, scratch.length));
+            if (len == -1) {
+                break;
+            }
+            count += len;
+        }
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return mDecodedLen - mDecodedPos;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * Decodes the next quadruple of base64 characters into {@link #mDecoded}, skipping any
+     * characters outside of the base64 alphabet as required by RFC 2045. An incomplete trailing
+     * quadruple, or one that is only padding, is ignored.
+     *
+     * @return false at the end of the data
+     */
+    private boolean readQuadruple() throws IOException {
+        byte[] quadruple = mQuadruple;
+        int count = 0;
+        while (count < Base64.FOURBYTE) {
+            int octet = readEncoded();
+            if (octet == -1) {
+                return false;
+            }
+            if (octet == Base64.PAD || Base64.valueOf(octet) != -1) {
+                quadruple[count++] = (byte) octet;
+            }
+        }
+
+        if (quadruple[0] == Base64.PAD || quadruple[1] == Base64.PAD) {
+            // Only padding is left
+            return false;
+        }
+
+        int b1 = Base64.valueOf(quadruple[0]);
+        int b2 = Base64.valueOf(quadruple[1]);
+        mDecodedPos = 0;
+        mDecoded[0] = (byte) (b1 << 2 | b2 >> 4);
+        if (quadruple[2] == Base64.PAD) {
+            // Two PAD e.g. 3c[Pad][Pad]
+            mDecodedLen = 1;
+        } else {
+            int b3 = Base64.valueOf(quadruple[2]);
+            mDecoded[1] = (byte) (((b2 & 0xf) << 4) | ((b3 >> 2) & 0xf));
+            if (quadruple[3] == Base64.PAD) {
+                // One PAD e.g. 3cQ[Pad]
+                mDecodedLen = 2;
+            } else {
+                int b4 = Base64.valueOf(quadruple[3]);
+                mDecoded[2] = (byte) (b3 << 6 | b4);
+                mDecodedLen = 3;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes the next quoted-printable character, skipping soft line breaks.
+     *
+     * @return the decoded byte, or -1 at the end of the data
+     */
+    private int readQuotedPrintable() throws IOException {
+        while (true) {
+            int b = readEncoded();
+            if (b != '=') {
+                return b;
+            }
+
+            int first = readEncoded();
+            int second = readEncoded();
+            if (first == '\r' && second == '\n') {
+                continue;
+            }
+
+            int u = first == -1 ? -1 : Character.digit((char) first, 16);
+            int l = second == -1 ? -1 : Character.digit((char) second, 16);
+            if (u == -1 || l == -1) {
+                throw new IOException("Invalid quoted-printable data");
+            }
+            return (u << 4) + l;
+        }
+    }
+
+    /**
+     * @return the next byte of encoded data, or -1 at the end of the data
+     */
+    private int readEncoded() throws IOException {
+        if (mBufferPos == mBufferLen) {
+            int len = in.read(mBuffer, 0, mBuffer.length);
+            if (len <= 0) {
+                return -1;
+            }
+            mBufferPos = 0;
+            mBufferLen = len;
+        }
+        return mBuffer[mBufferPos++] & 0xFF;
+    }
+}
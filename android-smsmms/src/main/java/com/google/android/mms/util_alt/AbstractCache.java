@@ -18,44 +18,126 @@ package com.google.android.mms.util_alt;
 
 import timber.log.Timber; import android.util.Log; import static com.klinker.android.timberworkarounds.TimberExtensionsKt.Timber_isLoggable; // inserted with sed
 
-import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * A cache that evicts its least recently used entries once the total size of its entries,
+ * as measured by {@link #sizeOf(Object, Object)}, would exceed its maximum size.
+ *
+ * Reads don't take a lock, so that they aren't held up by writers. Recency is tracked with a
+ * per-entry access stamp, and the least recently used entry is found by scanning the entries
+ * when one has to be evicted.
+ */
 public abstract class AbstractCache<K, V> {
     private static final boolean LOCAL_LOGV = false;
 
     private static final int MAX_CACHED_ITEMS  = 500;
 
-    private final HashMap<K, CacheEntry<V>> mCacheMap;
+    private final ConcurrentHashMap<K, CacheEntry<V>> mCacheMap;
+    private final long mMaxSize;
+
+    // Guarded by this
+    private long mSize = 0;
 
+    private final AtomicLong mClock = new AtomicLong();
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+    private final AtomicLong mEvictionCount = new AtomicLong();
+
+    /**
+     * Creates a cache of at most {@link #MAX_CACHED_ITEMS} entries, unless
+     * {@link #sizeOf(Object, Object)} is overridden.
+     */
     protected AbstractCache() {
-        mCacheMap = new HashMap<K, CacheEntry<V>>();
+        this(MAX_CACHED_ITEMS);
+    }
+
+    /**
+     * @param maxSize the maximum total size of the entries, in the units of
+     *                {@link #sizeOf(Object, Object)}
+     */
+    protected AbstractCache(long maxSize) {
+        mCacheMap = new ConcurrentHashMap<K, CacheEntry<V>>();
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Returns the size of an entry. The default counts each entry as 1.
+     */
+    protected int sizeOf(K key, V value) {
+        return 1;
+    }
+
+    /**
+     * Called, while holding the cache's lock, when an entry is evicted to make room for another.
+     */
+    protected void onEvicted(K key, V value) {
     }
 
-    public boolean put(K key, V value) {
+    public synchronized boolean put(K key, V value) {
         if (LOCAL_LOGV) {
             Timber.v("Trying to put " + key + " into cache.");
         }
 
-        if (mCacheMap.size() >= MAX_CACHED_ITEMS) {
-            // TODO Should remove the oldest or least hit cached entry
-            // and then cache the new one.
+        if (key == null) {
+            return false;
+        }
+
+        int size = sizeOf(key, value);
+        if (size > mMaxSize) {
             if (LOCAL_LOGV) {
-                Timber.v("Failed! size limitation reached.");
+                Timber.v("Failed! " + key + " is larger than the cache.");
             }
             return false;
         }
 
-        if (key != null) {
-            CacheEntry<V> cacheEntry = new CacheEntry<V>();
-            cacheEntry.value = value;
-            mCacheMap.put(key, cacheEntry);
+        CacheEntry<V> cacheEntry = new CacheEntry<V>();
+        cacheEntry.value = value;
+        cacheEntry.size = size;
+        cacheEntry.lastAccess = mClock.incrementAndGet();
+
+        CacheEntry<V> previous = mCacheMap.put(key, cacheEntry);
+        if (previous != null) {
+            mSize -= previous.size;
+        }
+        mSize += size;
+
+        trimToSize(key);
+
+        if (LOCAL_LOGV) {
+            Timber.v(key + " cached, " + mCacheMap.size() + " items total.");
+        }
+        return true;
+    }
+
+    /**
+     * Evicts the least recently used entries, other than {@code keep}, until the cache fits.
+     */
+    private void trimToSize(K keep) {
+        while (mSize > mMaxSize) {
+            Map.Entry<K, CacheEntry<V>> eldest = null;
+            for (Map.Entry<K, CacheEntry<V>> entry : mCacheMap.entrySet()) {
+                if (!entry.getKey().equals(keep) && (eldest == null
+                        || entry.getValue().lastAccess < eldest.getValue().lastAccess)) {
+                    eldest = entry;
+                }
+            }
+
+            if (eldest == null) {
+                return;
+            }
+
+            mCacheMap.remove(eldest.getKey());
+            mSize -= eldest.getValue().size;
+            mEvictionCount.incrementAndGet();
+            onEvicted(eldest.getKey(), eldest.getValue().value);
 
             if (LOCAL_LOGV) {
-                Timber.v(key + " cached, " + mCacheMap.size() + " items total.");
+                Timber.v("Evicted " + eldest.getKey());
             }
-            return true;
         }
-        return false;
     }
 
     public V get(K key) {
@@ -67,21 +149,27 @@ public abstract class AbstractCache<K, V> {
             CacheEntry<V> cacheEntry = mCacheMap.get(key);
             if (cacheEntry != null) {
                 cacheEntry.hit++;
+                cacheEntry.lastAccess = mClock.incrementAndGet();
+                mHitCount.incrementAndGet();
                 if (LOCAL_LOGV) {
                     Timber.v(key + " hit " + cacheEntry.hit + " times.");
                 }
                 return cacheEntry.value;
             }
         }
+        mMissCount.incrementAndGet();
         return null;
     }
 
-    public V purge(K key) {
+    public synchronized V purge(K key) {
         if (LOCAL_LOGV) {
             Timber.v("Trying to purge " + key);
         }
 
-        CacheEntry<V> v = mCacheMap.remove(key);
+        CacheEntry<V> v = key != null ? mCacheMap.remove(key) : null;
+        if (v != null) {
+            mSize -= v.size;
+        }
 
         if (LOCAL_LOGV) {
             Timber.v(mCacheMap.size() + " items cached.");
@@ -90,20 +178,49 @@ public abstract class AbstractCache<K, V> {
         return v != null ? v.value : null;
     }
 
-    public void purgeAll() {
+    public synchronized void purgeAll() {
         if (LOCAL_LOGV) {
             Timber.v("Purging cache, " + mCacheMap.size()
                     + " items dropped.");
         }
         mCacheMap.clear();
+        mSize = 0;
     }
 
     public int size() {
         return mCacheMap.size();
     }
 
+    /**
+     * @return the total size of the cached entries, in the units of {@link #sizeOf(Object, Object)}
+     */
+    public synchronized long sizeInUnits() {
+        return mSize;
+    }
+
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    public long getEvictionCount() {
+        return mEvictionCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[size=" + sizeInUnits() + "/" + mMaxSize
+                + ", items=" + size() + ", hits=" + getHitCount() + ", misses=" + getMissCount()
+                + ", evictions=" + getEvictionCount() + "]";
+    }
+
     private static class CacheEntry<V> {
         int hit;
+        volatile long lastAccess;
+        int size;
         V value;
     }
 }
@@ -20,6 +20,9 @@ import android.content.ContentUris;
 import android.content.UriMatcher;
 import android.net.Uri;
 import android.provider.Telephony.Mms;
+import com.google.android.mms.pdu_alt.GenericPdu;
+import com.google.android.mms.pdu_alt.MultimediaMessagePdu;
+import com.google.android.mms.pdu_alt.PduBody;
 import timber.log.Timber;
 
 import java.util.HashMap;
@@ -28,6 +31,16 @@ import java.util.HashSet;
 public final class PduCache extends AbstractCache<Uri, PduCacheEntry> {
     private static final boolean LOCAL_LOGV = false;
 
+    /**
+     * Maximum total size of the cached PDUs, in bytes.
+     */
+    private static final int MAX_CACHE_SIZE = 2 * 1024 * 1024;
+
+    /**
+     * Estimated size of a PDU's headers and bookkeeping, on top of its part data.
+     */
+    private static final int ENTRY_OVERHEAD = 1024;
+
     private static final int MMS_ALL             = 0;
     private static final int MMS_ALL_ID          = 1;
     private static final int MMS_INBOX           = 2;
@@ -73,6 +86,7 @@ public final class PduCache extends AbstractCache<Uri, PduCacheEntry> {
     private final HashSet<Uri> mUpdating;
 
     private PduCache() {
+        super(MAX_CACHE_SIZE);
         mMessageBoxes = new HashMap<Integer, HashSet<Uri>>();
         mThreads = new HashMap<Long, HashSet<Uri>>();
         mUpdating = new HashSet<Uri>();
@@ -114,6 +128,31 @@ public final class PduCache extends AbstractCache<Uri, PduCacheEntry> {
         return result;
     }
 
+    /**
+     * Weighs an entry by the size of the part data it holds in memory, so that a few large
+     * messages can't crowd out many small ones.
+     */
+    @Override
+    protected int sizeOf(Uri key, PduCacheEntry entry) {
+        int size = ENTRY_OVERHEAD;
+        GenericPdu pdu = entry.getPdu();
+        if (pdu instanceof MultimediaMessagePdu) {
+            PduBody body = ((MultimediaMessagePdu) pdu).getBody();
+            if (body != null) {
+                for (int i = 0; i < body.getPartsNum(); i++) {
+                    size += body.getPart(i).getDataLength();
+                }
+            }
+        }
+        return size;
+    }
+
+    @Override
+    protected void onEvicted(Uri key, PduCacheEntry entry) {
+        removeFromThreads(key, entry);
+        removeFromMessageBoxes(key, entry);
+    }
+
     synchronized public void setUpdating(Uri uri, boolean updating) {
         if (updating) {
             mUpdating.add(uri);
@@ -250,7 +289,7 @@ public final class PduCache extends AbstractCache<Uri, PduCacheEntry> {
     }
 
     private void removeFromMessageBoxes(Uri key, PduCacheEntry entry) {
-        HashSet<Uri> msgBox = mThreads.get(Long.valueOf(entry.getMessageBox()));
+        HashSet<Uri> msgBox = mMessageBoxes.get(entry.getMessageBox());
         if (msgBox != null) {
             msgBox.remove(key);
         }
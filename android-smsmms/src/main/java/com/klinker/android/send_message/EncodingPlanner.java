@@ -0,0 +1,133 @@
+/*
+ * Copyright 2013 Jacob Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.klinker.android.send_message;
+
+import com.android.internal.telephony.GsmAlphabet;
+import com.android.internal.telephony.GsmAlphabet.TextEncodingDetails;
+import com.android.internal.telephony.SmsConstants;
+
+/**
+ * Picks how to encode the text of an outgoing SMS so that it needs as few segments as possible.
+ *
+ * Text that fits the GSM 7 bit alphabet, using any of the enabled national language tables, is
+ * sent in it. Otherwise it has to be sent as UCS-2, which fits less than half as many chars in
+ * a segment. When accents are stripped, they're stripped with {@link StripAccents#stripAccents}
+ * whether or not that saves segments, since that's what the preference promises, and the plan
+ * reports how many segments it saved.
+ */
+public class EncodingPlanner {
+
+    /**
+     * The text to send, and the segments it needs.
+     */
+    public static class Plan {
+        public final String text;
+        public final int msgCount;
+        public final int codeUnitCount;
+        public final int codeUnitsRemaining;
+        public final int codeUnitSize;
+
+        /**
+         * The number of segments saved compared to sending the text as it was typed.
+         */
+        public final int savedMsgCount;
+
+        private final boolean transliterated;
+
+        Plan(String text, TextEncodingDetails ted, boolean transliterated, int savedMsgCount) {
+            this.text = text;
+            this.msgCount = ted.msgCount;
+            this.codeUnitCount = ted.codeUnitCount;
+            this.codeUnitsRemaining = ted.codeUnitsRemaining;
+            this.codeUnitSize = ted.codeUnitSize;
+            this.savedMsgCount = savedMsgCount;
+            this.transliterated = transliterated;
+        }
+
+        public boolean isTransliterated() {
+            return transliterated;
+        }
+    }
+
+    private EncodingPlanner() {
+    }
+
+    /**
+     * Plans how to send {@code text}.
+     *
+     * @param text         the text of the message
+     * @param stripAccents whether accents are stripped
+     * @return the plan, whose text should be the one sent and stored
+     */
+    public static Plan plan(String text, boolean stripAccents) {
+        TextEncodingDetails typed = calculateLength(text);
+        if (!stripAccents) {
+            return new Plan(text, typed, false, 0);
+        }
+
+        String stripped = StripAccents.stripAccents(text);
+        if (stripped == text) {
+            return new Plan(text, typed, false, 0);
+        }
+
+        TextEncodingDetails strippedDetails = calculateLength(stripped);
+        return new Plan(stripped, strippedDetails, true,
+                Math.max(0, typed.msgCount - strippedDetails.msgCount));
+    }
+
+    /**
+     * Returns the char that {@code c} is transliterated to when it keeps the text out of the GSM
+     * alphabet, or 0 if {@code c} is in the GSM alphabet already, or has no transliteration in it.
+     */
+    public static char getTransliteration(char c) {
+        if (GsmAlphabet.countGsmSeptetsUsingTables(c, 0, 0) != -1) {
+            return 0;
+        }
+
+        char replacement = StripAccents.getReplacement(c);
+        if (replacement == 0 || GsmAlphabet.countGsmSeptetsUsingTables(replacement, 0, 0) == -1) {
+            return 0;
+        }
+        return replacement;
+    }
+
+    /**
+     * Returns the segments needed for {@code text}, in the GSM alphabet if possible, like
+     * SmsMessage.calculateLength() does, otherwise in UCS-2.
+     */
+    private static TextEncodingDetails calculateLength(String text) {
+        TextEncodingDetails ted = GsmAlphabet.countGsmSeptets(text, false);
+        if (ted != null) {
+            return ted;
+        }
+
+        ted = new TextEncodingDetails();
+        int length = text.length();
+        int max = SmsConstants.MAX_USER_DATA_BYTES / 2;
+        int maxWithHeader = SmsConstants.MAX_USER_DATA_BYTES_WITH_HEADER / 2;
+        if (length > max) {
+            ted.msgCount = (length + maxWithHeader - 1) / maxWithHeader;
+            ted.codeUnitsRemaining = ted.msgCount * maxWithHeader - length;
+        } else {
+            ted.msgCount = 1;
+            ted.codeUnitsRemaining = max - length;
+        }
+        ted.codeUnitCount = length;
+        ted.codeUnitSize = SmsConstants.ENCODING_16BIT;
+        return ted;
+    }
+}
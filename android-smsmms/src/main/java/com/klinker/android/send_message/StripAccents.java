@@ -20,7 +20,7 @@ import android.telephony.SmsMessage;
 
 public class StripAccents {
 
-    public static String characters = "\u03B1\u03B2\u03B3\u03B4\u03B5\u03B6\u03B7\u03B8\u03B9\u03BA\u03BB\u03BC\u03BD" +
+    public static final String characters = "\u03B1\u03B2\u03B3\u03B4\u03B5\u03B6\u03B7\u03B8\u03B9\u03BA\u03BB\u03BC\u03BD" +
             "\u03BE\u03BF\u03C0\u03C1\u03C3\u03C2\u03C4\u03C5\u03C6\u03C7\u03C8\u03C9\u03AC\u03AD" +
             "\u03AE\u03AF\u03CC\u03CD\u03CE\u03CA\u03CB\u0390\u03B0\u0391\u0392\u0395\u0396\u0397\u0399" +
             "\u039A\u039C\u039D\u039F\u03A1\u03A4\u03A5\u03A7\u0386\u0388\u0389\u038A\u038C\u038F\u03AA" +
@@ -30,19 +30,96 @@ public class StripAccents {
             "\u0165\u0148\u00E1\u00ED\u00E9\u00F3\u00FD\u016F\u011A\u0160\u010C\u0158\u017D\u010E\u0164\u0147" +
             "\u00C1\u00C9\u00CD\u00D3\u00DD\u00DA\u016E\u0155\u013A\u013E\u00F4\u0154\u0139\u013D\u00D4\u00CF\u00EF\u00EB\u00CB";
 
-    public static String gsm = "AB\u0393\u0394EZH\u0398IK\u039BMN\u039EO\u03A0P\u03A3\u03A3TY\u03A6X\u03A8\u03A9AEHIOY" +
+    public static final String gsm = "AB\u0393\u0394EZH\u0398IK\u039BMN\u039EO\u03A0P\u03A3\u03A3TY\u03A6X\u03A8\u03A9AEHIOY" +
             "\u03A9IYIYABEZHIKMNOPTYXAEHIO\u03A9IY\u00DC\u00FC\u00D6\u00F6acelnszzACELNSZZAAAEEIIOOUU" +
             "aaeiouucescrzdtnaieoyuESCRZDTNAEIOYUUrlloRLLOIIee";
 
+    /**
+     * Maps each char to its replacement, or to 0 if it's kept as is. Chars past the end of the
+     * table are kept as is.
+     */
+    private static volatile char[] replacements = buildReplacements(characters, gsm);
+
     public static String stripAccents(String s) {
         int[] messageData = SmsMessage.calculateLength(s, false);
 
         if (messageData[0] != 1) {
-            for (int i = 0; i < characters.length(); i++) {
-                s = s.replaceAll(characters.substring(i, i + 1), gsm.substring(i, i + 1));
-            }
+            s = transliterate(s);
         }
 
         return s;
     }
+
+    /**
+     * Replaces {@code from} with {@code to} in stripped text, in addition to the replacements
+     * from {@link #characters} and {@link #gsm}. A {@code to} of 0 keeps {@code from} as is.
+     */
+    public static synchronized void addReplacement(char from, char to) {
+        char[] table = replacements;
+        if (from >= table.length) {
+            char[] grown = new char[from + 1];
+            System.arraycopy(table, 0, grown, 0, table.length);
+            table = grown;
+        } else {
+            table = table.clone();
+        }
+
+        table[from] = to;
+        replacements = table;
+    }
+
+    /**
+     * Replaces every char which has a replacement in one pass, returning {@code s} itself if
+     * there's nothing to replace.
+     */
+    static String transliterate(String s) {
+        char[] table = replacements;
+        int length = s.length();
+
+        int i = 0;
+        while (i < length && replacementFor(table, s.charAt(i)) == 0) {
+            i++;
+        }
+        if (i == length) {
+            return s;
+        }
+
+        char[] chars = s.toCharArray();
+        for (; i < length; i++) {
+            char replacement = replacementFor(table, chars[i]);
+            if (replacement != 0) {
+                chars[i] = replacement;
+            }
+        }
+
+        return new String(chars);
+    }
+
+    /**
+     * Returns the char that {@code c} is replaced with when stripping accents, or 0 if it's kept
+     * as is.
+     */
+    public static char getReplacement(char c) {
+        return replacementFor(replacements, c);
+    }
+
+    private static char replacementFor(char[] table, char c) {
+        return c < table.length ? table[c] : 0;
+    }
+
+    private static char[] buildReplacements(String from, String to) {
+        char max = 0;
+        for (int i = 0; i < from.length(); i++) {
+            max = (char) Math.max(max, from.charAt(i));
+        }
+
+        char[] table = new char[max + 1];
+        for (int i = 0; i < from.length(); i++) {
+            // The first replacement wins, like it did when they were applied one at a time
+            if (table[from.charAt(i)] == 0) {
+                table[from.charAt(i)] = to.charAt(i);
+            }
+        }
+        return table;
+    }
 }
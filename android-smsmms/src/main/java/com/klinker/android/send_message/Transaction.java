@@ -55,6 +55,9 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Class to process transaction requests for sending
@@ -85,6 +88,10 @@ public class Transaction {
 
     public static final long NO_THREAD_ID = 0;
 
+    // a single thread waits out the delay of every delayed sms, rather than a thread each
+    private static final ScheduledExecutorService delayedSmsExecutor =
+            Executors.newSingleThreadScheduledExecutor();
+
     /**
      * Sets context and initializes settings to default values
      *
@@ -371,13 +378,9 @@ public class Transaction {
     private void sendDelayedSms(final SmsManager smsManager, final String address,
                                 final ArrayList<String> parts, final ArrayList<PendingIntent> sPI,
                                 final ArrayList<PendingIntent> dPI, final int delay, final Uri messageUri) {
-        new Thread(new Runnable() {
+        delayedSmsExecutor.schedule(new Runnable() {
             @Override
             public void run() {
-                try {
-                    Thread.sleep(delay);
-                } catch (Exception e) { }
-
                 if (checkIfMessageExistsAfterDelay(messageUri)) {
                     Timber.v("send_transaction", "message sent after delay");
                     try {
@@ -389,7 +392,7 @@ public class Transaction {
                     Timber.v("send_transaction", "message not sent after delay, no longer exists");
                 }
             }
-        }).start();
+        }, delay, TimeUnit.MILLISECONDS);
     }
 
     private boolean checkIfMessageExistsAfterDelay(Uri messageUti) {
@@ -692,7 +695,9 @@ public class Transaction {
             Uri contentUri = null;
             try {
                 writer = new FileOutputStream(mSendFile);
-                writer.write(new PduComposer(context, sendReq).make());
+                if (!new PduComposer(context, sendReq).make(writer)) {
+                    throw new IOException("Invalid pdu");
+                }
                 contentUri = writerUri;
             } catch (final IOException e) {
                 Timber.e(e, "Error writing send file");
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2006 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Compares the dense septet tables against binary searching the sorted tables, like
+ * SparseIntArray did, and picking the best pair of national language tables in one pass
+ * against counting each pair separately.
+ *
+ * Skipped unless the benchmark system property is set, ie.
+ * {@code ./gradlew :android-smsmms:testDebugUnitTest --tests '*GsmAlphabetBenchmark' -Dbenchmark=true}
+ */
+public class GsmAlphabetBenchmark {
+
+    private static final long WARMUP_NANOS = 1_000_000_000L;
+    private static final long MEASURE_NANOS = 2_000_000_000L;
+
+    private static final int[] NATIONAL_TABLES = {1, 2, 3};
+
+    // Keeps the results alive, so the work can't be optimized away
+    private static volatile long sSink;
+
+    private interface Op {
+        int run();
+    }
+
+    @Test
+    public void benchmark() throws Exception {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+
+        System.out.println(String.format(Locale.US, "%-32s %-10s %12s", "benchmark", "tables",
+                "ops/s"));
+
+        final String english = text("Hello there, see you at 5? Bring {snacks} & €5 ", 1600);
+        final String turkish = text("Günaydın, nasılsın? Çok güzel bir gün ğ ş ı ", 1600);
+
+        report("count septets, 1600 chars", "sparse", new Op() {
+            @Override
+            public int run() {
+                return SparseSeptetTables.countGsmSeptets(english, false, 0, 0);
+            }
+        });
+        report("count septets, 1600 chars", "dense", new Op() {
+            @Override
+            public int run() {
+                return GsmAlphabet.countGsmSeptetsUsingTables(english, false, 0, 0);
+            }
+        });
+
+        int[] singleShiftTables = GsmAlphabet.getEnabledSingleShiftTables();
+        int[] lockingShiftTables = GsmAlphabet.getEnabledLockingShiftTables();
+        GsmAlphabet.setEnabledSingleShiftTables(NATIONAL_TABLES);
+        GsmAlphabet.setEnabledLockingShiftTables(NATIONAL_TABLES);
+        try {
+            report("best pair, 1600 chars", "each pair", new Op() {
+                @Override
+                public int run() {
+                    int best = Integer.MAX_VALUE;
+                    for (int languageTable = 0; languageTable <= 3; languageTable++) {
+                        for (int shiftTable = 0; shiftTable <= 3; shiftTable++) {
+                            int septets = SparseSeptetTables.countGsmSeptets(turkish, false,
+                                    languageTable, shiftTable);
+                            if (septets != -1) {
+                                best = Math.min(best, septets);
+                            }
+                        }
+                    }
+                    return best;
+                }
+            });
+            report("best pair, 1600 chars", "one pass", new Op() {
+                @Override
+                public int run() {
+                    return GsmAlphabet.countGsmSeptets(turkish, false).codeUnitCount;
+                }
+            });
+        } finally {
+            GsmAlphabet.setEnabledSingleShiftTables(singleShiftTables);
+            GsmAlphabet.setEnabledLockingShiftTables(lockingShiftTables);
+        }
+    }
+
+    private static void report(String name, String tables, Op op) {
+        measure(op, WARMUP_NANOS);
+        double opsPerSecond = measure(op, MEASURE_NANOS);
+        System.out.println(String.format(Locale.US, "%-32s %-10s %12.0f", name, tables,
+                opsPerSecond));
+    }
+
+    private static double measure(Op op, long duration) {
+        long start = System.nanoTime();
+        long end = start + duration;
+        long ops = 0;
+        long now;
+        long sink = 0;
+        do {
+            sink += op.run();
+            ops++;
+        } while ((now = System.nanoTime()) < end);
+
+        sSink = sink;
+        return ops * 1e9 / (now - start);
+    }
+
+    /**
+     * Returns {@code length} chars of the words of {@code sample}, in a random order.
+     */
+    private static String text(String sample, int length) {
+        String[] words = sample.split(" ");
+        Random random = new Random(length);
+        StringBuilder builder = new StringBuilder(length);
+        while (builder.length() < length) {
+            builder.append(words[random.nextInt(words.length)]).append(' ');
+        }
+        return builder.substring(0, length);
+    }
+}
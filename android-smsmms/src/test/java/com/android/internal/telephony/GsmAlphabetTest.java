@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2006 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class GsmAlphabetTest {
+
+    private static final int[] NATIONAL_TABLES = {1, 2, 3};
+
+    private final int[] mSingleShiftTables = GsmAlphabet.getEnabledSingleShiftTables();
+    private final int[] mLockingShiftTables = GsmAlphabet.getEnabledLockingShiftTables();
+
+    @After
+    public void restoreEnabledTables() {
+        GsmAlphabet.setEnabledSingleShiftTables(mSingleShiftTables);
+        GsmAlphabet.setEnabledLockingShiftTables(mLockingShiftTables);
+    }
+
+    @Test
+    public void denseTables_matchSparseTables_forEveryChar() {
+        for (int table = 0; table < GsmAlphabet.getLanguageTableCount(); table++) {
+            for (int c = Character.MIN_VALUE; c <= Character.MAX_VALUE; c++) {
+                String s = String.valueOf((char) c);
+                assertEquals("table " + table + " char " + c,
+                        SparseSeptetTables.countGsmSeptets(s, false, table, table),
+                        GsmAlphabet.countGsmSeptetsUsingTables(s, false, table, table));
+            }
+        }
+    }
+
+    @Test
+    public void packedTables_decodeToTheSameText() throws Exception {
+        for (int table = 0; table < GsmAlphabet.getLanguageTableCount(); table++) {
+            String text = encodableChars(GsmAlphabet.getLanguageTable(table))
+                    + encodableChars(GsmAlphabet.getLanguageShiftTable(table));
+            if (text.isEmpty()) {
+                continue;
+            }
+
+            // Each message holds up to 255 septets
+            for (int start = 0; start < text.length(); start += 100) {
+                String chunk = text.substring(start, Math.min(text.length(), start + 100));
+                byte[] packed = GsmAlphabet.stringToGsm7BitPacked(chunk, table, table);
+                assertEquals("table " + table, chunk, GsmAlphabet.gsm7BitPackedToString(
+                        packed, 1, packed[0] & 0xff, 0, table, table));
+            }
+        }
+    }
+
+    @Test
+    public void countGsmSeptets_picksTheCheapestPairOfTables() {
+        GsmAlphabet.setEnabledSingleShiftTables(NATIONAL_TABLES);
+        GsmAlphabet.setEnabledLockingShiftTables(NATIONAL_TABLES);
+
+        String[] texts = {
+                "Hello there",
+                "Günaydın, nasılsın? Çok güzel bir gün ğ ş ı",
+                "¿Qué tal? Mañana ÁÍÓÚ á í ó ú",
+                "Olá, não há nada aqui. Ê ê Õ õ ª º",
+                repeat("ş", 200),
+                repeat("{}", 100) + "ç"
+        };
+        for (String text : texts) {
+            GsmAlphabet.TextEncodingDetails ted = GsmAlphabet.countGsmSeptets(text, false);
+            int[] expected = cheapestPair(text);
+            assertNotNull(text, ted);
+            assertEquals(text, expected[0], ted.msgCount);
+            assertEquals(text, expected[1], ted.codeUnitsRemaining);
+            assertEquals(text, SparseSeptetTables.countGsmSeptets(text, false,
+                    ted.languageTable, ted.languageShiftTable), ted.codeUnitCount);
+        }
+    }
+
+    @Test
+    public void countGsmSeptets_returnsNull_whenNoTablesCanEncodeTheText() {
+        assertNull(GsmAlphabet.countGsmSeptets("No emoji in GSM 😀", false));
+
+        GsmAlphabet.setEnabledSingleShiftTables(NATIONAL_TABLES);
+        GsmAlphabet.setEnabledLockingShiftTables(NATIONAL_TABLES);
+        assertNull(GsmAlphabet.countGsmSeptets("No emoji in GSM 😀", false));
+    }
+
+    /**
+     * Returns the message count and remaining septets of the best pair of tables, by counting
+     * the septets for each pair separately.
+     */
+    private static int[] cheapestPair(String text) {
+        int[] best = {Integer.MAX_VALUE, 0};
+        int[] languageTables = {0, 1, 2, 3};
+        for (int languageTable : languageTables) {
+            for (int shiftTable : languageTables) {
+                // Never optimal, so not considered (see GsmAlphabet.LanguagePairCount)
+                if ((languageTable == 1 && shiftTable == 1)
+                        || (languageTable == 3 && shiftTable == 2)
+                        || GsmAlphabet.getLanguageTable(languageTable).isEmpty()) {
+                    continue;
+                }
+                int septets = SparseSeptetTables.countGsmSeptets(text, false, languageTable,
+                        shiftTable);
+                if (septets == -1) {
+                    continue;
+                }
+
+                int udhLength = 0;
+                if (languageTable != 0 && shiftTable != 0) {
+                    udhLength = GsmAlphabet.UDH_SEPTET_COST_LENGTH
+                            + GsmAlphabet.UDH_SEPTET_COST_TWO_SHIFT_TABLES;
+                } else if (languageTable != 0 || shiftTable != 0) {
+                    udhLength = GsmAlphabet.UDH_SEPTET_COST_LENGTH
+                            + GsmAlphabet.UDH_SEPTET_COST_ONE_SHIFT_TABLE;
+                }
+                int msgCount = 1;
+                int remaining = SmsConstants.MAX_USER_DATA_SEPTETS - udhLength - septets;
+                if (septets + udhLength > SmsConstants.MAX_USER_DATA_SEPTETS) {
+                    udhLength = Math.max(udhLength, GsmAlphabet.UDH_SEPTET_COST_LENGTH)
+                            + GsmAlphabet.UDH_SEPTET_COST_CONCATENATED_MESSAGE;
+                    int perMessage = SmsConstants.MAX_USER_DATA_SEPTETS - udhLength;
+                    msgCount = (septets + perMessage - 1) / perMessage;
+                    remaining = msgCount * perMessage - septets;
+                }
+
+                if (msgCount < best[0] || (msgCount == best[0] && remaining > best[1])) {
+                    best[0] = msgCount;
+                    best[1] = remaining;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the chars of a table which map back to their own septet, skipping the escape and
+     * the spaces used as padding.
+     */
+    private static String encodableChars(String table) {
+        StringBuilder chars = new StringBuilder();
+        for (int i = 0; i < table.length(); i++) {
+            char c = table.charAt(i);
+            if (c != ' ' && c != '\uffff' && c != '\n' && c != '\r'
+                    && table.indexOf(c) == i && table.lastIndexOf(c) == i) {
+                chars.append(c);
+            }
+        }
+        return chars.toString();
+    }
+
+    private static String repeat(String s, int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(s);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2006 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import java.util.Arrays;
+
+/**
+ * The char to septet tables as GsmAlphabet used to build them, with a binary search over the
+ * sorted chars of each table like SparseIntArray, to check and benchmark the dense tables
+ * against.
+ */
+final class SparseSeptetTables {
+
+    static final class Table {
+        private final char[] mKeys;
+        private final int[] mValues;
+
+        Table(String table, boolean skipSpaces) {
+            char[] keys = new char[table.length()];
+            int[] values = new int[table.length()];
+            int size = 0;
+            for (int septet = 0; septet < table.length(); septet++) {
+                char c = table.charAt(septet);
+                if (skipSpaces && c == ' ') {
+                    continue;
+                }
+                int i = Arrays.binarySearch(keys, 0, size, c);
+                if (i >= 0) {
+                    values[i] = septet;
+                } else {
+                    i = ~i;
+                    System.arraycopy(keys, i, keys, i + 1, size - i);
+                    System.arraycopy(values, i, values, i + 1, size - i);
+                    keys[i] = c;
+                    values[i] = septet;
+                    size++;
+                }
+            }
+            mKeys = Arrays.copyOf(keys, size);
+            mValues = Arrays.copyOf(values, size);
+        }
+
+        int get(char c, int valueIfKeyNotFound) {
+            int i = Arrays.binarySearch(mKeys, c);
+            return i < 0 ? valueIfKeyNotFound : mValues[i];
+        }
+    }
+
+    static final Table[] LANGUAGE_TABLES = new Table[GsmAlphabet.getLanguageTableCount()];
+    static final Table[] SHIFT_TABLES = new Table[GsmAlphabet.getLanguageTableCount()];
+
+    static {
+        for (int i = 0; i < LANGUAGE_TABLES.length; i++) {
+            LANGUAGE_TABLES[i] = new Table(GsmAlphabet.getLanguageTable(i), false);
+            SHIFT_TABLES[i] = new Table(GsmAlphabet.getLanguageShiftTable(i), true);
+        }
+    }
+
+    private SparseSeptetTables() {}
+
+    /**
+     * Counts septets the way GsmAlphabet.countGsmSeptetsUsingTables() used to.
+     */
+    static int countGsmSeptets(CharSequence s, boolean use7bitOnly, int languageTable,
+            int languageShiftTable) {
+        Table charToLanguageTable = LANGUAGE_TABLES[languageTable];
+        Table charToShiftTable = SHIFT_TABLES[languageShiftTable];
+        int count = 0;
+        for (int i = 0, sz = s.length(); i < sz; i++) {
+            char c = s.charAt(i);
+            if (c == GsmAlphabet.GSM_EXTENDED_ESCAPE) {
+                continue;
+            }
+            if (charToLanguageTable.get(c, -1) != -1) {
+                count++;
+            } else if (charToShiftTable.get(c, -1) != -1) {
+                count += 2;
+            } else if (use7bitOnly) {
+                count++;
+            } else {
+                return -1;
+            }
+        }
+        return count;
+    }
+}
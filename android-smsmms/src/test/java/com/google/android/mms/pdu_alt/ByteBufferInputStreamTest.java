@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2015 Jacob Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.pdu_alt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class ByteBufferInputStreamTest {
+
+    private static final byte[] DATA = {1, 2, 3, 4, 5, 6, 7, 8};
+
+    @Test
+    public void readAllBytes_returnsTheRemainingBuffer() {
+        ByteBufferInputStream in = new ByteBufferInputStream(ByteBuffer.wrap(DATA));
+        assertEquals(1, in.read());
+
+        assertArrayEquals(new byte[]{2, 3, 4, 5, 6, 7, 8}, in.readAllBytes());
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void readNBytes_readsFromTheBuffer() {
+        ByteBufferInputStream in = new ByteBufferInputStream(ByteBuffer.wrap(DATA));
+        byte[] b = new byte[16];
+
+        assertEquals(3, in.readNBytes(b, 0, 3));
+        assertEquals(5, in.readNBytes(b, 3, 13));
+        assertEquals(0, in.readNBytes(b, 0, 1));
+        assertArrayEquals(DATA, Arrays.copyOf(b, DATA.length));
+    }
+
+    @Test
+    public void transferTo_writesTheRemainingBuffer() throws Exception {
+        ByteBuffer direct = ByteBuffer.allocateDirect(DATA.length);
+        direct.put(DATA).flip();
+        ByteBufferInputStream in = new ByteBufferInputStream(direct);
+        in.skip(2);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(6, in.transferTo(out));
+        assertArrayEquals(new byte[]{3, 4, 5, 6, 7, 8}, out.toByteArray());
+    }
+
+    @Test
+    public void readZeroBytes_atEndOfStream_returnsZero() {
+        ByteBufferInputStream in = new ByteBufferInputStream(ByteBuffer.wrap(DATA));
+        in.skip(DATA.length);
+
+        assertEquals(0, in.read(new byte[4], 0, 0));
+        assertEquals(-1, in.read(new byte[4], 0, 4));
+    }
+}
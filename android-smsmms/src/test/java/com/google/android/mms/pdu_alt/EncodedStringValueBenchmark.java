@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2015 Jacob Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.pdu_alt;
+
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+/**
+ * Measures decoding throughput, and the bytes allocated per decode, for encoded string values,
+ * next to decoding them by charset name the way it used to be done.
+ *
+ * Skipped unless the benchmark system property is set, ie.
+ * {@code ./gradlew :android-smsmms:testDebugUnitTest --tests '*EncodedStringValueBenchmark' -Dbenchmark=true}
+ */
+public class EncodedStringValueBenchmark {
+
+    private static final long WARMUP_NANOS = 1_000_000_000L;
+    private static final long MEASURE_NANOS = 2_000_000_000L;
+
+    private interface Op {
+        Object run() throws Exception;
+    }
+
+    private static final class Sample {
+        final String name;
+        final int charset;
+        final byte[] data;
+        final String packed;
+
+        Sample(String name, int charset, String text) {
+            this.name = name;
+            this.charset = charset;
+            this.data = text.getBytes(CharacterSets.getCharset(charset));
+            this.packed = PduPersister.toIsoString(data);
+        }
+    }
+
+    private static final Sample[] SAMPLES = {
+            new Sample("ascii, utf-8", CharacterSets.UTF_8, "Dinner at 7? Bring the photos"),
+            new Sample("accented, utf-8", CharacterSets.UTF_8, "Zażółć gęślą jaźń, à bientôt"),
+            new Sample("ascii, iso-8859-1", CharacterSets.ISO_8859_1, "Re: weekend plans"),
+            new Sample("japanese, shift_jis", CharacterSets.SHIFT_JIS, "明日の予定について"),
+    };
+
+    // Keeps the results alive, so the JIT can't drop the work
+    private Object sink;
+
+    @Test
+    public void benchmark() throws Exception {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+
+        System.out.println(String.format(Locale.US, "%-22s %-18s %12s %14s",
+                "sample", "op", "ops/s", "alloc B/op"));
+
+        for (final Sample sample : SAMPLES) {
+            report(sample, "by name", new Op() {
+                @Override
+                public Object run() throws Exception {
+                    return new String(PduPersister.getBytes(sample.packed),
+                            CharacterSets.getMimeName(sample.charset));
+                }
+            });
+
+            report(sample, "getString", new Op() {
+                @Override
+                public Object run() {
+                    return new EncodedStringValue(sample.charset,
+                            PduPersister.getBytes(sample.packed)).getString();
+                }
+            });
+
+            report(sample, "decodeIsoString", new Op() {
+                @Override
+                public Object run() {
+                    return EncodedStringValue.decodeIsoString(sample.charset, sample.packed);
+                }
+            });
+
+            final EncodedStringValue value = new EncodedStringValue(sample.charset, sample.data);
+            report(sample, "getString, again", new Op() {
+                @Override
+                public Object run() {
+                    return value.getString();
+                }
+            });
+        }
+    }
+
+    private void report(Sample sample, String name, Op op) throws Exception {
+        measure(op, WARMUP_NANOS);
+        Result result = measure(op, MEASURE_NANOS);
+
+        double opsPerSecond = result.ops * 1e9 / result.nanos;
+        String allocated = result.allocatedBytes < 0
+                ? "n/a" : String.valueOf(result.allocatedBytes / result.ops);
+
+        System.out.println(String.format(Locale.US, "%-22s %-18s %12.0f %14s",
+                sample.name, name, opsPerSecond, allocated));
+    }
+
+    private Result measure(Op op, long duration) throws Exception {
+        long startAllocated = allocatedBytes();
+        long start = System.nanoTime();
+        long end = start + duration;
+        long ops = 0;
+        long now;
+        do {
+            sink = op.run();
+            ops++;
+        } while ((now = System.nanoTime()) < end);
+
+        long allocated = startAllocated < 0 ? -1 : allocatedBytes() - startAllocated;
+        return new Result(ops, now - start, allocated);
+    }
+
+    /**
+     * Returns the bytes allocated so far by the current thread, or -1 if the JVM can't tell us
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported()
+                    && sunBean.isThreadAllocatedMemoryEnabled()) {
+                return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    private static final class Result {
+        final long ops;
+        final long nanos;
+        final long allocatedBytes;
+
+        Result(long ops, long nanos, long allocatedBytes) {
+            this.ops = ops;
+            this.nanos = nanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+    }
+}
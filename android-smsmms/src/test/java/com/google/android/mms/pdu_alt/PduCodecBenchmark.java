@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2015 Jacob Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.pdu_alt;
+
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+/**
+ * Measures parse and compose throughput, and the bytes allocated per PDU, over the corpus.
+ *
+ * Skipped unless the benchmark system property is set, ie.
+ * {@code ./gradlew :android-smsmms:testDebugUnitTest --tests '*PduCodecBenchmark' -Dbenchmark=true}
+ */
+public class PduCodecBenchmark {
+
+    private static final long WARMUP_NANOS = 1_000_000_000L;
+    private static final long MEASURE_NANOS = 2_000_000_000L;
+
+    private interface Op {
+        void run() throws Exception;
+    }
+
+    @Test
+    public void benchmark() throws Exception {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+
+        System.out.println(String.format(Locale.US, "%-44s %-8s %12s %10s %14s",
+                "sample", "op", "ops/s", "MB/s", "alloc B/op"));
+
+        for (final PduCorpus.Sample sample : PduCorpus.samples()) {
+            report(sample, "parse", new Op() {
+                @Override
+                public void run() {
+                    new PduParser(sample.pdu, true).parse();
+                }
+            });
+
+            if (sample.source != null) {
+                report(sample, "compose", new Op() {
+                    @Override
+                    public void run() {
+                        new PduComposer(PduCorpus.context(), sample.source).make();
+                    }
+                });
+            }
+        }
+    }
+
+    private static void report(PduCorpus.Sample sample, String name, Op op) throws Exception {
+        measure(op, WARMUP_NANOS);
+        Result result = measure(op, MEASURE_NANOS);
+
+        double opsPerSecond = result.ops * 1e9 / result.nanos;
+        double mbPerSecond = opsPerSecond * sample.pdu.length / (1024 * 1024);
+        String allocated = result.allocatedBytes < 0
+                ? "n/a" : String.valueOf(result.allocatedBytes / result.ops);
+
+        System.out.println(String.format(Locale.US, "%-44s %-8s %12.0f %10.1f %14s",
+                sample.name, name, opsPerSecond, mbPerSecond, allocated));
+    }
+
+    private static Result measure(Op op, long duration) throws Exception {
+        long startAllocated = allocatedBytes();
+        long start = System.nanoTime();
+        long end = start + duration;
+        long ops = 0;
+        long now;
+        do {
+            op.run();
+            ops++;
+        } while ((now = System.nanoTime()) < end);
+
+        long allocated = startAllocated < 0 ? -1 : allocatedBytes() - startAllocated;
+        return new Result(ops, now - start, allocated);
+    }
+
+    /**
+     * Returns the bytes allocated so far by the current thread, or -1 if the JVM can't tell us
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported()
+                    && sunBean.isThreadAllocatedMemoryEnabled()) {
+                return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    private static final class Result {
+        final long ops;
+        final long nanos;
+        final long allocatedBytes;
+
+        Result(long ops, long nanos, long allocatedBytes) {
+            this.ops = ops;
+            this.nanos = nanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+    }
+}
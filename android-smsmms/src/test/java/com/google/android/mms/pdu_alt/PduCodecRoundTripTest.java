@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2015 Jacob Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.pdu_alt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+public class PduCodecRoundTripTest {
+
+    @Test
+    public void sendReqs_survive_parseAndCompose() throws Exception {
+        for (PduCorpus.Sample sample : PduCorpus.samples()) {
+            if (sample.source == null) {
+                continue;
+            }
+
+            GenericPdu parsed = new PduParser(sample.pdu, true).parse();
+            assertTrue(sample.name, parsed instanceof SendReq);
+            SendReq req = (SendReq) parsed;
+
+            assertEncodedStringsEqual(sample.name, sample.source.getTo(), req.getTo());
+            assertEquals(sample.name, sample.source.getSubject().getString(),
+                    req.getSubject().getString());
+            assertBodiesEqual(sample.name, sample.source.getBody(), req.getBody());
+
+            // The parser turns relative expiries into absolute ones, so put the original back
+            // before checking that composing what we parsed gives the same bytes, whether in
+            // memory or streamed
+            req.setExpiry(sample.source.getExpiry());
+            assertArrayEquals(sample.name, sample.pdu,
+                    new PduComposer(PduCorpus.context(), req).make());
+            ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+            assertTrue(sample.name, new PduComposer(PduCorpus.context(), req).make(streamed));
+            assertArrayEquals(sample.name, sample.pdu, streamed.toByteArray());
+        }
+    }
+
+    @Test
+    public void allSamples_parseTheSameFromBytesAndBuffers() throws Exception {
+        for (PduCorpus.Sample sample : PduCorpus.samples()) {
+            GenericPdu fromBytes = new PduParser(sample.pdu, true).parse();
+            GenericPdu fromBuffer = new PduParser(ByteBuffer.wrap(sample.pdu), true).parse();
+
+            assertNotNull(sample.name, fromBytes);
+            assertNotNull(sample.name, fromBuffer);
+            assertEquals(sample.name, fromBytes.getMessageType(), fromBuffer.getMessageType());
+            if (fromBytes instanceof MultimediaMessagePdu) {
+                assertBodiesEqual(sample.name, ((MultimediaMessagePdu) fromBytes).getBody(),
+                        ((MultimediaMessagePdu) fromBuffer).getBody());
+            }
+        }
+    }
+
+    @Test
+    public void notificationInd_headersAreParsed() {
+        long now = System.currentTimeMillis() / 1000;
+        NotificationInd ind = (NotificationInd) new PduParser(PduCorpus.notificationInd(), true)
+                .parse();
+
+        assertNotNull(ind);
+        assertEquals("T18a7f3c2e1", new String(ind.getTransactionId()));
+        // The address type is dropped by the parser
+        assertEquals("+15555550123", ind.getFrom().getString());
+        assertEquals(123_456, ind.getMessageSize());
+        // Relative expiries are made absolute
+        assertTrue(ind.getExpiry() >= now + 604_800);
+        assertTrue(ind.getExpiry() <= System.currentTimeMillis() / 1000 + 604_800);
+        assertEquals("http://mmsc.example.com/mms/wapenc?location=18a7f3c2e1&rel=0",
+                new String(ind.getContentLocation()));
+    }
+
+    @Test
+    public void retrieveConf_base64Image_isDecoded() {
+        byte[] image = PduCorpus.bytes(new Random(7), 10 * 1024);
+
+        RetrieveConf conf = (RetrieveConf) new PduParser(
+                PduCorpus.retrieveConf(image, true), true).parse();
+
+        assertNotNull(conf);
+        PduBody body = conf.getBody();
+        assertEquals(3, body.getPartsNum());
+        // The start part is moved to the front
+        assertEquals("application/smil", new String(body.getPart(0).getContentType()));
+        assertEquals(PduCorpus.SMIL, new String(body.getPart(0).getData()));
+        assertEquals(PduCorpus.TEXT, new String(body.getPart(1).getData(),
+                java.nio.charset.StandardCharsets.UTF_8));
+        assertEquals("image.jpg", new String(body.getPart(2).getContentLocation()));
+        assertEquals(image.length, body.getPart(2).getDataLength());
+        assertArrayEquals(image, body.getPart(2).getData());
+    }
+
+    private static void assertEncodedStringsEqual(String message, EncodedStringValue[] expected,
+            EncodedStringValue[] actual) {
+        assertEquals(message, expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(message, expected[i].getString(), actual[i].getString());
+        }
+    }
+
+    private static void assertBodiesEqual(String message, PduBody expected, PduBody actual) {
+        assertEquals(message, expected.getPartsNum(), actual.getPartsNum());
+        for (int i = 0; i < expected.getPartsNum(); i++) {
+            PduPart expectedPart = expected.getPart(i);
+            PduPart actualPart = actual.getPart(i);
+            assertArrayEquals(message, expectedPart.getContentType(),
+                    actualPart.getContentType());
+            assertArrayEquals(message, expectedPart.getContentLocation(),
+                    actualPart.getContentLocation());
+            assertArrayEquals(message, expectedPart.getData(), actualPart.getData());
+        }
+    }
+}
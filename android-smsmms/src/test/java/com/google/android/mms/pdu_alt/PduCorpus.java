@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2015 Jacob Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.pdu_alt;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.ContextWrapper;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A generated corpus of realistic PDUs, for the codec tests and benchmarks.
+ */
+final class PduCorpus {
+
+    static final String SMIL = "<smil><head><layout><root-layout/><region id=\"Image\" "
+            + "fit=\"meet\" top=\"0\" left=\"0\" height=\"80%\" width=\"100%\"/><region "
+            + "id=\"Text\" top=\"80%\" left=\"0\" height=\"20%\" width=\"100%\"/></layout>"
+            + "</head><body><par dur=\"5000ms\"><img src=\"image.jpg\" region=\"Image\"/>"
+            + "<text src=\"text.txt\" region=\"Text\"/></par></body></smil>";
+
+    static final String TEXT = "Running a few minutes late, save me a seat! 😀";
+
+    /**
+     * A PDU of the corpus. {@link #source} is set for PDUs that were composed, so that the
+     * result of parsing them can be compared against it.
+     */
+    static final class Sample {
+        final String name;
+        final byte[] pdu;
+        final SendReq source;
+
+        Sample(String name, byte[] pdu, SendReq source) {
+            this.name = name;
+            this.pdu = pdu;
+            this.source = source;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private PduCorpus() {
+    }
+
+    /**
+     * A context for {@link PduComposer}, which only needs a content resolver for parts that
+     * are stored as Uris.
+     */
+    static Context context() {
+        return new ContextWrapper(null) {
+            @Override
+            public ContentResolver getContentResolver() {
+                return null;
+            }
+        };
+    }
+
+    static List<Sample> samples() {
+        Random random = new Random(42);
+        List<Sample> samples = new ArrayList<Sample>();
+
+        samples.add(composed("send-req text", sendReq(1, smilPart(), textPart(TEXT))));
+
+        samples.add(composed("send-req 20 recipients",
+                sendReq(20, smilPart(), textPart(TEXT))));
+
+        samples.add(composed("send-req 300 KB image",
+                sendReq(3, smilPart(), imagePart(bytes(random, 300 * 1024)), textPart(TEXT))));
+
+        samples.add(composed("send-req 8 parts", sendReq(2, smilPart(),
+                imagePart(bytes(random, 40 * 1024)), imagePart(bytes(random, 40 * 1024)),
+                imagePart(bytes(random, 40 * 1024)), textPart(TEXT), textPart(TEXT),
+                textPart(TEXT), textPart(TEXT))));
+
+        samples.add(new Sample("notification-ind", notificationInd(), null));
+
+        samples.add(new Sample("retrieve-conf related 100 KB image",
+                retrieveConf(bytes(random, 100 * 1024), false), null));
+
+        samples.add(new Sample("retrieve-conf related base64 100 KB image",
+                retrieveConf(bytes(random, 100 * 1024), true), null));
+
+        return samples;
+    }
+
+    static byte[] bytes(Random random, int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static Sample composed(String name, SendReq req) {
+        byte[] pdu = new PduComposer(context(), req).make();
+        if (pdu == null) {
+            throw new IllegalStateException("Couldn't compose " + name);
+        }
+        return new Sample(name, pdu, req);
+    }
+
+    static SendReq sendReq(int recipients, PduPart... parts) {
+        SendReq req = new SendReq();
+        req.setTransactionId(("T" + Long.toHexString(recipients * 7919L + parts.length))
+                .getBytes());
+        req.setFrom(new EncodedStringValue("+15555550100"));
+        for (int i = 0; i < recipients; i++) {
+            req.addTo(new EncodedStringValue("+1555555" + String.format("%04d", i + 200)));
+        }
+        req.setSubject(new EncodedStringValue("Dinner"));
+        req.setDate(1_600_000_000L);
+        req.setMessageClass(PduHeaders.MESSAGE_CLASS_PERSONAL_STR.getBytes());
+        req.setExpiry(7 * 24 * 60 * 60);
+        try {
+            req.setPriority(PduHeaders.PRIORITY_NORMAL);
+            req.setDeliveryReport(PduHeaders.VALUE_NO);
+            req.setReadReport(PduHeaders.VALUE_NO);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+
+        PduBody body = new PduBody();
+        for (PduPart part : parts) {
+            body.addPart(part);
+        }
+        req.setBody(body);
+        return req;
+    }
+
+    static PduPart smilPart() {
+        PduPart part = new PduPart();
+        part.setContentType("application/smil".getBytes());
+        part.setContentId("<smil>".getBytes());
+        part.setContentLocation("smil.xml".getBytes());
+        part.setName("smil.xml".getBytes());
+        part.setData(SMIL.getBytes());
+        return part;
+    }
+
+    static PduPart textPart(String text) {
+        PduPart part = new PduPart();
+        part.setContentType("text/plain".getBytes());
+        part.setCharset(CharacterSets.UTF_8);
+        part.setContentId("<text>".getBytes());
+        part.setContentLocation("text.txt".getBytes());
+        part.setName("text.txt".getBytes());
+        part.setData(text.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+        return part;
+    }
+
+    static PduPart imagePart(byte[] data) {
+        PduPart part = new PduPart();
+        part.setContentType("image/jpeg".getBytes());
+        part.setContentId("<image>".getBytes());
+        part.setContentLocation("image.jpg".getBytes());
+        part.setName("image.jpg".getBytes());
+        part.setData(data);
+        return part;
+    }
+
+    /**
+     * An m-notification-ind, as pushed by the MMSC over WAP.
+     */
+    static byte[] notificationInd() {
+        Writer out = new Writer();
+        out.octet(PduHeaders.MESSAGE_TYPE);
+        out.octet(PduHeaders.MESSAGE_TYPE_NOTIFICATION_IND);
+        out.octet(PduHeaders.TRANSACTION_ID);
+        out.text("T18a7f3c2e1");
+        out.octet(PduHeaders.MMS_VERSION);
+        out.octet(0x80 | PduHeaders.MMS_VERSION_1_2);
+        out.octet(PduHeaders.FROM);
+        byte[] from = "+15555550123/TYPE=PLMN".getBytes();
+        out.octet(from.length + 2); // Value-length: token, address, End-of-string
+        out.octet(PduHeaders.FROM_ADDRESS_PRESENT_TOKEN);
+        out.bytes(from);
+        out.octet(0);
+        out.octet(PduHeaders.MESSAGE_CLASS);
+        out.octet(PduHeaders.MESSAGE_CLASS_PERSONAL);
+        out.octet(PduHeaders.MESSAGE_SIZE);
+        out.longInteger(123_456);
+        out.octet(PduHeaders.EXPIRY);
+        out.octet(5); // Value-length
+        out.octet(PduHeaders.VALUE_RELATIVE_TOKEN);
+        out.longInteger(604_800);
+        out.octet(PduHeaders.CONTENT_LOCATION);
+        out.text("http://mmsc.example.com/mms/wapenc?location=18a7f3c2e1&rel=0");
+        return out.toByteArray();
+    }
+
+    /**
+     * An m-retrieve-conf with a multipart/related body of SMIL, text and an image, which is
+     * optionally sent base64 encoded.
+     */
+    static byte[] retrieveConf(byte[] image, boolean base64) {
+        Writer out = new Writer();
+        out.octet(PduHeaders.MESSAGE_TYPE);
+        out.octet(PduHeaders.MESSAGE_TYPE_RETRIEVE_CONF);
+        out.octet(PduHeaders.TRANSACTION_ID);
+        out.text("T18a7f3c2e1");
+        out.octet(PduHeaders.MMS_VERSION);
+        out.octet(0x80 | PduHeaders.MMS_VERSION_1_2);
+        out.octet(PduHeaders.MESSAGE_ID);
+        out.text("18a7f3c2e1@mmsc.example.com");
+        out.octet(PduHeaders.DATE);
+        out.octet(4); // Long-integer with 4 octets
+        out.bytes(new byte[] { 0x5F, 0x5E, 0x10, 0x00 });
+        out.octet(PduHeaders.FROM);
+        byte[] from = "+15555550123/TYPE=PLMN".getBytes();
+        out.octet(from.length + 2);
+        out.octet(PduHeaders.FROM_ADDRESS_PRESENT_TOKEN);
+        out.bytes(from);
+        out.octet(0);
+        out.octet(PduHeaders.TO);
+        out.text("+15555550100/TYPE=PLMN");
+        out.octet(PduHeaders.SUBJECT);
+        out.text("Dinner");
+
+        // Content-Type: application/vnd.wap.multipart.related; start=<smil>; type=application/smil
+        Writer contentType = new Writer();
+        contentType.octet(0x80 | 0x33);
+        contentType.octet(PduPart.P_DEP_START);
+        contentType.text("<smil>");
+        contentType.octet(PduPart.P_CT_MR_TYPE);
+        contentType.text("application/smil");
+        out.octet(PduHeaders.CONTENT_TYPE);
+        out.valueLength(contentType.size());
+        out.bytes(contentType.toByteArray());
+
+        byte[] imageData = base64 ? Base64.getMimeEncoder().encode(image) : image;
+
+        out.uintvar(3);
+        out.part("application/smil", "<smil>", "smil.xml", null, SMIL.getBytes());
+        out.part("text/plain", "<text>", "text.txt", null,
+                TEXT.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+        out.part("image/jpeg", "<image>", "image.jpg", base64 ? PduPart.P_BASE64 : null,
+                imageData);
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes the WSP encodings used by the corpus.
+     */
+    static final class Writer extends ByteArrayOutputStream {
+
+        void octet(int value) {
+            write(value);
+        }
+
+        void bytes(byte[] bytes) {
+            write(bytes, 0, bytes.length);
+        }
+
+        void text(String text) {
+            bytes(text.getBytes());
+            write(0);
+        }
+
+        void uintvar(int value) {
+            int shift = 28;
+            while (shift > 0 && (value >>> shift) == 0) {
+                shift -= 7;
+            }
+            for (; shift > 0; shift -= 7) {
+                write(0x80 | ((value >>> shift) & 0x7F));
+            }
+            write(value & 0x7F);
+        }
+
+        void valueLength(int length) {
+            if (length < 31) {
+                write(length);
+            } else {
+                write(31);
+                uintvar(length);
+            }
+        }
+
+        void longInteger(long value) {
+            int length = 0;
+            for (long v = value; v != 0; v >>>= 8) {
+                length++;
+            }
+            write(Math.max(length, 1));
+            for (int i = Math.max(length, 1) - 1; i >= 0; i--) {
+                write((int) (value >>> (i * 8)) & 0xFF);
+            }
+        }
+
+        void part(String contentType, String contentId, String location, String encoding,
+                byte[] data) {
+            Writer headers = new Writer();
+            headers.text(contentType);
+            headers.octet(PduPart.P_CONTENT_ID);
+            headers.octet('"');
+            headers.text(contentId);
+            headers.octet(PduPart.P_CONTENT_LOCATION);
+            headers.text(location);
+            if (encoding != null) {
+                headers.text(PduPart.CONTENT_TRANSFER_ENCODING);
+                headers.text(encoding);
+            }
+
+            uintvar(headers.size());
+            uintvar(data.length);
+            bytes(headers.toByteArray());
+            bytes(data);
+        }
+    }
+}
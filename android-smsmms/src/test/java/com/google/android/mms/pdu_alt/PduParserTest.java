@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2015 Jacob Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.pdu_alt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+public class PduParserTest {
+    private static final int LARGE_PART_SIZE = 6 * 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void parse_memoryMappedMultiMegabytePdu_returnsAllParts() throws Exception {
+        byte[] text = "Check out this video".getBytes("UTF-8");
+        byte[] video = new byte[LARGE_PART_SIZE];
+        new Random(0).nextBytes(video);
+
+        File file = folder.newFile("download.pdu");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(buildRetrieveConf(text, video));
+        }
+
+        GenericPdu pdu;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            pdu = new PduParser(mapped, true).parse();
+        }
+
+        assertTrue(pdu instanceof RetrieveConf);
+        PduBody body = ((RetrieveConf) pdu).getBody();
+        assertEquals(2, body.getPartsNum());
+        assertArrayEquals(text, body.getPart(0).getData());
+        assertArrayEquals(video, body.getPart(1).getData());
+        assertEquals("image/jpeg", new String(body.getPart(1).getContentType()));
+    }
+
+    @Test
+    public void parse_byteBuffer_matchesByteArray() throws Exception {
+        byte[] text = "Hello".getBytes("UTF-8");
+        byte[] image = new byte[64 * 1024];
+        new Random(1).nextBytes(image);
+        byte[] data = buildRetrieveConf(text, image);
+
+        RetrieveConf fromArray = (RetrieveConf) new PduParser(data, true).parse();
+        RetrieveConf fromBuffer = (RetrieveConf) new PduParser(ByteBuffer.wrap(data), true).parse();
+
+        assertNotNull(fromArray);
+        assertNotNull(fromBuffer);
+        assertEquals(fromArray.getDate(), fromBuffer.getDate());
+        assertEquals(fromArray.getBody().getPartsNum(), fromBuffer.getBody().getPartsNum());
+        for (int i = 0; i < fromArray.getBody().getPartsNum(); i++) {
+            assertArrayEquals(fromArray.getBody().getPart(i).getData(),
+                    fromBuffer.getBody().getPart(i).getData());
+        }
+    }
+
+    /**
+     * Builds an m-retrieve-conf with a text/plain part and an image/jpeg part.
+     */
+    private static byte[] buildRetrieveConf(byte[] text, byte[] image) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(image.length + 256);
+
+        out.write(PduHeaders.MESSAGE_TYPE);
+        out.write(PduHeaders.MESSAGE_TYPE_RETRIEVE_CONF);
+        out.write(PduHeaders.MMS_VERSION);
+        out.write(0x80 | PduHeaders.MMS_VERSION_1_2);
+        out.write(PduHeaders.DATE);
+        out.write(4); // Long-integer with 4 octets
+        writeBytes(out, new byte[] { 0x5F, 0x5E, 0x10, 0x00 });
+        out.write(PduHeaders.CONTENT_TYPE);
+        out.write(0x80 | 0x33); // application/vnd.wap.multipart.related
+
+        writeUintvar(out, 2);
+        writePart(out, 0x80 | 0x03, text); // text/plain
+        writePart(out, 0x80 | 0x1E, image); // image/jpeg
+
+        return out.toByteArray();
+    }
+
+    private static void writePart(ByteArrayOutputStream out, int contentType, byte[] data) {
+        writeUintvar(out, 1); // Headers length, the content type only
+        writeUintvar(out, data.length);
+        out.write(contentType);
+        writeBytes(out, data);
+    }
+
+    private static void writeUintvar(ByteArrayOutputStream out, int value) {
+        int shift = 28;
+        while (shift > 0 && (value >>> shift) == 0) {
+            shift -= 7;
+        }
+        for (; shift > 0; shift -= 7) {
+            out.write(0x80 | ((value >>> shift) & 0x7F));
+        }
+        out.write(value & 0x7F);
+    }
+
+    private static void writeBytes(ByteArrayOutputStream out, byte[] bytes) {
+        out.write(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2015 Jacob Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.pdu_alt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+public class PduPartTest {
+
+    @Test
+    public void base64Data_isDecodedOnDemand() throws Exception {
+        byte[] image = new byte[64 * 1024 + 1];
+        new Random(2).nextBytes(image);
+        byte[] encoded = java.util.Base64.getMimeEncoder().encode(image);
+
+        PduPart part = new PduPart();
+        part.setEncodedData(ByteBuffer.wrap(encoded), PduPart.P_BASE64);
+
+        assertEquals(image.length, part.getDataLength());
+        assertArrayEquals(image, readFully(part.getDataStream()));
+        assertArrayEquals(Base64.decodeBase64(encoded), part.getData());
+        assertArrayEquals(image, part.getData());
+    }
+
+    @Test
+    public void quotedPrintableData_isDecodedOnDemand() throws Exception {
+        byte[] encoded = "caf=C3=A9 au lait=\r\n, s'il vous pla=C3=AEt".getBytes("UTF-8");
+
+        PduPart part = new PduPart();
+        part.setEncodedData(ByteBuffer.wrap(encoded), PduPart.P_QUOTED_PRINTABLE);
+
+        byte[] expected = QuotedPrintable.decodeQuotedPrintable(encoded);
+        assertEquals(expected.length, part.getDataLength());
+        assertArrayEquals(expected, readFully(part.getDataStream()));
+        assertArrayEquals(expected, part.getData());
+    }
+
+    @Test
+    public void decodedLength_isResetWhenTheDataChanges() throws Exception {
+        PduPart part = new PduPart();
+        part.setEncodedData(ByteBuffer.wrap("aGVsbG8=".getBytes("UTF-8")), PduPart.P_BASE64);
+        assertEquals(5, part.getDataLength());
+        assertEquals(5, part.getDataLength());
+
+        part.setEncodedData(ByteBuffer.wrap("aGk=".getBytes("UTF-8")), PduPart.P_BASE64);
+        assertEquals(2, part.getDataLength());
+        assertArrayEquals("hi".getBytes("UTF-8"), part.getData());
+    }
+
+    @Test
+    public void invalidQuotedPrintableData_isDropped() throws Exception {
+        PduPart part = new PduPart();
+        part.setEncodedData(ByteBuffer.wrap("bad=ZZ".getBytes("UTF-8")),
+                PduPart.P_QUOTED_PRINTABLE);
+
+        assertEquals(0, part.getDataLength());
+        assertNull(part.getData());
+    }
+
+    private static byte[] readFully(InputStream is) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1000];
+        for (int len = 0; (len = is.read(buffer)) != -1; ) {
+            out.write(buffer, 0, len);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2013 Jacob Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.klinker.android.send_message;
+
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Compares stripping accents from long messages in one pass against the replacements being
+ * applied one at a time, like they used to be.
+ *
+ * Skipped unless the benchmark system property is set, ie.
+ * {@code ./gradlew :android-smsmms:testDebugUnitTest --tests '*StripAccentsBenchmark' -Dbenchmark=true}
+ */
+public class StripAccentsBenchmark {
+
+    private static final long WARMUP_NANOS = 1_000_000_000L;
+    private static final long MEASURE_NANOS = 2_000_000_000L;
+
+    @Test
+    public void benchmark() {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+
+        System.out.println(String.format(Locale.US, "%-24s %-14s %12s", "message", "method",
+                "ops/s"));
+
+        report("1600 chars, accented", message(1600, 0.3));
+        report("1600 chars, plain", message(1600, 0));
+        report("10000 chars, accented", message(10000, 0.3));
+    }
+
+    private static void report(String name, final String message) {
+        for (boolean onePass : new boolean[]{true, false}) {
+            measure(message, onePass, WARMUP_NANOS);
+            double opsPerSecond = measure(message, onePass, MEASURE_NANOS);
+            System.out.println(String.format(Locale.US, "%-24s %-14s %12.0f", name,
+                    onePass ? "one pass" : "one at a time", opsPerSecond));
+        }
+    }
+
+    private static double measure(String message, boolean onePass, long duration) {
+        long start = System.nanoTime();
+        long end = start + duration;
+        long ops = 0;
+        long now;
+        int length = 0;
+        do {
+            String stripped = onePass
+                    ? StripAccents.transliterate(message)
+                    : StripAccentsTest.replaceOneAtATime(message);
+            length += stripped.length();
+            ops++;
+        } while ((now = System.nanoTime()) < end);
+
+        if (length == 0) {
+            throw new AssertionError();
+        }
+        return ops * 1e9 / (now - start);
+    }
+
+    /**
+     * Returns a message of words where roughly {@code accented} of the letters have accents.
+     */
+    private static String message(int length, double accented) {
+        Random random = new Random(length);
+        StringBuilder builder = new StringBuilder(length);
+        while (builder.length() < length) {
+            if (random.nextInt(6) == 0) {
+                builder.append(' ');
+            } else if (random.nextDouble() < accented) {
+                builder.append(StripAccents.characters.charAt(
+                        random.nextInt(StripAccents.characters.length())));
+            } else {
+                builder.append((char) ('a' + random.nextInt(26)));
+            }
+        }
+        return builder.toString();
+    }
+}
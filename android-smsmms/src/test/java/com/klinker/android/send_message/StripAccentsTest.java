@@ -0,0 +1,70 @@
+/*
+ * Copyright 2013 Jacob Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.klinker.android.send_message;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class StripAccentsTest {
+
+    @Test
+    public void transliterate_replacesEachCharacter() {
+        for (int i = 0; i < StripAccents.characters.length(); i++) {
+            String accented = "x" + StripAccents.characters.charAt(i) + "y";
+            assertEquals("x" + StripAccents.gsm.charAt(i) + "y",
+                    StripAccents.transliterate(accented));
+        }
+    }
+
+    @Test
+    public void transliterate_matchesReplacingOneCharacterAtATime() {
+        String text = "Zażółć gęślą jaźń — "
+                + "Ταχίστη αλώπηξ "
+                + "Žluťoučký kůň 😀";
+
+        assertEquals(replaceOneAtATime(text), StripAccents.transliterate(text));
+    }
+
+    @Test
+    public void transliterate_returnsTheSameInstance_whenNothingIsReplaced() {
+        String text = "Plain text, with an emoji 😀 and 中文";
+
+        assertSame(text, StripAccents.transliterate(text));
+    }
+
+    @Test
+    public void addReplacement_extendsTheTable() {
+        char previous = StripAccents.getReplacement('ẞ');
+        try {
+            StripAccents.addReplacement('ẞ', 'S');
+
+            assertEquals("STRASSE ca", StripAccents.transliterate("STRAẞẞE ça"));
+        } finally {
+            StripAccents.addReplacement('ẞ', previous);
+        }
+    }
+
+    static String replaceOneAtATime(String s) {
+        for (int i = 0; i < StripAccents.characters.length(); i++) {
+            s = s.replaceAll(StripAccents.characters.substring(i, i + 1),
+                    StripAccents.gsm.substring(i, i + 1));
+        }
+        return s;
+    }
+}
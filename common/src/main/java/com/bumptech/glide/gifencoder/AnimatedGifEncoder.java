@@ -150,15 +150,32 @@ public class AnimatedGifEncoder {
         if ((im == null) || !started) {
             return false;
         }
+        if (sizeSet) {
+            setFrameSize(fixedWidth, fixedHeight);
+        } else {
+            setFrameSize(im.getWidth(), im.getHeight());
+        }
+        image = im;
+        getImagePixels(); // convert to correct format if necessary
+        return writeFrame(x, y);
+    }
+
+    /**
+     * Adds next GIF frame from its ARGB pixels, which must match the frame size. Lets the
+     * encoder be compared with {@link ParallelGifEncoder} where there's no Bitmap.
+     */
+    boolean addFrame(@NonNull int[] argb, int w, int h) {
+        if (!started) {
+            return false;
+        }
+        setFrameSize(w, h);
+        setImagePixels(argb);
+        return writeFrame(0, 0);
+    }
+
+    private boolean writeFrame(int x, int y) {
         boolean ok = true;
         try {
-            if (sizeSet) {
-                setFrameSize(fixedWidth, fixedHeight);
-            } else {
-                setFrameSize(im.getWidth(), im.getHeight());
-            }
-            image = im;
-            getImagePixels(); // convert to correct format if necessary
             analyzePixels(); // build color table & map pixels
             if (firstFrame) {
                 writeLSD(); // logical screen descriptor
@@ -393,7 +410,13 @@ public class AnimatedGifEncoder {
         }
         int[] pixelsInt = new int[w * h];
         image.getPixels(pixelsInt, 0, w, 0, 0, w, h);
+        setImagePixels(pixelsInt);
+    }
 
+    /**
+     * Converts ARGB pixels into the byte array "pixels"
+     */
+    private void setImagePixels(int[] pixelsInt) {
         // The algorithm requires 3 bytes per pixel as RGB.
         pixels = new byte[pixelsInt.length * 3];
 
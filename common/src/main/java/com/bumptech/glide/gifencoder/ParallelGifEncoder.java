@@ -0,0 +1,759 @@
+package com.bumptech.glide.gifencoder;
+
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import timber.log.Timber;
+
+/**
+ * An animated GIF encoder that produces the same kind of output as {@link AnimatedGifEncoder},
+ * but quantizes and compresses frames in parallel.
+ * <p>
+ * The first frame's palette is used as the global color table, and is reused by any later frame
+ * that it fits about as well as it fits the first. Only frames that differ too much train their
+ * own palette, which saves both the quantizer's work and a local color table per frame. Pixel
+ * buffers are recycled between frames, and frames are written in order as they complete.
+ * <p>
+ * Frames after the first only encode the rectangle that changed since the last one, with the
+ * pixels that didn't change left transparent so that the last frame shows through. Frames that
+ * don't change at all, and any dropped with {@link #setFrameStep(int)}, are merged into the
+ * previous frame by extending its delay.
+ */
+public class ParallelGifEncoder {
+
+    // The minimum % of an images pixels that must be transparent for us to set a transparent index
+    // automatically.
+    private static final double MIN_TRANSPARENT_PERCENTAGE = 4d;
+
+    // Frames are never held to a better fit than this mean squared color error, so that frames
+    // with very few colors, which the first palette fits almost exactly, can still share it
+    private static final double MIN_PALETTE_ERROR = 16d;
+
+    private static final int COLOR_DEPTH = 8;
+    private static final int PALETTE_SIZE = 7; // color table size (bits-1)
+
+    private static final int THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final ThreadPoolExecutor EXECUTOR;
+
+    static {
+        EXECUTOR = new ThreadPoolExecutor(THREADS, THREADS,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    // one cache for the global palette and one for a frame's own, so they don't evict each other
+    private static final ThreadLocal<ColorCache[]> COLOR_CACHES = new ThreadLocal<ColorCache[]>() {
+        @Override
+        protected ColorCache[] initialValue() {
+            return new ColorCache[]{new ColorCache(), new ColorCache()};
+        }
+    };
+
+    private final ExecutorService executor;
+
+    private final int maxPendingFrames;
+
+    private int repeat = -1; // no repeat
+
+    private int sample = 10; // default sample interval for quantizer
+
+    private double paletteTolerance = 1.5d;
+
+    private boolean deltaFrames = true;
+
+    private int frameStep = 1;
+
+    private boolean started = false;
+
+    private OutputStream out;
+
+    private int width; // logical screen size, taken from the first frame
+
+    private int height;
+
+    private Palette globalPalette;
+
+    private boolean wroteFirstFrame = false;
+
+    private int frameIndex; // frames added, including those that were dropped
+
+    private Pixels lastPixels; // the last frame that wasn't dropped
+
+    private boolean lastTransparent;
+
+    private final ArrayDeque<Slot> pending = new ArrayDeque<>();
+
+    private final ConcurrentLinkedQueue<int[]> pixelBuffers = new ConcurrentLinkedQueue<>();
+
+    private final ConcurrentLinkedQueue<byte[]> indexBuffers = new ConcurrentLinkedQueue<>();
+
+    private final ConcurrentLinkedQueue<byte[]> bgrBuffers = new ConcurrentLinkedQueue<>();
+
+    public ParallelGifEncoder() {
+        this(EXECUTOR, THREADS * 2);
+    }
+
+    /**
+     * @param executor the executor to encode frames on
+     * @param maxPendingFrames the most frames to hold in memory while they're being encoded, after
+     *                         which {@link #addFrame} waits for the oldest one to be written
+     */
+    public ParallelGifEncoder(@NonNull ExecutorService executor, int maxPendingFrames) {
+        this.executor = executor;
+        this.maxPendingFrames = Math.max(1, maxPendingFrames);
+    }
+
+    /**
+     * Sets the number of times the set of GIF frames should be played. 0 means play
+     * indefinitely. Must be invoked before the first image is added.
+     *
+     * @param iter int number of iterations.
+     */
+    public void setRepeat(int iter) {
+        if (iter >= 0) {
+            repeat = iter;
+        }
+    }
+
+    /**
+     * Sets quality of color quantization, as in {@link AnimatedGifEncoder#setQuality(int)}.
+     *
+     * @param quality int greater than 0.
+     */
+    public void setQuality(int quality) {
+        sample = Math.max(quality, 1);
+    }
+
+    /**
+     * Sets how much worse than the first frame a later frame may fit the global palette before it
+     * gets a palette of its own. 0 gives every frame its own palette, like
+     * {@link AnimatedGifEncoder} does. Default is 1.5.
+     *
+     * @param tolerance the ratio of mean squared color errors
+     */
+    public void setPaletteTolerance(double tolerance) {
+        paletteTolerance = Math.max(tolerance, 0d);
+    }
+
+    /**
+     * Sets whether frames after the first only encode what changed since the previous frame.
+     * Default is true.
+     */
+    public void setDeltaFrames(boolean enabled) {
+        deltaFrames = enabled;
+    }
+
+    /**
+     * Keeps only every nth frame, extending the delay of each kept frame to cover the ones
+     * dropped after it. Default is 1, which keeps every frame. Must be invoked before the first
+     * image is added.
+     *
+     * @param step int greater than 0.
+     */
+    public void setFrameStep(int step) {
+        frameStep = Math.max(step, 1);
+    }
+
+    /**
+     * Initiates GIF file creation on the given stream. The stream is not closed
+     * automatically.
+     *
+     * @param os OutputStream on which GIF images are written.
+     * @return false if initial write failed.
+     */
+    public boolean start(@Nullable OutputStream os) {
+        if (os == null) {
+            return false;
+        }
+        out = os;
+        try {
+            writeString("GIF89a"); // header
+            started = true;
+        } catch (IOException e) {
+            started = false;
+        }
+        return started;
+    }
+
+    /**
+     * Adds the next frame. All frames must be the size of the first.
+     *
+     * @param im the frame, which can be recycled as soon as this returns
+     * @param delayMs how long to show the frame for, in milliseconds
+     * @return true if successful.
+     */
+    public boolean addFrame(@Nullable Bitmap im, int delayMs) {
+        if (im == null || !started) {
+            return false;
+        }
+        int w = im.getWidth();
+        int h = im.getHeight();
+        Pixels pixels = obtainPixels(w * h);
+        im.getPixels(pixels.data, 0, w, 0, 0, w, h);
+        return addPixels(pixels, w, h, delayMs);
+    }
+
+    /**
+     * Adds the next frame from its ARGB pixels. All frames must be the size of the first.
+     *
+     * @param argb the pixels, which can be reused as soon as this returns
+     * @param delayMs how long to show the frame for, in milliseconds
+     * @return true if successful.
+     */
+    public boolean addFrame(@NonNull int[] argb, int w, int h, int delayMs) {
+        if (!started || argb.length < w * h) {
+            return false;
+        }
+        Pixels pixels = obtainPixels(w * h);
+        System.arraycopy(argb, 0, pixels.data, 0, w * h);
+        return addPixels(pixels, w, h, delayMs);
+    }
+
+    private boolean addPixels(final Pixels pixels, int w, int h, int delayMs) {
+        final boolean first = globalPalette == null;
+        if (!first && (w != width || h != height)) {
+            Timber.w("Frame is %dx%d, expected %dx%d", w, h, width, height);
+            pixels.release();
+            return false;
+        }
+
+        // merge dropped frames, and those that didn't change, into the previous one
+        if (!first && (frameIndex++ % frameStep != 0
+                || Arrays.equals(pixels.data, lastPixels.data))) {
+            pending.getLast().delayMs += delayMs;
+            pixels.release();
+            return true;
+        }
+
+        if (first) {
+            width = w;
+            height = h;
+            frameIndex = 1;
+            // every other frame needs the global palette to compare against, so it's trained
+            // up front rather than in parallel
+            globalPalette = train(pixels.data, w * h);
+        }
+
+        // Assume images with greater where more than n% of the pixels are transparent actually have
+        // transparency. See issue #214.
+        final boolean transparent = 100d * countTransparent(pixels.data) / (w * h)
+                > MIN_TRANSPARENT_PERCENTAGE;
+
+        // Transparent frames clear the screen once they're done, so there's nothing to draw over
+        final Pixels previous = deltaFrames && !first && !transparent && !lastTransparent
+                ? lastPixels.retain() : null;
+        pixels.retain();
+        Future<Frame> frame = executor.submit(new Callable<Frame>() {
+            @Override
+            public Frame call() throws IOException {
+                try {
+                    return encode(pixels.data, previous != null ? previous.data : null,
+                            transparent, first);
+                } finally {
+                    pixels.release();
+                    if (previous != null) {
+                        previous.release();
+                    }
+                }
+            }
+        });
+        pending.add(new Slot(frame, delayMs));
+
+        if (lastPixels != null) {
+            lastPixels.release();
+        }
+        lastPixels = pixels;
+        lastTransparent = transparent;
+
+        try {
+            // write out whatever's done, and wait for the oldest frame if too many are in flight.
+            // The newest frame is held back, in case the frames after it are merged into it
+            while (pending.size() > 1
+                    && (pending.size() > maxPendingFrames || pending.peek().frame.isDone())) {
+                write(pending.poll());
+            }
+        } catch (IOException | ExecutionException | InterruptedException e) {
+            Timber.w(e, "Failed to encode frame");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Writes any frames still being encoded, and the trailer. If writing to an OutputStream, the
+     * stream is not closed.
+     */
+    public boolean finish() {
+        if (!started) {
+            return false;
+        }
+        boolean ok = true;
+        try {
+            while (!pending.isEmpty()) {
+                write(pending.poll());
+            }
+            out.write(0x3b); // GIF trailer
+            out.flush();
+        } catch (IOException | ExecutionException | InterruptedException e) {
+            Timber.w(e, "Failed to finish gif");
+            ok = false;
+        }
+
+        // reset for subsequent use
+        for (Slot slot : pending) {
+            slot.frame.cancel(true);
+        }
+        pending.clear();
+        pixelBuffers.clear();
+        indexBuffers.clear();
+        bgrBuffers.clear();
+        started = false;
+        wroteFirstFrame = false;
+        globalPalette = null;
+        lastPixels = null;
+        lastTransparent = false;
+        frameIndex = 0;
+        out = null;
+
+        return ok;
+    }
+
+    /**
+     * Quantizes and compresses a frame, or only the part of it that changed since the previous
+     * frame if that's given. Runs on the executor
+     */
+    private Frame encode(int[] pixels, @Nullable int[] previous, boolean transparent,
+            boolean first) throws IOException {
+        int left = 0;
+        int top = 0;
+        int right = width;
+        int bottom = height;
+        if (previous != null) {
+            // find the rectangle that changed
+            while (top < bottom - 1 && rowEquals(pixels, previous, top, left, right)) {
+                top++;
+            }
+            while (bottom - 1 > top && rowEquals(pixels, previous, bottom - 1, left, right)) {
+                bottom--;
+            }
+            while (left < right - 1 && columnEquals(pixels, previous, left, top, bottom)) {
+                left++;
+            }
+            while (right - 1 > left && columnEquals(pixels, previous, right - 1, top, bottom)) {
+                right--;
+            }
+        }
+        int w = right - left;
+        int h = bottom - top;
+        int count = w * h;
+
+        // copy out the rectangle, if it's not the whole frame
+        int[] region = pixels;
+        Pixels regionBuffer = null;
+        if (count < width * height) {
+            regionBuffer = obtainPixels(width * height);
+            region = regionBuffer.data;
+            for (int y = 0; y < h; y++) {
+                System.arraycopy(pixels, (top + y) * width + left, region, y * w, w);
+            }
+        }
+
+        Palette palette = globalPalette;
+        if (!first && !fits(palette, region, count)) {
+            palette = train(region, count);
+        }
+
+        // map the pixels to the palette, skipping those that didn't change
+        ColorCache cache = cache(palette);
+        byte[] indexed = obtain(indexBuffers, width * height);
+        boolean[] used = new boolean[256];
+        boolean unchanged = false;
+        for (int y = 0, i = 0; y < h; y++) {
+            for (int x = 0, j = (top + y) * width + left; x < w; x++, i++, j++) {
+                if (previous != null && pixels[j] == previous[j]) {
+                    unchanged = true;
+                    continue;
+                }
+                int index = cache.map(region[i]);
+                used[index] = true;
+                indexed[i] = (byte) index;
+            }
+        }
+        if (regionBuffer != null) {
+            regionBuffer.release();
+        }
+
+        int transIndex = 0;
+        int disposal = 0; // dispose = no action
+        if (transparent) {
+            transIndex = palette.findClosest(0, 0, 0, used);
+            disposal = 2; // force clear if using transparent color
+        } else if (unchanged) {
+            // let the previous frame show through the pixels that didn't change, using a color
+            // that no changed pixel needs. If they're all needed, the unchanged pixels are drawn
+            transIndex = -1;
+            for (int index = 0; index < used.length && transIndex == -1; index++) {
+                if (!used[index]) {
+                    transIndex = index;
+                }
+            }
+            disposal = 1; // leave the frame in place for the next to draw over
+            for (int y = 0, i = 0; y < h; y++) {
+                for (int x = 0, j = (top + y) * width + left; x < w; x++, i++, j++) {
+                    if (pixels[j] == previous[j]) {
+                        indexed[i] = transIndex >= 0 ? (byte) transIndex : (byte) cache.map(pixels[j]);
+                    }
+                }
+            }
+            transparent = transIndex >= 0;
+            transIndex = Math.max(transIndex, 0);
+        } else if (previous != null) {
+            disposal = 1;
+        }
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream(count / 2);
+        new LZWEncoder(w, h, indexed, COLOR_DEPTH).encode(data);
+        indexBuffers.offer(indexed);
+
+        return new Frame(first || palette != globalPalette ? palette : null,
+                transparent, transIndex, disposal, left, top, w, h, data);
+    }
+
+    private boolean rowEquals(int[] pixels, int[] previous, int y, int left, int right) {
+        for (int i = y * width + left, end = y * width + right; i < end; i++) {
+            if (pixels[i] != previous[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean columnEquals(int[] pixels, int[] previous, int x, int top, int bottom) {
+        for (int i = top * width + x, end = bottom * width + x; i < end; i += width) {
+            if (pixels[i] != previous[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int countTransparent(int[] pixels) {
+        int count = 0;
+        for (int pixel : pixels) {
+            if (pixel == 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns true if the palette fits these pixels about as well as the frame it was trained on
+     */
+    private boolean fits(Palette palette, int[] pixels, int count) {
+        if (paletteTolerance == 0d) {
+            return false;
+        }
+        double limit = Math.max(palette.error, MIN_PALETTE_ERROR) * paletteTolerance;
+        return palette.error(pixels, count, sample, cache(palette)) <= limit;
+    }
+
+    private Palette train(int[] pixels, int count) {
+        // The quantizer requires 3 bytes per pixel as BGR.
+        byte[] bgr = obtain(bgrBuffers, width * height * 3);
+        for (int i = 0, k = 0; i < count; i++) {
+            int pixel = pixels[i];
+            bgr[k++] = (byte) pixel;
+            bgr[k++] = (byte) (pixel >> 8);
+            bgr[k++] = (byte) (pixel >> 16);
+        }
+        NeuQuant quantizer = new NeuQuant(bgr, count * 3, sample);
+        byte[] colorTab = quantizer.process();
+        bgrBuffers.offer(bgr);
+
+        Palette palette = new Palette(quantizer, colorTab);
+        palette.error = palette.error(pixels, count, sample, cache(palette));
+        return palette;
+    }
+
+    private ColorCache cache(Palette palette) {
+        ColorCache cache = COLOR_CACHES.get()[palette == globalPalette ? 0 : 1];
+        cache.reset(palette);
+        return cache;
+    }
+
+    private void write(Slot slot)
+            throws IOException, ExecutionException, InterruptedException {
+        Frame frame = slot.frame.get();
+        if (!wroteFirstFrame) {
+            writeLSD(); // logical screen descriptor
+            out.write(frame.palette.colorTab); // global color table
+            if (repeat >= 0) {
+                // use NS app extension to indicate reps
+                writeNetscapeExt();
+            }
+        }
+
+        writeGraphicCtrlExt(frame, Math.round(slot.delayMs / 10.0f));
+
+        out.write(0x2c); // image separator
+        writeShort(frame.x); // image position
+        writeShort(frame.y);
+        writeShort(frame.width); // image size
+        writeShort(frame.height);
+        if (!wroteFirstFrame || frame.palette == null) {
+            // no LCT - GCT is used
+            out.write(0);
+        } else {
+            out.write(0x80 | PALETTE_SIZE); // local color table, not interlaced or sorted
+            out.write(frame.palette.colorTab);
+        }
+
+        frame.data.writeTo(out);
+        wroteFirstFrame = true;
+    }
+
+    /**
+     * Writes Graphic Control Extension
+     */
+    private void writeGraphicCtrlExt(Frame frame, int delay) throws IOException {
+        out.write(0x21); // extension introducer
+        out.write(0xf9); // GCE label
+        out.write(4); // data block size
+        out.write((frame.disposal << 2) | (frame.transparent ? 1 : 0));
+        writeShort(delay); // delay x 1/100 sec
+        out.write(frame.transIndex); // transparent color index
+        out.write(0); // block terminator
+    }
+
+    /**
+     * Writes Logical Screen Descriptor
+     */
+    private void writeLSD() throws IOException {
+        // logical screen size
+        writeShort(width);
+        writeShort(height);
+        // packed fields
+        out.write((0x80 | // 1 : global color table flag = 1 (gct used)
+                0x70 | // 2-4 : color resolution = 7
+                0x00 | // 5 : gct sort flag = 0
+                PALETTE_SIZE)); // 6-8 : gct size
+
+        out.write(0); // background color index
+        out.write(0); // pixel aspect ratio - assume 1:1
+    }
+
+    /**
+     * Writes Netscape application extension to define repeat count.
+     */
+    private void writeNetscapeExt() throws IOException {
+        out.write(0x21); // extension introducer
+        out.write(0xff); // app extension label
+        out.write(11); // block size
+        writeString("NETSCAPE" + "2.0"); // app id + auth code
+        out.write(3); // sub-block size
+        out.write(1); // loop sub-block id
+        writeShort(repeat); // loop count (extra iterations, 0=repeat forever)
+        out.write(0); // block terminator
+    }
+
+    /**
+     * Write 16-bit value to output stream, LSB first
+     */
+    private void writeShort(int value) throws IOException {
+        out.write(value & 0xff);
+        out.write((value >> 8) & 0xff);
+    }
+
+    /**
+     * Writes string to output stream
+     */
+    private void writeString(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            out.write((byte) s.charAt(i));
+        }
+    }
+
+    private Pixels obtainPixels(int length) {
+        int[] buffer;
+        while ((buffer = pixelBuffers.poll()) != null) {
+            if (buffer.length == length) {
+                return new Pixels(buffer);
+            }
+        }
+        return new Pixels(new int[length]);
+    }
+
+    private static byte[] obtain(ConcurrentLinkedQueue<byte[]> buffers, int length) {
+        byte[] buffer = buffers.poll();
+        return buffer != null ? buffer : new byte[length];
+    }
+
+    /**
+     * A frame's pixels, which go back to the pool once the frame, and the frame after it that
+     * compares against it, are done with them
+     */
+    private final class Pixels {
+        final int[] data;
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        Pixels(int[] data) {
+            this.data = data;
+        }
+
+        Pixels retain() {
+            references.incrementAndGet();
+            return this;
+        }
+
+        void release() {
+            if (references.decrementAndGet() == 0) {
+                pixelBuffers.offer(data);
+            }
+        }
+    }
+
+    /**
+     * A frame that's being encoded, and how long it's shown for, which grows as frames after it
+     * are merged into it
+     */
+    private static final class Slot {
+        final Future<Frame> frame;
+        int delayMs;
+
+        Slot(Future<Frame> frame, int delayMs) {
+            this.frame = frame;
+            this.delayMs = delayMs;
+        }
+    }
+
+    private static final class Frame {
+        @Nullable final Palette palette; // null if the frame uses the global palette
+        final boolean transparent;
+        final int transIndex;
+        final int disposal;
+        final int x;
+        final int y;
+        final int width;
+        final int height;
+        final ByteArrayOutputStream data;
+
+        Frame(@Nullable Palette palette, boolean transparent, int transIndex, int disposal,
+                int x, int y, int width, int height, ByteArrayOutputStream data) {
+            this.palette = palette;
+            this.transparent = transparent;
+            this.transIndex = transIndex;
+            this.disposal = disposal;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.data = data;
+        }
+    }
+
+    private static final class Palette {
+        final NeuQuant quantizer; // only read from once trained, so it can be shared by threads
+        final byte[] colorTab; // RGB
+        double error; // mean squared color error on the frame it was trained on
+
+        Palette(NeuQuant quantizer, byte[] colorTab) {
+            this.quantizer = quantizer;
+            this.colorTab = colorTab;
+            // convert map from BGR to RGB
+            for (int i = 0; i < colorTab.length; i += 3) {
+                byte temp = colorTab[i];
+                colorTab[i] = colorTab[i + 2];
+                colorTab[i + 2] = temp;
+            }
+        }
+
+        /**
+         * Returns the mean squared color error of mapping a sample of the pixels to the palette
+         */
+        double error(int[] pixels, int count, int sample, ColorCache cache) {
+            long total = 0;
+            int samples = 0;
+            for (int i = 0; i < count; i += sample) {
+                int pixel = pixels[i];
+                int k = cache.map(pixel) * 3;
+                int dr = ((pixel >> 16) & 0xff) - (colorTab[k] & 0xff);
+                int dg = ((pixel >> 8) & 0xff) - (colorTab[k + 1] & 0xff);
+                int db = (pixel & 0xff) - (colorTab[k + 2] & 0xff);
+                total += dr * dr + dg * dg + db * db;
+                samples++;
+            }
+            return samples == 0 ? 0d : total / (double) samples;
+        }
+
+        /**
+         * Returns index of the used palette color closest to the given color
+         */
+        int findClosest(int r, int g, int b, boolean[] used) {
+            int minpos = 0;
+            int dmin = 256 * 256 * 256;
+            for (int index = 0; index < 256; index++) {
+                int i = index * 3;
+                int dr = r - (colorTab[i] & 0xff);
+                int dg = g - (colorTab[i + 1] & 0xff);
+                int db = b - (colorTab[i + 2] & 0xff);
+                int d = dr * dr + dg * dg + db * db;
+                if (used[index] && d < dmin) {
+                    dmin = d;
+                    minpos = index;
+                }
+            }
+            return minpos;
+        }
+    }
+
+    /**
+     * Remembers which palette index recent colors mapped to, since frames tend to repeat the
+     * same colors many times over and searching the quantizer's network is comparatively slow
+     */
+    private static final class ColorCache {
+        private static final int BITS = 14;
+        private static final int SIZE = 1 << BITS;
+
+        private final int[] colors = new int[SIZE];
+        private final byte[] indices = new byte[SIZE];
+        private Palette palette;
+
+        void reset(Palette palette) {
+            if (this.palette != palette) {
+                this.palette = palette;
+                Arrays.fill(colors, -1);
+            }
+        }
+
+        int map(int pixel) {
+            int rgb = pixel & 0xffffff;
+            int slot = (rgb * 0x9E3779B1) >>> (32 - BITS);
+            if (colors[slot] == rgb) {
+                return indices[slot] & 0xff;
+            }
+            int index = palette.quantizer.map(rgb & 0xff, (rgb >> 8) & 0xff, (rgb >> 16) & 0xff);
+            colors[slot] = rgb;
+            indices[slot] = (byte) index;
+            return index;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.bumptech.glide.gifencoder;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.w3c.dom.Node;
+
+/**
+ * Synthetic animations for exercising the gif encoders, since the framework's Bitmap isn't
+ * available to unit tests. Frames are opaque ARGB pixels.
+ */
+final class GifCorpus {
+
+    static final int DELAY_MS = 80;
+
+    private static final String STREAM_METADATA = "javax_imageio_gif_stream_1.0";
+    private static final String IMAGE_METADATA = "javax_imageio_gif_image_1.0";
+
+    static final class Animation {
+        final String name;
+        final int width;
+        final int height;
+        final List<int[]> frames;
+
+        Animation(String name, int width, int height, List<int[]> frames) {
+            this.name = name;
+            this.width = width;
+            this.height = height;
+            this.frames = frames;
+        }
+    }
+
+    private GifCorpus() {
+    }
+
+    static List<Animation> animations() {
+        List<Animation> animations = new ArrayList<>();
+        animations.add(panning(160, 120, 24));
+        animations.add(panning(320, 240, 24));
+        animations.add(sceneCuts(160, 120, 24));
+        animations.add(noise(160, 120, 12));
+        return animations;
+    }
+
+    /**
+     * A gradient background with a ball moving across it, so every frame has the same colors
+     */
+    static Animation panning(int width, int height, int count) {
+        List<int[]> frames = new ArrayList<>();
+        for (int f = 0; f < count; f++) {
+            int[] frame = new int[width * height];
+            int cx = width * f / count;
+            int cy = height / 2;
+            int radius = height / 5;
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int dx = x - cx;
+                    int dy = y - cy;
+                    frame[y * width + x] = dx * dx + dy * dy <= radius * radius
+                            ? argb(230, 60, 40)
+                            : argb(255 * x / width, 255 * y / height, 128);
+                }
+            }
+            frames.add(frame);
+        }
+        return new Animation("panning " + width + "x" + height, width, height, frames);
+    }
+
+    /**
+     * Cuts between a warm and a cool scene every few frames, which can't share a palette
+     */
+    static Animation sceneCuts(int width, int height, int count) {
+        List<int[]> frames = new ArrayList<>();
+        for (int f = 0; f < count; f++) {
+            boolean warm = (f / 4) % 2 == 0;
+            int[] frame = new int[width * height];
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int a = 255 * x / width;
+                    int b = 255 * y / height;
+                    frame[y * width + x] = warm
+                            ? argb(128 + a / 2, b / 2, f * 4)
+                            : argb(f * 4, b / 2, 128 + a / 2);
+                }
+            }
+            frames.add(frame);
+        }
+        return new Animation("scene cuts " + width + "x" + height, width, height, frames);
+    }
+
+    /**
+     * Noisy frames with many colors, like a photo
+     */
+    static Animation noise(int width, int height, int count) {
+        Random random = new Random(42);
+        List<int[]> frames = new ArrayList<>();
+        for (int f = 0; f < count; f++) {
+            int[] frame = new int[width * height];
+            for (int i = 0; i < frame.length; i++) {
+                frame[i] = argb(random.nextInt(256), random.nextInt(256), random.nextInt(256));
+            }
+            frames.add(frame);
+        }
+        return new Animation("noise " + width + "x" + height, width, height, frames);
+    }
+
+    static byte[] encodeLegacy(Animation animation) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AnimatedGifEncoder encoder = new AnimatedGifEncoder();
+        encoder.start(out);
+        for (int[] frame : animation.frames) {
+            encoder.addFrame(frame, animation.width, animation.height);
+            encoder.setDelay(DELAY_MS);
+        }
+        encoder.finish();
+        return out.toByteArray();
+    }
+
+    static byte[] encode(ParallelGifEncoder encoder, Animation animation) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.start(out);
+        for (int[] frame : animation.frames) {
+            encoder.addFrame(frame, animation.width, animation.height, DELAY_MS);
+        }
+        encoder.finish();
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes each frame of a gif into ARGB pixels, drawn over the frames before it the way a
+     * viewer would show it
+     */
+    static List<int[]> decode(byte[] gif) throws IOException {
+        ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(gif));
+        ImageReader reader = ImageIO.getImageReadersByFormatName("gif").next();
+        reader.setInput(input);
+
+        Node screen = child(reader.getStreamMetadata().getAsTree(STREAM_METADATA), "LogicalScreenDescriptor");
+        int width = attribute(screen, "logicalScreenWidth");
+        int height = attribute(screen, "logicalScreenHeight");
+        int[] canvas = new int[width * height];
+
+        List<int[]> frames = new ArrayList<>();
+        for (int i = 0, count = reader.getNumImages(true); i < count; i++) {
+            Node metadata = reader.getImageMetadata(i).getAsTree(IMAGE_METADATA);
+            Node descriptor = child(metadata, "ImageDescriptor");
+            int left = attribute(descriptor, "imageLeftPosition");
+            int top = attribute(descriptor, "imageTopPosition");
+            String disposal = child(metadata, "GraphicControlExtension").getAttributes()
+                    .getNamedItem("disposalMethod").getNodeValue();
+
+            BufferedImage image = reader.read(i);
+            int w = image.getWidth();
+            int h = image.getHeight();
+            int[] pixels = image.getRGB(0, 0, w, h, null, 0, w);
+            for (int y = 0; y < h; y++) {
+                for (int x = 0; x < w; x++) {
+                    int pixel = pixels[y * w + x];
+                    if ((pixel >>> 24) != 0) {
+                        canvas[(top + y) * width + left + x] = pixel;
+                    }
+                }
+            }
+            frames.add(canvas.clone());
+
+            if (disposal.equals("restoreToBackgroundColor")) {
+                for (int y = 0; y < h; y++) {
+                    Arrays.fill(canvas, (top + y) * width + left, (top + y) * width + left + w, 0);
+                }
+            }
+        }
+        reader.dispose();
+        return frames;
+    }
+
+    /**
+     * Returns each frame's delay, in hundredths of a second
+     */
+    static List<Integer> delays(byte[] gif) throws IOException {
+        ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(gif));
+        ImageReader reader = ImageIO.getImageReadersByFormatName("gif").next();
+        reader.setInput(input);
+        List<Integer> delays = new ArrayList<>();
+        for (int i = 0, count = reader.getNumImages(true); i < count; i++) {
+            Node metadata = reader.getImageMetadata(i).getAsTree(IMAGE_METADATA);
+            delays.add(attribute(child(metadata, "GraphicControlExtension"), "delayTime"));
+        }
+        reader.dispose();
+        return delays;
+    }
+
+    private static Node child(Node node, String name) {
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeName().equals(name)) {
+                return child;
+            }
+        }
+        throw new IllegalArgumentException("No " + name);
+    }
+
+    private static int attribute(Node node, String name) {
+        return Integer.parseInt(node.getAttributes().getNamedItem(name).getNodeValue());
+    }
+
+    /**
+     * Returns the mean squared color error per pixel between two frames
+     */
+    static double error(int[] expected, int[] actual) {
+        long total = 0;
+        for (int i = 0; i < expected.length; i++) {
+            int dr = ((expected[i] >> 16) & 0xff) - ((actual[i] >> 16) & 0xff);
+            int dg = ((expected[i] >> 8) & 0xff) - ((actual[i] >> 8) & 0xff);
+            int db = (expected[i] & 0xff) - (actual[i] & 0xff);
+            total += dr * dr + dg * dg + db * db;
+        }
+        return total / (double) expected.length;
+    }
+
+    static double error(Animation animation, byte[] gif) throws IOException {
+        List<int[]> decoded = decode(gif);
+        double total = 0;
+        for (int i = 0; i < animation.frames.size(); i++) {
+            total += error(animation.frames.get(i), decoded.get(i));
+        }
+        return total / animation.frames.size();
+    }
+
+    static int argb(int r, int g, int b) {
+        return 0xff000000 | (r << 16) | (g << 8) | b;
+    }
+}
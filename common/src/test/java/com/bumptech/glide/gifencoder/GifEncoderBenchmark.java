@@ -0,0 +1,70 @@
+package com.bumptech.glide.gifencoder;
+
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.Test;
+
+import java.util.Locale;
+
+/**
+ * Compares {@link ParallelGifEncoder} with {@link AnimatedGifEncoder} on multi-frame animations:
+ * throughput, output size, and the mean squared color error of the result.
+ *
+ * Skipped unless the benchmark system property is set, ie.
+ * {@code ./gradlew :common:testDebugUnitTest --tests '*GifEncoderBenchmark' -Dbenchmark=true}
+ */
+public class GifEncoderBenchmark {
+
+    private static final long WARMUP_NANOS = 2_000_000_000L;
+    private static final long MEASURE_NANOS = 4_000_000_000L;
+
+    private interface Encoder {
+        byte[] encode(GifCorpus.Animation animation);
+    }
+
+    @Test
+    public void benchmark() throws Exception {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+
+        System.out.println(String.format(Locale.US, "%-20s %-9s %10s %10s %10s %8s",
+                "animation", "encoder", "gifs/s", "frames/s", "bytes", "error"));
+
+        for (GifCorpus.Animation animation : GifCorpus.animations()) {
+            report(animation, "legacy", new Encoder() {
+                @Override
+                public byte[] encode(GifCorpus.Animation animation) {
+                    return GifCorpus.encodeLegacy(animation);
+                }
+            });
+            report(animation, "parallel", new Encoder() {
+                @Override
+                public byte[] encode(GifCorpus.Animation animation) {
+                    return GifCorpus.encode(new ParallelGifEncoder(), animation);
+                }
+            });
+        }
+    }
+
+    private static void report(GifCorpus.Animation animation, String name, Encoder encoder)
+            throws Exception {
+        measure(animation, encoder, WARMUP_NANOS);
+        long start = System.nanoTime();
+        long ops = measure(animation, encoder, MEASURE_NANOS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        byte[] gif = encoder.encode(animation);
+        System.out.println(String.format(Locale.US, "%-20s %-9s %10.1f %10.1f %10d %8.1f",
+                animation.name, name, ops / seconds, ops * animation.frames.size() / seconds,
+                gif.length, GifCorpus.error(animation, gif)));
+    }
+
+    private static long measure(GifCorpus.Animation animation, Encoder encoder, long duration) {
+        long end = System.nanoTime() + duration;
+        long ops = 0;
+        do {
+            encoder.encode(animation);
+            ops++;
+        } while (System.nanoTime() < end);
+        return ops;
+    }
+}
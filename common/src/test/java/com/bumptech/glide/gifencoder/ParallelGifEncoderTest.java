@@ -0,0 +1,141 @@
+package com.bumptech.glide.gifencoder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class ParallelGifEncoderTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void encodesEveryFrameCloseToTheSource() throws IOException {
+        for (GifCorpus.Animation animation : GifCorpus.animations()) {
+            byte[] gif = GifCorpus.encode(new ParallelGifEncoder(executor, 3), animation);
+            List<int[]> decoded = GifCorpus.decode(gif);
+
+            assertEquals(animation.name, animation.frames.size(), decoded.size());
+            double legacyError = GifCorpus.error(animation, GifCorpus.encodeLegacy(animation));
+            double error = GifCorpus.error(animation, gif);
+            // sharing a palette may cost a little, but no more than the tolerance allows
+            assertTrue(animation.name + ": " + error + " vs " + legacyError,
+                    error <= Math.max(legacyError, 16) * 1.5 + 1);
+        }
+    }
+
+    @Test
+    public void writesEachFramesOwnDelay() throws IOException {
+        GifCorpus.Animation animation = GifCorpus.panning(40, 30, 4);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ParallelGifEncoder encoder = new ParallelGifEncoder(executor, 2);
+        encoder.start(out);
+        for (int i = 0; i < animation.frames.size(); i++) {
+            encoder.addFrame(animation.frames.get(i), animation.width, animation.height, (i + 1) * 100);
+        }
+        encoder.finish();
+
+        List<Integer> delays = GifCorpus.delays(out.toByteArray());
+        for (int i = 0; i < animation.frames.size(); i++) {
+            assertEquals((i + 1) * 10, (int) delays.get(i));
+        }
+    }
+
+    @Test
+    public void similarFramesShareTheGlobalPalette() throws IOException {
+        GifCorpus.Animation animation = GifCorpus.panning(160, 120, 24);
+
+        byte[] shared = GifCorpus.encode(new ParallelGifEncoder(executor, 3), animation);
+        ParallelGifEncoder perFrame = new ParallelGifEncoder(executor, 3);
+        perFrame.setPaletteTolerance(0);
+        byte[] unshared = GifCorpus.encode(perFrame, animation);
+
+        // each frame that shares the palette saves a 768 byte local color table
+        assertTrue(shared.length + 768 * (animation.frames.size() - 1) <= unshared.length + 1024);
+    }
+
+    @Test
+    public void differentFramesGetTheirOwnPalette() throws IOException {
+        GifCorpus.Animation animation = GifCorpus.sceneCuts(160, 120, 24);
+
+        ParallelGifEncoder perFrame = new ParallelGifEncoder(executor, 3);
+        perFrame.setPaletteTolerance(0);
+        double unsharedError = GifCorpus.error(animation, GifCorpus.encode(perFrame, animation));
+        double error = GifCorpus.error(animation,
+                GifCorpus.encode(new ParallelGifEncoder(executor, 3), animation));
+
+        assertTrue(error + " vs " + unsharedError, error <= Math.max(unsharedError, 16) * 1.5 + 1);
+    }
+
+    @Test
+    public void deltaFramesOnlyEncodeWhatChanged() throws IOException {
+        GifCorpus.Animation animation = GifCorpus.panning(160, 120, 24);
+
+        byte[] delta = GifCorpus.encode(new ParallelGifEncoder(executor, 3), animation);
+        ParallelGifEncoder fullFrames = new ParallelGifEncoder(executor, 3);
+        fullFrames.setDeltaFrames(false);
+        byte[] full = GifCorpus.encode(fullFrames, animation);
+
+        assertTrue(delta.length + " vs " + full.length, delta.length < full.length / 2);
+        double fullError = GifCorpus.error(animation, full);
+        double error = GifCorpus.error(animation, delta);
+        assertTrue(error + " vs " + fullError, error <= fullError * 1.1 + 1);
+    }
+
+    @Test
+    public void mergesFramesThatDidNotChange() throws IOException {
+        GifCorpus.Animation animation = GifCorpus.panning(40, 30, 2);
+        int[] a = animation.frames.get(0);
+        int[] b = animation.frames.get(1);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ParallelGifEncoder encoder = new ParallelGifEncoder(executor, 2);
+        encoder.start(out);
+        encoder.addFrame(a, 40, 30, 100);
+        encoder.addFrame(a, 40, 30, 100);
+        encoder.addFrame(b, 40, 30, 100);
+        encoder.addFrame(b, 40, 30, 50);
+        encoder.finish();
+
+        assertEquals(Arrays.asList(20, 15), GifCorpus.delays(out.toByteArray()));
+    }
+
+    @Test
+    public void frameStepDropsFramesAndKeepsTheirTime() throws IOException {
+        GifCorpus.Animation animation = GifCorpus.panning(40, 30, 7);
+
+        ParallelGifEncoder encoder = new ParallelGifEncoder(executor, 2);
+        encoder.setFrameStep(3);
+        byte[] gif = GifCorpus.encode(encoder, animation);
+
+        int delay = GifCorpus.DELAY_MS / 10;
+        assertEquals(Arrays.asList(3 * delay, 3 * delay, delay), GifCorpus.delays(gif));
+        List<int[]> decoded = GifCorpus.decode(gif);
+        // the second frame shown is the fourth one added
+        assertTrue(GifCorpus.error(animation.frames.get(3), decoded.get(1))
+                < GifCorpus.error(animation.frames.get(1), decoded.get(1)));
+    }
+
+    @Test
+    public void rejectsFramesOfAnotherSize() {
+        ParallelGifEncoder encoder = new ParallelGifEncoder(executor, 2);
+        encoder.start(new ByteArrayOutputStream());
+        assertTrue(encoder.addFrame(new int[40 * 30], 40, 30, 100));
+        assertFalse(encoder.addFrame(new int[20 * 30], 20, 30, 100));
+        assertTrue(encoder.finish());
+    }
+}
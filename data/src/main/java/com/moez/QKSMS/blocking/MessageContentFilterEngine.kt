@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2017 Moez Bhatti <moez.bhatti@gmail.com>
+ *
+ * This file is part of QKSMS.
+ *
+ * QKSMS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * QKSMS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QKSMS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.octoshrimpy.quik.blocking
+
+import dev.octoshrimpy.quik.model.MessageContentFilterData
+import timber.log.Timber
+import java.util.regex.PatternSyntaxException
+
+/**
+ * Compiled form of the message content filters
+ *
+ * Keyword filters are merged into two Aho-Corasick automatons, one for case sensitive keywords and one for case
+ * insensitive keywords, which are both advanced during a single pass over the message body. Regex filters are
+ * compiled once and reused for every message.
+ *
+ * The engine is immutable, and should be rebuilt whenever the filters change
+ */
+class MessageContentFilterEngine(filters: List<MessageContentFilterData>) {
+
+    private class RegexRule(val regex: Regex, val includeContacts: Boolean)
+
+    private val caseSensitive = KeywordAutomaton(filters.filter { !it.isRegex && it.caseSensitive })
+    private val caseInsensitive = KeywordAutomaton(filters.filter { !it.isRegex && !it.caseSensitive })
+    private val regexes = filters.filter { it.isRegex }.mapNotNull { filter ->
+        try {
+            RegexRule(Regex(filter.value), filter.includeContacts)
+        } catch (e: PatternSyntaxException) {
+            Timber.w(e, "Ignoring invalid message content filter")
+            null
+        }
+    }
+
+    fun isEmpty(): Boolean = caseSensitive.isEmpty() && caseInsensitive.isEmpty() && regexes.isEmpty()
+
+    /**
+     * Returns true if the [body] matches any of the filters. Filters which don't apply to contacts are only honoured
+     * if [isContact] returns false, which is only evaluated if one of those filters would otherwise match
+     */
+    fun matches(body: String, isContact: () -> Boolean): Boolean {
+        if (isEmpty()) {
+            return false
+        }
+
+        var state = 0
+        var lowerState = 0
+        var nonContactMatch = false
+
+        for (index in body.indices) {
+            val char = body[index]
+            if (!caseSensitive.isEmpty()) {
+                state = caseSensitive.next(state, char)
+                when (caseSensitive.match(state, body, index + 1)) {
+                    KeywordAutomaton.MATCH_ALL -> return true
+                    KeywordAutomaton.MATCH_NON_CONTACTS -> nonContactMatch = true
+                }
+            }
+            if (!caseInsensitive.isEmpty()) {
+                lowerState = caseInsensitive.next(lowerState, Character.toLowerCase(char))
+                when (caseInsensitive.match(lowerState, body, index + 1)) {
+                    KeywordAutomaton.MATCH_ALL -> return true
+                    KeywordAutomaton.MATCH_NON_CONTACTS -> nonContactMatch = true
+                }
+            }
+        }
+
+        if (regexes.any { rule -> rule.includeContacts && rule.regex.matches(body) }) {
+            return true
+        }
+
+        if (!nonContactMatch && regexes.all { rule -> rule.includeContacts }) {
+            return false
+        }
+
+        return when {
+            isContact() -> false
+            nonContactMatch -> true
+            else -> regexes.any { rule -> !rule.includeContacts && rule.regex.matches(body) }
+        }
+    }
+
+    /**
+     * Aho-Corasick automaton over a set of keywords, where each match must also be surrounded by word boundaries
+     * in the original text, the same way `\b` would in a regex
+     */
+    private class KeywordAutomaton(filters: List<MessageContentFilterData>) {
+
+        companion object {
+            const val MATCH_NONE = 0
+            const val MATCH_NON_CONTACTS = 1
+            const val MATCH_ALL = 2
+        }
+
+        // Transitions for each node, sorted by char so that they can be binary searched
+        private val keys: Array<CharArray>
+        private val targets: Array<IntArray>
+        private val failures: IntArray
+
+        // Lengths of the keywords ending at each node (including those reached by failure links), and whether
+        // or not each of them applies to contacts
+        private val outputLengths: Array<IntArray>
+        private val outputIncludeContacts: Array<BooleanArray>
+
+        init {
+            val transitions = mutableListOf(sortedMapOf<Char, Int>())
+            val outputs = mutableListOf(mutableListOf<Pair<Int, Boolean>>())
+
+            filters.filter { it.value.isNotEmpty() }.forEach { filter ->
+                val keyword = if (filter.caseSensitive) filter.value else filter.value.map(Character::toLowerCase)
+                        .joinToString("")
+
+                var node = 0
+                keyword.forEach { char ->
+                    node = transitions[node].getOrPut(char) {
+                        transitions.add(sortedMapOf())
+                        outputs.add(mutableListOf())
+                        transitions.lastIndex
+                    }
+                }
+                outputs[node].add(keyword.length to filter.includeContacts)
+            }
+
+            keys = Array(transitions.size) { node -> transitions[node].keys.toCharArray() }
+            targets = Array(transitions.size) { node -> transitions[node].values.toIntArray() }
+            failures = IntArray(transitions.size)
+
+            // Breadth-first, so that the failure node of a node is always resolved before the node itself
+            val queue = ArrayDeque<Int>()
+            targets[0].forEach(queue::addLast)
+            while (queue.isNotEmpty()) {
+                val node = queue.removeFirst()
+                keys[node].forEachIndexed { index, char ->
+                    val child = targets[node][index]
+                    failures[child] = if (node == 0) 0 else next(failures[node], char)
+                    outputs[child].addAll(outputs[failures[child]])
+                    queue.addLast(child)
+                }
+            }
+
+            outputLengths = Array(outputs.size) { node -> outputs[node].map { it.first }.toIntArray() }
+            outputIncludeContacts = Array(outputs.size) { node -> outputs[node].map { it.second }.toBooleanArray() }
+        }
+
+        fun isEmpty(): Boolean = keys[0].isEmpty()
+
+        fun next(state: Int, char: Char): Int {
+            var node = state
+            while (true) {
+                val index = keys[node].binarySearch(char)
+                if (index >= 0) return targets[node][index]
+                if (node == 0) return 0
+                node = failures[node]
+            }
+        }
+
+        /**
+         * Returns the best match for the keywords ending at [end] in [text] when the automaton is in [state]
+         */
+        fun match(state: Int, text: CharSequence, end: Int): Int {
+            val lengths = outputLengths[state]
+            var result = MATCH_NONE
+            for (i in lengths.indices) {
+                val start = end - lengths[i]
+                if (isBoundary(text, start) && isBoundary(text, end)) {
+                    if (outputIncludeContacts[state][i]) return MATCH_ALL
+                    result = MATCH_NON_CONTACTS
+                }
+            }
+            return result
+        }
+
+        private fun isBoundary(text: CharSequence, index: Int): Boolean {
+            return isWordChar(text, index - 1) != isWordChar(text, index)
+        }
+
+        private fun isWordChar(text: CharSequence, index: Int): Boolean {
+            if (index < 0 || index >= text.length) return false
+            val char = text[index]
+            return char == '_' || Character.isLetterOrDigit(char)
+        }
+
+    }
+
+}
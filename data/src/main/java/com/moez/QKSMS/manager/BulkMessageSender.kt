@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2017 Moez Bhatti <moez.bhatti@gmail.com>
+ *
+ * This file is part of QKSMS.
+ *
+ * QKSMS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * QKSMS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QKSMS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.octoshrimpy.quik.manager
+
+import android.net.Uri
+import android.os.SystemClock
+import dev.octoshrimpy.quik.repository.MessageRepository.BulkSendProgress
+import io.reactivex.subjects.BehaviorSubject
+import io.reactivex.subjects.Subject
+import timber.log.Timber
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Sends the individual messages that a non-group message to many recipients is exploded into
+ *
+ * Messages are handed to the radio by a small pool of workers, so that the provider reads and PDU
+ * composition for one message overlap with the send of another, but no more often than once per
+ * [minIntervalMs] so that we don't trip the platform's outgoing SMS limits. Sending happens in the
+ * background, and the status of each message and the overall progress can be followed while it does
+ */
+@Singleton
+class BulkMessageSender(
+    private val concurrency: Int,
+    private val minIntervalMs: Long
+) {
+
+    companion object {
+        private const val DEFAULT_CONCURRENCY = 3
+        private const val DEFAULT_MIN_INTERVAL_MS = 250L
+    }
+
+    enum class Status { QUEUED, SENDING, SUBMITTED, FAILED }
+
+    class Outgoing(val messageId: Long, val uri: Uri)
+
+    @Inject constructor() : this(DEFAULT_CONCURRENCY, DEFAULT_MIN_INTERVAL_MS)
+
+    /**
+     * The progress of all of the messages that have been queued since the sender was last idle
+     */
+    val progress: Subject<BulkSendProgress> = BehaviorSubject.createDefault(BulkSendProgress.Idle)
+
+    private val executor = ThreadPoolExecutor(
+        concurrency, concurrency, 30, TimeUnit.SECONDS, LinkedBlockingQueue()
+    ).apply { allowCoreThreadTimeOut(true) }
+
+    private val statuses = HashMap<Long, Status>()
+    private var submitted = 0
+    private var failed = 0
+
+    private var nextSendTime = 0L
+
+    /**
+     * Queues the [messages] to be sent with [send], which returns whether the message was handed
+     * to the radio. If it throws or returns false, [onFailed] is called for that message
+     */
+    fun send(messages: Collection<Outgoing>, send: (Outgoing) -> Boolean, onFailed: (Outgoing) -> Unit) {
+        synchronized(this) {
+            messages.forEach { message -> statuses[message.messageId] = Status.QUEUED }
+            publishProgress()
+        }
+
+        Timber.v("queued ${messages.size} messages to send, $concurrency at a time")
+
+        messages.forEach { message ->
+            executor.execute {
+                awaitTurn()
+                setStatus(message.messageId, Status.SENDING)
+
+                val success = try {
+                    send(message)
+                } catch (e: Exception) {
+                    Timber.e(e, "failed sending message id ${message.messageId}")
+                    false
+                }
+
+                if (!success) {
+                    try {
+                        onFailed(message)
+                    } catch (e: Exception) {
+                        Timber.w(e)
+                    }
+                }
+
+                setStatus(message.messageId, if (success) Status.SUBMITTED else Status.FAILED)
+            }
+        }
+    }
+
+    /**
+     * Returns the status of the message, if it's been queued since the sender was last idle
+     */
+    fun getStatus(messageId: Long): Status? = synchronized(this) { statuses[messageId] }
+
+    /**
+     * Blocks until the next send is allowed, spacing the sends across all of the workers
+     */
+    private fun awaitTurn() {
+        val delay = synchronized(this) {
+            val now = SystemClock.elapsedRealtime()
+            val sendTime = maxOf(now, nextSendTime)
+            nextSendTime = sendTime + minIntervalMs
+            sendTime - now
+        }
+
+        if (delay > 0) {
+            SystemClock.sleep(delay)
+        }
+    }
+
+    private fun setStatus(messageId: Long, status: Status) = synchronized(this) {
+        statuses[messageId] = status
+        when (status) {
+            Status.SUBMITTED -> submitted++
+            Status.FAILED -> failed++
+            else -> return@synchronized
+        }
+
+        publishProgress()
+
+        // once everything has been sent, start counting afresh
+        if (submitted + failed >= statuses.size) {
+            Timber.v("sent ${statuses.size} messages, $failed failed")
+            statuses.clear()
+            submitted = 0
+            failed = 0
+            progress.onNext(BulkSendProgress.Idle)
+        }
+    }
+
+    private fun publishProgress() {
+        progress.onNext(BulkSendProgress.Running(statuses.size, submitted, failed))
+    }
+
+}
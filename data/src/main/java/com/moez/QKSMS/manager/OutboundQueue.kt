@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2017 Moez Bhatti <moez.bhatti@gmail.com>
+ *
+ * This file is part of QKSMS.
+ *
+ * QKSMS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * QKSMS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QKSMS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.octoshrimpy.quik.manager
+
+import android.app.PendingIntent
+import android.content.Context
+import android.content.Intent
+import dev.octoshrimpy.quik.extensions.anyOf
+import dev.octoshrimpy.quik.model.QueuedMessage
+import dev.octoshrimpy.quik.receiver.SendDelayedMessageReceiver
+import io.realm.Realm
+import io.realm.Sort
+import timber.log.Timber
+import java.util.concurrent.TimeUnit
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Messages waiting to be sent later, either because sending was delayed, or to retry after the
+ * radio failed to send them
+ *
+ * The queue is kept in realm so that it survives the process being killed, and a single alarm is
+ * set for whichever message is due first, rather than an alarm per message
+ */
+@Singleton
+class OutboundQueue @Inject constructor(private val context: Context) {
+
+    companion object {
+        private const val MAX_RETRIES = 4
+
+        // Doubled after each retry, so 30s, 1m, 2m, 4m
+        private val RETRY_BACKOFF_MS = TimeUnit.SECONDS.toMillis(30)
+
+        // How long to wait to hear whether a message was sent, before forgetting about it
+        private val SENDING_TIMEOUT_MS = TimeUnit.DAYS.toMillis(1)
+    }
+
+    /**
+     * Queues the message to be sent at [sendTime]
+     */
+    fun enqueue(messageId: Long, sendTime: Long) = enqueue(listOf(messageId), sendTime)
+
+    /**
+     * Queues the messages to be sent at [sendTime]
+     */
+    fun enqueue(messageIds: Collection<Long>, sendTime: Long) {
+        Realm.getDefaultInstance().use { realm ->
+            realm.executeTransaction {
+                realm.insertOrUpdate(messageIds.map { messageId -> QueuedMessage(messageId, sendTime) })
+            }
+        }
+
+        Timber.v("queued message ids $messageIds to send at $sendTime")
+        schedule()
+    }
+
+    /**
+     * Pushes back the send time of those [messageIds] that are still waiting to be sent
+     *
+     * The alarm isn't moved, since it's only ever moved later. If it goes off early, nothing is due
+     * yet and it's set again for the new send time
+     */
+    fun postpone(messageIds: Collection<Long>, sendTime: Long) {
+        Realm.getDefaultInstance().use { realm ->
+            realm.executeTransaction {
+                realm.where(QueuedMessage::class.java)
+                    .anyOf("messageId", messageIds.toLongArray())
+                    .equalTo("sending", false)
+                    .lessThan("sendTime", sendTime)
+                    .findAll()
+                    .forEach { queuedMessage -> queuedMessage.sendTime = sendTime }
+            }
+        }
+    }
+
+    /**
+     * Takes the message to send it now, ahead of its send time, returning false if it isn't queued
+     * or is already being sent
+     */
+    fun take(messageId: Long): Boolean = Realm.getDefaultInstance().use { realm ->
+        var taken = false
+        realm.executeTransaction {
+            realm.where(QueuedMessage::class.java)
+                .equalTo("messageId", messageId)
+                .equalTo("sending", false)
+                .findFirst()
+                ?.let { queuedMessage ->
+                    queuedMessage.sending = true
+                    queuedMessage.sendTime = System.currentTimeMillis()
+                    taken = true
+                }
+        }
+
+        taken
+    }
+
+    /**
+     * Removes the message from the queue, either because it's been cancelled, or because we know
+     * whether or not it was sent
+     */
+    fun remove(messageId: Long) {
+        val removed = Realm.getDefaultInstance().use { realm ->
+            val queuedMessage = realm.where(QueuedMessage::class.java)
+                .equalTo("messageId", messageId)
+                .findFirst()
+                ?: return@use false
+
+            realm.executeTransaction { queuedMessage.deleteFromRealm() }
+            true
+        }
+
+        if (removed) {
+            Timber.v("removed message id $messageId from queue")
+            schedule()
+        }
+    }
+
+    /**
+     * Queues the message to be sent again after a backoff, returning false if it's already been
+     * retried too many times
+     */
+    fun retry(messageId: Long): Boolean {
+        val retrying = Realm.getDefaultInstance().use { realm ->
+            val queuedMessage = realm.where(QueuedMessage::class.java)
+                .equalTo("messageId", messageId)
+                .findFirst()
+
+            when {
+                // the radio reports on each part of a long sms, so we may already be retrying
+                queuedMessage?.sending == false -> true
+
+                (queuedMessage?.attempts ?: 0) >= MAX_RETRIES -> {
+                    realm.executeTransaction { queuedMessage?.deleteFromRealm() }
+                    false
+                }
+
+                else -> {
+                    val attempts = (queuedMessage?.attempts ?: 0) + 1
+                    val sendTime = System.currentTimeMillis() + (RETRY_BACKOFF_MS shl (attempts - 1))
+                    realm.executeTransaction {
+                        realm.insertOrUpdate(QueuedMessage(messageId, sendTime, attempts))
+                    }
+
+                    Timber.v("retry $attempts of message id $messageId at $sendTime")
+                    true
+                }
+            }
+        }
+
+        schedule()
+        return retrying
+    }
+
+    /**
+     * Takes the messages that are due to be sent, and marks them as sending
+     */
+    fun takeDue(): List<QueuedMessage> {
+        val now = System.currentTimeMillis()
+
+        val due = Realm.getDefaultInstance().use { realm ->
+            realm.refresh()
+
+            var due = listOf<QueuedMessage>()
+            realm.executeTransaction {
+                // forget messages that we never heard back about, ie. because the device restarted
+                realm.where(QueuedMessage::class.java)
+                    .equalTo("sending", true)
+                    .lessThan("sendTime", now - SENDING_TIMEOUT_MS)
+                    .findAll()
+                    .deleteAllFromRealm()
+
+                val results = realm.where(QueuedMessage::class.java)
+                    .equalTo("sending", false)
+                    .lessThanOrEqualTo("sendTime", now)
+                    .findAll()
+
+                due = realm.copyFromRealm(results)
+
+                results.forEach { queuedMessage ->
+                    queuedMessage.sending = true
+                    queuedMessage.sendTime = now
+                }
+            }
+
+            due
+        }
+
+        schedule()
+        return due
+    }
+
+    /**
+     * Sets the alarm for the next message that's due, or cancels it if there aren't any
+     */
+    private fun schedule() {
+        val nextSendTime = Realm.getDefaultInstance().use { realm ->
+            realm.refresh()
+            realm.where(QueuedMessage::class.java)
+                .equalTo("sending", false)
+                .sort("sendTime", Sort.ASCENDING)
+                .findFirst()
+                ?.sendTime
+        }
+
+        val alarmManager = context.getSystemService(Context.ALARM_SERVICE) as android.app.AlarmManager
+        val intent = PendingIntent.getBroadcast(
+            context,
+            0,
+            Intent(context, SendDelayedMessageReceiver::class.java),
+            PendingIntent.FLAG_UPDATE_CURRENT or PendingIntent.FLAG_IMMUTABLE
+        )
+
+        when (nextSendTime) {
+            null -> alarmManager.cancel(intent)
+            else -> alarmManager.setExactAndAllowWhileIdle(
+                android.app.AlarmManager.RTC_WAKEUP, nextSendTime, intent
+            )
+        }
+    }
+
+}
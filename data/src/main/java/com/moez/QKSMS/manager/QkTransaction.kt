@@ -35,6 +35,7 @@
 package com.moez.QKSMS.manager
 
 import android.app.PendingIntent
+import android.content.ContentProviderOperation
 import android.content.ContentResolver
 import android.content.ContentValues
 import android.content.Context
@@ -43,7 +44,6 @@ import android.net.Uri
 import android.os.Bundle
 import android.provider.Telephony
 import android.telephony.SmsManager
-import android.telephony.SmsMessage
 import androidx.core.content.contentValuesOf
 import androidx.core.net.toUri
 import com.android.mms.MmsConfig
@@ -65,9 +65,9 @@ import com.google.android.mms.pdu_alt.PduPersister
 import com.google.android.mms.pdu_alt.SendReq
 import com.google.android.mms.smil.SmilHelper
 import com.google.android.mms.util_alt.SqliteWrapper
+import com.klinker.android.send_message.EncodingPlanner
 import com.klinker.android.send_message.MmsSentReceiver
 import com.klinker.android.send_message.SmsManagerFactory
-import com.klinker.android.send_message.StripAccents
 import com.klinker.android.send_message.Utils
 import timber.log.Timber
 import java.io.ByteArrayOutputStream
@@ -81,23 +81,13 @@ object QkTransaction {
     private const val DEFAULT_EXPIRY_TIME: Long = (7 * 24 * 60 * 60).toLong()
     private const val DEFAULT_PRIORITY: Int = PduHeaders.PRIORITY_NORMAL
 
-    private fun getNumSmsPages(stripUnicode: Boolean, body: String?): Int {
-        var text = body
-        if (stripUnicode) {
-            text = StripAccents.stripAccents(text)
-        }
-
-        val data = SmsMessage.calculateLength(text, false)
-        return data[0]
-    }
-
     private fun checkMMS(
-        body: String?, numToAddresses: Int, numParts: Int, asGroup: Boolean, longAsMms: Boolean,
-        stripUnicode: Boolean
+        plan: EncodingPlanner.Plan, numToAddresses: Int, numParts: Int, asGroup: Boolean,
+        longAsMms: Boolean
     ): Boolean {
         return (numParts > 0) ||
                 ((numToAddresses > 1) && asGroup) ||
-                (longAsMms && getNumSmsPages(stripUnicode, body) > 3)
+                (longAsMms && plan.msgCount > 3)
     }
 
     fun createMessage(
@@ -118,11 +108,14 @@ object QkTransaction {
         if (signature.isNotEmpty())
             text += "\n$signature"
 
-        // strip unicode if flagged to do so
-        if (stripUnicode)
-            text = StripAccents.stripAccents(text)
+        // strip unicode if flagged to do so, and count the segments with the best encoding
+        val plan = EncodingPlanner.plan(text.orEmpty(), stripUnicode)
+        if (plan.isTransliterated) {
+            Timber.v("stripped accents, saving ${plan.savedMsgCount} sms segments")
+            text = plan.text
+        }
 
-        if (checkMMS(text, toAddresses.size, parts.size, asGroup, longAsMms, stripUnicode)) {
+        if (checkMMS(plan, toAddresses.size, parts.size, asGroup, longAsMms)) {
             RateController.init(context)
             DownloadManager.init(context)
 
@@ -208,9 +201,9 @@ object QkTransaction {
         return addresses
     }
 
-    private fun createSmsMessage(
+    private fun getSmsValues(
         context: Context, subscriptionId: Int, body: String?, addresses: Array<String>
-    ): Uri {
+    ): ContentValues {
         val threadId = Utils.getOrCreateThreadId(context, addresses.toSet())
 
         val cal = Calendar.getInstance()
@@ -224,6 +217,14 @@ object QkTransaction {
         values.put(Telephony.Sms.THREAD_ID, threadId)
         values.put(Telephony.Sms.SUBSCRIPTION_ID, subscriptionId)
 
+        return values
+    }
+
+    private fun createSmsMessage(
+        context: Context, subscriptionId: Int, body: String?, addresses: Array<String>
+    ): Uri {
+        val values = getSmsValues(context, subscriptionId, body, addresses)
+
         val messageUri = context.contentResolver.insert(Telephony.Sms.CONTENT_URI, values)
         if (messageUri == null) {
             Timber.e("unable to create sms provider record")
@@ -270,9 +271,19 @@ object QkTransaction {
             return retVal
         }
 
-        // create individual messages
-        for (address in addresses)
-            retVal.add(createSmsMessage(context, subscriptionId, body, arrayOf(address)))
+        // create individual messages, in a single batch rather than a provider call each
+        val operations = addresses.mapTo(ArrayList()) { address ->
+            ContentProviderOperation.newInsert(Telephony.Sms.CONTENT_URI)
+                .withValues(getSmsValues(context, subscriptionId, body, arrayOf(address)))
+                .build()
+        }
+
+        try {
+            context.contentResolver.applyBatch(Telephony.Sms.CONTENT_URI.authority!!, operations)
+                .mapNotNullTo(retVal) { result -> result.uri }
+        } catch (e: Exception) {
+            Timber.e(e, "failed creating provider sms messages")
+        }
 
         return retVal
     }
@@ -498,8 +509,11 @@ object QkTransaction {
             Timber.v("using file name $fileName")
 
             val contentUri = try {
+                // stream the pdu to the file, rather than composing it in memory first
                 FileOutputStream(mSendFile).use {
-                    it.write(PduComposer(context, sendPdu).make())
+                    if (!PduComposer(context, sendPdu).make(it)) {
+                        throw IOException("invalid pdu")
+                    }
                 }
                 (Uri.Builder())
                     .authority(context.packageName + ".MmsFileProvider")
@@ -621,11 +635,14 @@ object QkTransaction {
                     if (index == -1) filename
                     else filename.substring(0, index)
                 ).toByteArray()
-            data = p.Data
+            // stream large attachments from their source when the part is persisted, rather
+            // than holding them in memory
+            if (p.Data != null) data = p.Data
+            else setDataUri(p.Path, p.Length)
         }
 
         pb.addPart(part)
 
-        return part.data.size
+        return p.dataLength.toInt()
     }
 }
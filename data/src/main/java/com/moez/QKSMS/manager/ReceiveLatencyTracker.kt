@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2017 Moez Bhatti <moez.bhatti@gmail.com>
+ *
+ * This file is part of QKSMS.
+ *
+ * QKSMS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * QKSMS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QKSMS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.octoshrimpy.quik.manager
+
+import android.os.SystemClock
+import timber.log.Timber
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Aggregates how long each stage of receiving a message takes, from the broadcast receiver until the badge has been
+ * updated, so that we can tell where slow notifications come from
+ *
+ * The histograms are written to the log every [DUMP_INTERVAL] messages, which ends up in the log file when logging is
+ * enabled in the settings
+ */
+@Singleton
+class ReceiveLatencyTracker @Inject constructor() {
+
+    companion object {
+        private const val DUMP_INTERVAL = 25
+
+        // Upper bounds of the histogram buckets, in milliseconds. Anything larger goes into an overflow bucket
+        private val BUCKETS = longArrayOf(10, 25, 50, 100, 250, 500, 1_000, 2_500, 5_000, 10_000)
+    }
+
+    enum class Stage(val label: String) {
+        SCHEDULED("worker scheduling"),
+        LOADED("message load"),
+        BLOCKING("blocking decision"),
+        REALM("realm commit"),
+        NOTIFICATION("notification post"),
+        BADGE("badge update")
+    }
+
+    /**
+     * The timestamps for a single message. [receivedAt] should be the [SystemClock.elapsedRealtime] at which the
+     * message was handed to us by the system. If it's unknown, we measure from the creation of the trace instead
+     */
+    class Trace(receivedAt: Long) {
+
+        private val receivedAt = receivedAt.takeIf { it > 0 } ?: SystemClock.elapsedRealtime()
+
+        private val marks = LongArray(Stage.values().size) { -1 }
+
+        fun mark(stage: Stage) {
+            marks[stage.ordinal] = SystemClock.elapsedRealtime()
+        }
+
+        /**
+         * Returns the duration of each stage that was marked, measured from the end of the previous marked stage
+         */
+        fun getDurations(): Map<Stage, Long> {
+            var previous = receivedAt
+            return Stage.values()
+                    .filter { stage -> marks[stage.ordinal] >= 0 }
+                    .associateWith { stage ->
+                        val duration = marks[stage.ordinal] - previous
+                        previous = marks[stage.ordinal]
+                        duration
+                    }
+        }
+
+        fun getTotal(): Long = (marks.maxOrNull() ?: receivedAt) - receivedAt
+
+    }
+
+    private class Histogram {
+        val counts = IntArray(BUCKETS.size + 1)
+        var count = 0
+        var sum = 0L
+        var max = 0L
+
+        fun add(value: Long) {
+            val bucket = BUCKETS.indexOfFirst { bound -> value < bound }.takeIf { it >= 0 } ?: BUCKETS.size
+            counts[bucket]++
+            count++
+            sum += value
+            max = maxOf(max, value)
+        }
+
+        override fun toString(): String {
+            val buckets = counts.indices
+                    .filter { bucket -> counts[bucket] > 0 }
+                    .joinToString(" ") { bucket ->
+                        val label = BUCKETS.getOrNull(bucket)?.let { bound -> "<$bound" } ?: ">=${BUCKETS.last()}"
+                        "$label:${counts[bucket]}"
+                    }
+            return "n=$count avg=${if (count > 0) sum / count else 0}ms max=${max}ms [$buckets]"
+        }
+    }
+
+    private val histograms = Stage.values().associateWith { Histogram() }
+    private val total = Histogram()
+    private var recorded = 0
+
+    @Synchronized
+    fun record(trace: Trace) {
+        val durations = trace.getDurations()
+        durations.forEach { (stage, duration) -> histograms.getValue(stage).add(duration) }
+        total.add(trace.getTotal())
+
+        Timber.v("receive latency: ${durations.entries.joinToString { (stage, duration) -> "${stage.label}=${duration}ms" }}")
+
+        if (++recorded % DUMP_INTERVAL == 0) {
+            Timber.i(dump())
+        }
+    }
+
+    @Synchronized
+    fun dump(): String {
+        return (histograms.map { (stage, histogram) -> "${stage.label}: $histogram" } + "total: $total")
+                .joinToString("\n", prefix = "receive latency histograms\n")
+    }
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2017 Moez Bhatti <moez.bhatti@gmail.com>
+ *
+ * This file is part of QKSMS.
+ *
+ * QKSMS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * QKSMS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QKSMS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.octoshrimpy.quik.manager
+
+import android.os.SystemClock
+import dev.octoshrimpy.quik.interactor.UpdateBadge
+import timber.log.Timber
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Coalesces the side effects of receiving a message (notification, shortcuts, badge and widget) so that a burst of
+ * incoming messages, ie. from a busy group chat, only refreshes each affected thread once per [WINDOW_MS]
+ *
+ * The first message after a quiet period is handled immediately. Messages received within the following window are
+ * collected into a batch, and each receive worker waits out the window from its own message. Only the worker whose
+ * message was the last to arrive performs the side effects for the whole batch, the others return as soon as their
+ * wait is over. Everything happens in the expedited receive workers, so the notification is never deferred
+ */
+@Singleton
+class ReceivedMessageCoalescer @Inject constructor(
+    private val notificationManager: NotificationManager,
+    private val shortcutManager: ShortcutManager,
+    private val updateBadge: UpdateBadge,
+    private val latencyTracker: ReceiveLatencyTracker
+) {
+
+    companion object {
+        private const val WINDOW_MS = 750L
+
+        // Upper bound on how long a batch is held back while messages keep arriving
+        private const val MAX_WAIT_MS = 5_000L
+    }
+
+    private class Batch(val started: Long) {
+        val threadIds = LinkedHashSet<Long>()
+        val traces = ArrayList<ReceiveLatencyTracker.Trace>()
+        var latest = 0
+    }
+
+    private var batch: Batch? = null
+    private var lastFlush = 0L
+
+    /**
+     * Performs the side effects for a message received in [threadId], either right away or together with the other
+     * messages received in the same burst. Blocks the calling worker for at most [WINDOW_MS]
+     *
+     * If a [trace] is given, the notification and badge stages are marked on it, and it's recorded once the badge
+     * has been updated
+     */
+    fun onMessageReceived(threadId: Long, trace: ReceiveLatencyTracker.Trace? = null) {
+        val now = SystemClock.elapsedRealtime()
+        val (batch, position, delay) = synchronized(this) {
+            val batch = batch ?: Batch(now).also { newBatch -> batch = newBatch }
+            batch.threadIds += threadId
+            trace?.let(batch.traces::add)
+
+            val delay = when {
+                now - lastFlush >= WINDOW_MS -> 0L
+                else -> WINDOW_MS.coerceAtMost(batch.started + MAX_WAIT_MS - now).coerceAtLeast(0)
+            }
+            Triple(batch, ++batch.latest, delay)
+        }
+
+        if (delay > 0) {
+            SystemClock.sleep(delay)
+        }
+
+        synchronized(this) {
+            // a later message will flush the batch once its own window is up, unless the batch has waited long enough
+            val superseded = position != batch.latest
+                    && SystemClock.elapsedRealtime() - batch.started < MAX_WAIT_MS
+            if (this.batch !== batch || superseded) {
+                return
+            }
+
+            this.batch = null
+            lastFlush = SystemClock.elapsedRealtime()
+        }
+
+        flush(batch)
+    }
+
+    private fun flush(batch: Batch) {
+        val threadIds = batch.threadIds.toList()
+        val traces = batch.traces.toList()
+
+        try {
+            Timber.v("update/create notifications for ${threadIds.size} threads")
+            threadIds.forEach(notificationManager::update)
+            traces.forEach { trace -> trace.mark(ReceiveLatencyTracker.Stage.NOTIFICATION) }
+
+            Timber.v("update shortcuts")
+            shortcutManager.updateShortcuts()
+            threadIds.forEach(shortcutManager::reportShortcutUsed)
+
+            Timber.v("update badge and widget")
+            updateBadge.execute(Unit) {
+                traces.forEach { trace ->
+                    trace.mark(ReceiveLatencyTracker.Stage.BADGE)
+                    latencyTracker.record(trace)
+                }
+            }
+        } catch (e: Exception) {
+            Timber.w(e)
+        }
+    }
+
+}
@@ -25,7 +25,6 @@ import android.provider.Telephony.MmsSms
 import android.provider.Telephony.Sms
 import com.google.android.mms.pdu_alt.EncodedStringValue
 import com.google.android.mms.pdu_alt.PduHeaders
-import com.google.android.mms.pdu_alt.PduPersister
 import dev.octoshrimpy.quik.manager.KeyManager
 import dev.octoshrimpy.quik.manager.PermissionManager
 import dev.octoshrimpy.quik.model.Message
@@ -122,8 +121,7 @@ class CursorToMessageImpl @Inject constructor(
                     val subjectCharset = cursor.getInt(columnsMap.mmsSubjectCharset)
                     subject = cursor.getString(columnsMap.mmsSubject)
                             ?.takeIf { it.isNotBlank() }
-                            ?.let(PduPersister::getBytes)
-                            ?.let { EncodedStringValue(subjectCharset, it).string } ?: ""
+                            ?.let { EncodedStringValue.decodeIsoString(subjectCharset, it) } ?: ""
                     textContentType = ""
                     attachmentType = Message.AttachmentType.NOT_LOADED
                 }
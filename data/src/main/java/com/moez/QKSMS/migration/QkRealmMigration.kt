@@ -19,6 +19,7 @@
 package dev.octoshrimpy.quik.migration
 
 import android.annotation.SuppressLint
+import android.provider.Telephony
 import dev.octoshrimpy.quik.extensions.map
 import dev.octoshrimpy.quik.mapper.CursorToContactImpl
 import dev.octoshrimpy.quik.util.Preferences
@@ -37,7 +38,7 @@ class QkRealmMigration @Inject constructor(
 ) : RealmMigration {
 
     companion object {
-        const val SCHEMA_VERSION: Long = 15
+        const val SCHEMA_VERSION: Long = 16
     }
 
     @SuppressLint("ApplySharedPref")
@@ -300,6 +301,32 @@ class QkRealmMigration @Inject constructor(
             version ++
         }
 
+        if (version == 15L) {
+            realm.schema.create("QueuedMessage")
+                .addField("messageId", Long::class.java, FieldAttribute.PRIMARY_KEY, FieldAttribute.REQUIRED)
+                .addField("sendTime", Long::class.java, FieldAttribute.INDEXED, FieldAttribute.REQUIRED)
+                .addField("attempts", Int::class.java, FieldAttribute.REQUIRED)
+                .addField("sending", Boolean::class.java, FieldAttribute.REQUIRED)
+
+            // delayed messages used to get an alarm each, which now only wakes up the queue, so
+            // queue whatever is still waiting for its delay to be up
+            realm.where("Message")
+                .greaterThan("date", System.currentTimeMillis())
+                .findAll()
+                .filter { message ->
+                    when (message.getString("type")) {
+                        "sms" -> message.getInt("boxId") == Telephony.Sms.MESSAGE_TYPE_OUTBOX
+                        else -> message.getInt("boxId") == Telephony.Mms.MESSAGE_BOX_OUTBOX
+                    }
+                }
+                .forEach { message ->
+                    realm.createObject("QueuedMessage", message.getLong("id"))
+                        .setLong("sendTime", message.getLong("date"))
+                }
+
+            version++
+        }
+
         check(version >= SCHEMA_VERSION) {
             "Migration from v$oldVersion to v$newVersion failed at v$version"
         }
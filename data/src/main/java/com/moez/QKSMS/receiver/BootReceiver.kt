@@ -22,18 +22,24 @@ import android.content.BroadcastReceiver
 import android.content.Context
 import android.content.Intent
 import dagger.android.AndroidInjection
+import dev.octoshrimpy.quik.interactor.SendQueuedMessages
 import dev.octoshrimpy.quik.interactor.UpdateScheduledMessageAlarms
 import javax.inject.Inject
 
 class BootReceiver : BroadcastReceiver() {
 
+    @Inject lateinit var sendQueuedMessages: SendQueuedMessages
     @Inject lateinit var updateScheduledMessageAlarms: UpdateScheduledMessageAlarms
 
     override fun onReceive(context: Context, intent: Intent?) {
         AndroidInjection.inject(this, context)
 
         val result = goAsync()
-        updateScheduledMessageAlarms.execute(Unit) { result.finish() }
+        updateScheduledMessageAlarms.execute(Unit) {
+            // alarms don't survive a restart, so send anything that came due while we were off,
+            // which also sets the alarm for the rest of the queue
+            sendQueuedMessages.execute(Unit) { result.finish() }
+        }
     }
 
 }
\ No newline at end of file
@@ -39,6 +39,7 @@ import android.content.Context
 import android.content.Intent
 import android.net.Uri
 import android.os.Parcelable
+import android.os.SystemClock
 import android.telephony.SmsManager
 import androidx.work.OneTimeWorkRequestBuilder
 import androidx.work.OutOfQuotaPolicy
@@ -54,6 +55,7 @@ import dev.octoshrimpy.quik.worker.ReceiveMmsWorker.Companion.INPUT_DATA_EXTRA_F
 import dev.octoshrimpy.quik.worker.ReceiveMmsWorker.Companion.INPUT_DATA_EXTRA_LOCATION_URL
 import dev.octoshrimpy.quik.worker.ReceiveMmsWorker.Companion.INPUT_DATA_EXTRA_MMS_HTTP_STATUS
 import dev.octoshrimpy.quik.worker.ReceiveMmsWorker.Companion.INPUT_DATA_EXTRA_URI
+import dev.octoshrimpy.quik.worker.ReceiveMmsWorker.Companion.INPUT_DATA_RECEIVED_AT
 import dev.octoshrimpy.quik.worker.ReceiveMmsWorker.Companion.INPUT_DATA_SUBSCRIPTION_ID
 import timber.log.Timber
 
@@ -77,7 +79,8 @@ class MmsReceivedReceiver : BroadcastReceiver() {
                             0
                         ),
                         INPUT_DATA_EXTRA_URI to
-                                (intent.getParcelableExtra<Parcelable>(EXTRA_URI) as Uri?)?.toString()
+                                (intent.getParcelableExtra<Parcelable>(EXTRA_URI) as Uri?)?.toString(),
+                        INPUT_DATA_RECEIVED_AT to SystemClock.elapsedRealtime()
                     )
                 )
                 .setExpedited(OutOfQuotaPolicy.RUN_AS_NON_EXPEDITED_WORK_REQUEST)
@@ -22,30 +22,27 @@ import android.content.BroadcastReceiver
 import android.content.Context
 import android.content.Intent
 import dagger.android.AndroidInjection
-import dev.octoshrimpy.quik.interactor.ActionDelayedMessage
+import dev.octoshrimpy.quik.interactor.SendQueuedMessages
 import timber.log.Timber
 import javax.inject.Inject
 
+/**
+ * Woken by the outbound queue's alarm, when the next delayed message or retry is due
+ *
+ * Alarms set for a single delayed message before the queue existed still land here, and send
+ * that message along with whatever else is due, since the migration queued it
+ */
 class SendDelayedMessageReceiver : BroadcastReceiver() {
-    companion object {
-        const val MESSAGE_ID_EXTRA = "messageId"
-    }
 
-    @Inject lateinit var actionDelayedMessage: ActionDelayedMessage
+    @Inject lateinit var sendQueuedMessages: SendQueuedMessages
 
     override fun onReceive(context: Context, intent: Intent) {
         AndroidInjection.inject(this, context)
 
         Timber.v("received")
 
-        intent.extras?.getLong(MESSAGE_ID_EXTRA)?.takeIf { it > 0 }
-            ?.let { messageId ->
-                val result = goAsync()
-                actionDelayedMessage.execute(
-                    ActionDelayedMessage.Params(messageId, ActionDelayedMessage.Action.Send)
-                ) { result.finish() }
-
-            }
+        val result = goAsync()
+        sendQueuedMessages.execute(Unit) { result.finish() }
     }
 
 }
@@ -21,6 +21,7 @@ package dev.octoshrimpy.quik.receiver
 import android.content.BroadcastReceiver
 import android.content.Context
 import android.content.Intent
+import android.os.SystemClock
 import android.provider.Telephony.Sms
 import androidx.work.OneTimeWorkRequestBuilder
 import androidx.work.OutOfQuotaPolicy
@@ -30,6 +31,7 @@ import dagger.android.AndroidInjection
 import dev.octoshrimpy.quik.repository.MessageRepository
 import dev.octoshrimpy.quik.worker.ReceiveSmsWorker
 import dev.octoshrimpy.quik.worker.ReceiveSmsWorker.Companion.INPUT_DATA_KEY_MESSAGE_ID
+import dev.octoshrimpy.quik.worker.ReceiveSmsWorker.Companion.INPUT_DATA_KEY_RECEIVED_AT
 import io.reactivex.Single
 import io.reactivex.schedulers.Schedulers
 import timber.log.Timber
@@ -39,6 +41,7 @@ class SmsReceivedReceiver : BroadcastReceiver() {
     @Inject lateinit var messageRepo: MessageRepository
 
     override fun onReceive(context: Context, intent: Intent) {
+        val receivedAt = SystemClock.elapsedRealtime()
         AndroidInjection.inject(this, context)
 
         Sms.Intents.getMessagesFromIntent(intent)?.let { messages ->
@@ -60,7 +63,10 @@ class SmsReceivedReceiver : BroadcastReceiver() {
             // start worker with message id as param
             WorkManager.getInstance(context).enqueue(
                 OneTimeWorkRequestBuilder<ReceiveSmsWorker>()
-                    .setInputData(workDataOf(INPUT_DATA_KEY_MESSAGE_ID to messageId))
+                    .setInputData(workDataOf(
+                        INPUT_DATA_KEY_MESSAGE_ID to messageId,
+                        INPUT_DATA_KEY_RECEIVED_AT to receivedAt
+                    ))
                     .setExpedited(OutOfQuotaPolicy.RUN_AS_NON_EXPEDITED_WORK_REQUEST)
                     .build()
             )
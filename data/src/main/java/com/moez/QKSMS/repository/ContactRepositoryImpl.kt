@@ -29,6 +29,7 @@ import dev.octoshrimpy.quik.extensions.asObservable
 import dev.octoshrimpy.quik.extensions.mapNotNull
 import dev.octoshrimpy.quik.model.Contact
 import dev.octoshrimpy.quik.model.ContactGroup
+import dev.octoshrimpy.quik.util.ContactMembershipIndex
 import dev.octoshrimpy.quik.util.Preferences
 import io.reactivex.Flowable
 import io.reactivex.Observable
@@ -43,6 +44,7 @@ import javax.inject.Singleton
 @Singleton
 class ContactRepositoryImpl @Inject constructor(
     private val context: Context,
+    private val contactIndex: ContactMembershipIndex,
     private val prefs: Preferences
 ) : ContactRepository {
 
@@ -171,13 +173,18 @@ class ContactRepositoryImpl @Inject constructor(
     }
 
     override fun isContact(address: String): Boolean {
-        val uri : Uri
-        if (address.contains('@')) {
-            uri = Uri.withAppendedPath(Email.CONTENT_FILTER_URI, Uri.encode(address))
-        } else {
-            uri = Uri.withAppendedPath(ContactsContract.PhoneLookup.CONTENT_FILTER_URI, Uri.encode(address))
+        return contactIndex.contains(address) ?: queryIsContact(address)
+    }
+
+    private fun queryIsContact(address: String): Boolean {
+        val uri = when {
+            address.contains('@') -> Uri.withAppendedPath(Email.CONTENT_FILTER_URI, Uri.encode(address))
+            else -> Uri.withAppendedPath(ContactsContract.PhoneLookup.CONTENT_FILTER_URI, Uri.encode(address))
         }
-        return context.contentResolver.query(uri, arrayOf(BaseColumns._ID), null, null, null)?.count!! > 0
+
+        return context.contentResolver.query(uri, arrayOf(BaseColumns._ID), null, null, null)
+                ?.use { cursor -> cursor.count > 0 }
+                ?: false
     }
 
 }
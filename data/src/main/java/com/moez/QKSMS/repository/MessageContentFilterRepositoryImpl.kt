@@ -18,13 +18,22 @@
  */
 package dev.octoshrimpy.quik.repository
 
+import dev.octoshrimpy.quik.blocking.MessageContentFilterEngine
 import dev.octoshrimpy.quik.model.MessageContentFilter
 import dev.octoshrimpy.quik.model.MessageContentFilterData
 import io.realm.Realm
 import io.realm.RealmResults
 import javax.inject.Inject
+import javax.inject.Singleton
 
+@Singleton
 class MessageContentFilterRepositoryImpl @Inject constructor() : MessageContentFilterRepository {
+
+    /**
+     * The compiled filters, or null if they need to be rebuilt because the filters have changed
+     */
+    @Volatile private var engine: MessageContentFilterEngine? = null
+
     override fun createFilter(data: MessageContentFilterData) {
         Realm.getDefaultInstance().use { realm ->
             realm.refresh()
@@ -35,6 +44,8 @@ class MessageContentFilterRepositoryImpl @Inject constructor() : MessageContentF
                 realm.insert(MessageContentFilter(maxId + 1, data.value, data.caseSensitive, data.isRegex, data.includeContacts))
             }
         }
+
+        invalidateEngine()
     }
 
     override fun getMessageContentFilters(): RealmResults<MessageContentFilter> {
@@ -51,25 +62,8 @@ class MessageContentFilterRepositoryImpl @Inject constructor() : MessageContentF
     }
 
     override fun isBlocked(messageBody: String, address: String, contactsRepo: ContactRepository): Boolean {
-        val isContact = contactsRepo.isContact(address)
-
-        return Realm.getDefaultInstance().use { realm ->
-            realm.where(MessageContentFilter::class.java)
-                .findAll()
-                .any { filter ->
-                    if (isContact && !filter.includeContacts) {
-                        false
-                    } else if (filter.isRegex) {
-                        Regex(filter.value).matches(messageBody)
-                    } else if (filter.caseSensitive) {
-                        val regexp = "[\\s\\S]*\\b" + Regex.escape(filter.value) + "\\b[\\s\\S]*"
-                        Regex(regexp).matches(messageBody)
-                    } else {
-                        val regexp = "[\\s\\S]*\\b" + Regex.escape(filter.value.lowercase()) + "\\b[\\s\\S]*"
-                        Regex(regexp).matches(messageBody.lowercase())
-                    }
-                }
-        }
+        // The contact lookup is only done if a filter that excludes contacts would otherwise match
+        return getEngine().matches(messageBody) { contactsRepo.isContact(address) }
     }
 
     override fun removeFilter(id: Long) {
@@ -81,6 +75,33 @@ class MessageContentFilterRepositoryImpl @Inject constructor() : MessageContentF
                     .deleteAllFromRealm()
             }
         }
+
+        invalidateEngine()
+    }
+
+    private fun getEngine(): MessageContentFilterEngine {
+        return engine ?: buildEngine()
+    }
+
+    @Synchronized
+    private fun buildEngine(): MessageContentFilterEngine {
+        engine?.let { return it }
+
+        val filters = Realm.getDefaultInstance().use { realm ->
+            realm.refresh()
+            realm.where(MessageContentFilter::class.java)
+                .findAll()
+                .map { filter ->
+                    MessageContentFilterData(filter.value, filter.caseSensitive, filter.isRegex, filter.includeContacts)
+                }
+        }
+
+        return MessageContentFilterEngine(filters).also { engine = it }
+    }
+
+    @Synchronized
+    private fun invalidateEngine() {
+        engine = null
     }
 
 }
@@ -19,12 +19,9 @@
 package dev.octoshrimpy.quik.repository
 
 import com.moez.QKSMS.manager.QkTransaction
-import android.app.AlarmManager
-import android.app.PendingIntent
 import android.content.ContentUris
 import android.content.Context
 import android.content.Intent
-import android.graphics.BitmapFactory
 import android.net.Uri
 import android.os.Build
 import android.os.Environment
@@ -37,6 +34,7 @@ import android.webkit.MimeTypeMap
 import androidx.core.content.contentValuesOf
 import com.google.android.mms.ContentType
 import com.klinker.android.send_message.SmsManagerFactory
+import dev.octoshrimpy.quik.blocking.BlockingClient
 import dev.octoshrimpy.quik.common.util.extensions.now
 import dev.octoshrimpy.quik.compat.TelephonyCompat
 import dev.octoshrimpy.quik.extensions.anyOf
@@ -46,7 +44,9 @@ import dev.octoshrimpy.quik.extensions.isVideo
 import dev.octoshrimpy.quik.extensions.map
 import dev.octoshrimpy.quik.extensions.resourceExists
 import dev.octoshrimpy.quik.manager.ActiveConversationManager
+import dev.octoshrimpy.quik.manager.BulkMessageSender
 import dev.octoshrimpy.quik.manager.KeyManager
+import dev.octoshrimpy.quik.manager.OutboundQueue
 import dev.octoshrimpy.quik.mapper.CursorToMessage
 import dev.octoshrimpy.quik.mapper.CursorToPart
 import dev.octoshrimpy.quik.model.Attachment
@@ -57,14 +57,13 @@ import dev.octoshrimpy.quik.model.Message.Companion.TYPE_SMS
 import dev.octoshrimpy.quik.model.MmsPart
 import dev.octoshrimpy.quik.receiver.MessageDeliveredReceiver
 import dev.octoshrimpy.quik.receiver.MessageSentReceiver
-import dev.octoshrimpy.quik.receiver.SendDelayedMessageReceiver
-import dev.octoshrimpy.quik.receiver.SendDelayedMessageReceiver.Companion.MESSAGE_ID_EXTRA
-import dev.octoshrimpy.quik.util.ImageUtils
+import dev.octoshrimpy.quik.util.ImageCompressor
 import dev.octoshrimpy.quik.util.PhoneNumberUtils
 import dev.octoshrimpy.quik.util.Preferences
 import dev.octoshrimpy.quik.util.sha256
 import dev.octoshrimpy.quik.util.tryOrNull
 import io.reactivex.Flowable
+import io.reactivex.Observable
 import io.reactivex.subjects.BehaviorSubject
 import io.reactivex.subjects.Subject
 import io.realm.Case
@@ -76,12 +75,12 @@ import timber.log.Timber
 import java.util.concurrent.TimeUnit
 import javax.inject.Inject
 import javax.inject.Singleton
-import kotlin.math.sqrt
 
 @Singleton
 open class MessageRepositoryImpl @Inject constructor(
     private val activeConversationManager: ActiveConversationManager,
     private val context: Context,
+    private val conversationRepo: ConversationRepository,
     private val messageIds: KeyManager,
     private val phoneNumberUtils: PhoneNumberUtils,
     private val prefs: Preferences,
@@ -89,13 +88,23 @@ open class MessageRepositoryImpl @Inject constructor(
     private val reactions: EmojiReactionRepository,
     private val cursorToMessage: CursorToMessage,
     private val cursorToPart: CursorToPart,
+    private val imageCompressor: ImageCompressor,
+    private val bulkSender: BulkMessageSender,
+    private val outboundQueue: OutboundQueue,
 ) : MessageRepository {
 
     override val deduplicationProgress: Subject<MessageRepository.DeduplicationProgress> =
         BehaviorSubject.createDefault(MessageRepository.DeduplicationProgress.Idle)
 
+    override val bulkSendProgress: Observable<MessageRepository.BulkSendProgress>
+        get() = bulkSender.progress
+
     companion object {
         const val TELEPHONY_UPDATE_CHUNK_SIZE = 200
+
+        // How long the outbound queue waits after the bulk sender last made progress, before it
+        // sends the individual messages that haven't been sent, ie. because the process was killed
+        private val BULK_SEND_RECOVERY_MS = TimeUnit.MINUTES.toMillis(1)
     }
 
     private fun getMessagesBase(threadId: Long, query: String) =
@@ -403,6 +412,39 @@ open class MessageRepositoryImpl @Inject constructor(
             }
             ?: 0
 
+    /**
+     * Syncs the messages created by exploding a message. The sms ones are read from the provider
+     * in chunks, and saved to realm in a single transaction, rather than one at a time
+     */
+    private fun syncProviderMessages(uris: Collection<Uri>, sendAsGroup: Boolean): List<Message> {
+        val (smsUris, otherUris) = uris.partition { uri -> uri.toString().contains(TYPE_SMS) }
+
+        val smsMessages = smsUris
+            .mapNotNull { uri -> tryOrNull(false) { ContentUris.parseId(uri) } }
+            .chunked(TELEPHONY_UPDATE_CHUNK_SIZE)
+            .flatMap { contentIds ->
+                context.contentResolver.query(
+                    Sms.CONTENT_URI, null,
+                    "${Sms._ID} in (${contentIds.joinToString(",")})", null, null
+                )?.use { cursor ->
+                    val columns = CursorToMessage.MessageColumns(cursor)
+                    cursor.map { cursorToMessage.map(Pair(it, columns)) }
+                }.orEmpty()
+            }
+            .onEach { message -> message.sendAsGroup = sendAsGroup }
+
+        smsMessages.insertOrUpdate()
+
+        if (smsMessages.size < smsUris.size) {
+            Timber.e("sync failed for ${smsUris.size - smsMessages.size} of ${smsUris.size} sms uris")
+        }
+
+        return smsMessages + otherUris.mapNotNull { uri ->
+            syncProviderMessage(uri, sendAsGroup)
+                ?: null.also { Timber.e("sync failed for uri $uri") }
+        }
+    }
+
     private fun syncProviderMessage(uri: Uri, sendAsGroup: Boolean): Message? {
         // if uri doesn't have valid type
         val type = when {
@@ -444,6 +486,60 @@ open class MessageRepositoryImpl @Inject constructor(
         }
     }
 
+    private class MmsLimits(val maxWidth: Int, val maxHeight: Int, val maxBytes: Double)
+
+    private fun getMmsLimits(subId: Int): MmsLimits {
+        val smsManager = subId.takeIf { it != -1 }
+            ?.let(SmsManagerFactory::createSmsManager)
+            ?: SmsManager.getDefault()
+
+        val maxWidth = smsManager.carrierConfigValues
+            .getInt(SmsManager.MMS_CONFIG_MAX_IMAGE_WIDTH)
+            .takeIf { prefs.mmsSize.get() == -1 }
+            ?: Int.MAX_VALUE
+
+        val maxHeight = smsManager.carrierConfigValues
+            .getInt(SmsManager.MMS_CONFIG_MAX_IMAGE_HEIGHT)
+            .takeIf { prefs.mmsSize.get() == -1 }
+            ?: Int.MAX_VALUE
+
+        val maxBytes = when (prefs.mmsSize.get()) {
+            -1 -> smsManager.carrierConfigValues.getInt(SmsManager.MMS_CONFIG_MAX_MESSAGE_SIZE)
+            0 -> Int.MAX_VALUE
+            else -> prefs.mmsSize.get() * 1024
+        } * 0.9 // Ugly, but buys us a bit of wiggle room
+
+        return MmsLimits(maxWidth, maxHeight, maxBytes)
+    }
+
+    override fun compressAttachments(subId: Int, attachments: Collection<Attachment>) {
+        val (images, others) = attachments
+            .filter { it.uri.resourceExists(context) }
+            .partition { it.isImage(context) }
+
+        if (images.isEmpty()) return
+
+        // Leave room for the other attachments the same way sending does. We don't know the
+        // text yet, but anything compressed for a slightly larger budget is reused if it fits
+        val limits = getMmsLimits(subId)
+        val remainingBytes = limits.maxBytes - others.sumOf { it.getSize(context).coerceAtLeast(0) }
+
+        try {
+            imageCompressor.compress(
+                images.map { ImageCompressor.Image(it.uri, it.getType(context) == "image/gif") },
+                limits.maxWidth, limits.maxHeight, remainingBytes
+            )
+        } catch (e: InterruptedException) {
+            // The attachments changed, the work that's still needed carries on in the background
+        } catch (e: Exception) {
+            Timber.w(e, "failed to compress attachments ahead of time")
+        }
+    }
+
+    override fun cancelAttachmentCompression(attachment: Attachment) {
+        imageCompressor.cancel(attachment.uri)
+    }
+
     override fun sendNewMessages(
         subId: Int, toAddresses: Collection<String>, body: String,
         attachments: Collection<Attachment>, sendAsGroup: Boolean, delayMs: Int
@@ -454,25 +550,8 @@ open class MessageRepositoryImpl @Inject constructor(
 
         if (attachments.isNotEmpty()) {
             Timber.v("has attachments")
-            val smsManager = subId.takeIf { it != -1 }
-                ?.let(SmsManagerFactory::createSmsManager)
-                ?: SmsManager.getDefault()
-
-            val maxWidth = smsManager.carrierConfigValues
-                .getInt(SmsManager.MMS_CONFIG_MAX_IMAGE_WIDTH)
-                .takeIf { prefs.mmsSize.get() == -1 }
-                ?: Int.MAX_VALUE
-
-            val maxHeight = smsManager.carrierConfigValues
-                .getInt(SmsManager.MMS_CONFIG_MAX_IMAGE_HEIGHT)
-                .takeIf { prefs.mmsSize.get() == -1 }
-                ?: Int.MAX_VALUE
-
-            var remainingBytes = when (prefs.mmsSize.get()) {
-                -1 -> smsManager.carrierConfigValues.getInt(SmsManager.MMS_CONFIG_MAX_MESSAGE_SIZE)
-                0 -> Int.MAX_VALUE
-                else -> prefs.mmsSize.get() * 1024
-            } * 0.9 // Ugly, but buys us a bit of wiggle room
+            val limits = getMmsLimits(subId)
+            var remainingBytes = limits.maxBytes
 
             remainingBytes -= body.takeIf { it.isNotEmpty() }?.toByteArray()?.size ?: 0
 
@@ -483,12 +562,22 @@ open class MessageRepositoryImpl @Inject constructor(
                 // filter in only items that exist (user may have deleted the file)
                 .filter { it.uri.resourceExists(context) }
                 .map {
-                    remainingBytes -= it.getResourceBytes(context).size
+                    val size = it.getSize(context)
                     val part = com.google.android.mms.MMSPart().apply {
                         MimeType = it.getType(context)
                         Name = it.getName(context)
-                        Data = it.getResourceBytes(context)
+
+                        // if we know how big it is, stream it into the part rather than
+                        // reading it into memory. Text is stored inline by the provider, and
+                        // some sources (ie. vcards) can't tell us their size, so read those
+                        if (size > 0 && !MimeType.startsWith("text/")) {
+                            Path = it.uri
+                            Length = size
+                        } else {
+                            Data = it.getResourceBytes(context)
+                        }
                     }
+                    remainingBytes -= part.dataLength
 
                     // release the attachment hold on the image bytes so the GC can reclaim
                     it.releaseResourceBytes()
@@ -496,91 +585,23 @@ open class MessageRepositoryImpl @Inject constructor(
                     part
                 }
 
-            val imageBytesByAttachment = attachments
+            val images = attachments
                 // filter in images only
                 .filter { it.isImage(context) }
                 // filter in only items that exist (user may have deleted the file)
                 .filter { it.uri.resourceExists(context) }
-                .associateWith {
-                    when (it.getType(context) == "image/gif") {
-                        true -> ImageUtils.getScaledGif(context, it.uri, maxWidth, maxHeight)
-                        false -> ImageUtils.getScaledImage(context, it.uri, maxWidth, maxHeight)
-                    }
-                }
-                .toMutableMap()
-
-            val imageByteCount = imageBytesByAttachment.values.sumOf { it.size }
-            if (imageByteCount > remainingBytes) {
-                imageBytesByAttachment.forEach { (attachment, originalBytes) ->
-                    val uri = attachment.uri
-                    val maxBytes = originalBytes.size / imageByteCount.toFloat() * remainingBytes
-
-                    // Get the image dimensions
-                    val options = BitmapFactory.Options().apply { inJustDecodeBounds = true }
-                    BitmapFactory.decodeStream(
-                        context.contentResolver.openInputStream(uri),
-                        null,
-                        options
-                    )
-                    val width = options.outWidth
-                    val height = options.outHeight
-                    val aspectRatio = width.toFloat() / height.toFloat()
-
-                    var attempts = 0
-                    var scaledBytes = originalBytes
-
-                    while (scaledBytes.size > maxBytes) {
-                        // Estimate how much we need to scale the image down by. If it's still
-                        // too big, we'll need to try smaller and smaller values
-                        val scale = maxBytes / originalBytes.size * (0.9 - attempts * 0.2)
-                        if (scale <= 0) {
-                            Timber.w(
-                                "Failed to compress ${
-                                    originalBytes.size / 1024
-                                }Kb to ${maxBytes.toInt() / 1024}Kb"
-                            )
-                            return@forEach
-                        }
-
-                        val newArea = scale * width * height
-                        val newWidth = sqrt(newArea * aspectRatio).toInt()
-                        val newHeight = (newWidth / aspectRatio).toInt()
-
-                        attempts++
-                        scaledBytes = when (attachment.getType(context) == "image/gif") {
-                            true -> ImageUtils.getScaledGif(
-                                context, attachment.uri, newWidth, newHeight
-                            )
-
-                            false -> ImageUtils.getScaledImage(
-                                context, attachment.uri, newWidth, newHeight
-                            )
-                        }
-
-                        Timber.d(
-                            "Compression attempt $attempts: ${
-                                scaledBytes.size / 1024
-                            }/${maxBytes.toInt() / 1024}Kb ($width*$height -> $newWidth*${
-                                newHeight
-                            })"
-                        )
 
-                        // release the attachment hold on the image bytes so the GC can reclaim
-                        attachment.releaseResourceBytes()
-                    }
-
-                    Timber.v(
-                        "Compressed ${originalBytes.size / 1024}Kb to ${
-                            scaledBytes.size / 1024
-                        }Kb with a target size of ${
-                            maxBytes.toInt() / 1024
-                        }Kb in $attempts attempts"
-                    )
-                    imageBytesByAttachment[attachment] = scaledBytes
-                }
+            val imageBytes = try {
+                imageCompressor.compress(
+                    images.map { ImageCompressor.Image(it.uri, it.getType(context) == "image/gif") },
+                    limits.maxWidth, limits.maxHeight, remainingBytes
+                )
+            } finally {
+                // the compressed images won't be needed again once they're in the parts
+                images.forEach { imageCompressor.cancel(it.uri) }
             }
 
-            imageBytesByAttachment.forEach { (attachment, bytes) ->
+            images.zip(imageBytes).forEach { (attachment, bytes) ->
                 parts += com.google.android.mms.MMSPart().apply {
                     MimeType =
                         if (attachment.getType(context) == "image/gif") ContentType.IMAGE_GIF
@@ -588,6 +609,9 @@ open class MessageRepositoryImpl @Inject constructor(
                     Name = attachment.getName(context)
                     Data = bytes
                 }
+
+                // release the attachment hold on the image bytes so the GC can reclaim
+                attachment.releaseResourceBytes()
             }
         }
 
@@ -624,11 +648,8 @@ open class MessageRepositoryImpl @Inject constructor(
                 }
             }
 
-            // create alarm that will trigger sending the message
-            (context.getSystemService(Context.ALARM_SERVICE) as AlarmManager)
-                .setExactAndAllowWhileIdle(
-                    AlarmManager.RTC_WAKEUP, sendTime, getIntentForDelayedSms(message.id)
-                )
+            // queue the message to be sent once the delay is up
+            outboundQueue.enqueue(message.id, sendTime)
 
             Timber.v("set ${delayMs}ms delay for message id ${message.id}")
 
@@ -648,61 +669,109 @@ open class MessageRepositoryImpl @Inject constructor(
                 context, message.getUri(), message.sendAsGroup
             ).filter { explodedMessageUri -> (explodedMessageUri != Uri.EMPTY) }
 
-            // if multiple messages to send, create each and recurse to send
+            // if multiple messages to send, create each and send them in the background
             if (explodedMessages.size > 1) {
-                explodedMessages.forEach { explodedMessageUri ->
-                    val childMessage = syncProviderMessage(explodedMessageUri, message.sendAsGroup)
-                    if (childMessage != null) {
-                        Timber.v("created message id ${childMessage.id} from uri $explodedMessageUri")
-                        retVal.addAll(sendMessage(childMessage))
-                    }
-                    else
-                        Timber.e("sync failed for uri $explodedMessageUri")
-                }
+                val childMessages = syncProviderMessages(explodedMessages, message.sendAsGroup)
+                Timber.v("created ${childMessages.size} messages from ${explodedMessages.size} uris")
+
+                // the bulk sender only keeps them in memory, so the queue sends whatever is left if
+                // it stops making progress
+                val childIds = childMessages.map { it.id }
+                outboundQueue.enqueue(childIds, now() + BULK_SEND_RECOVERY_MS)
+
+                bulkSender.send(
+                    childMessages.map { childMessage ->
+                        BulkMessageSender.Outgoing(childMessage.id, childMessage.getUri())
+                    },
+                    { outgoing ->
+                        outboundQueue.postpone(childIds, now() + BULK_SEND_RECOVERY_MS)
+
+                        // if the queue took the message first, it's sending it itself
+                        !outboundQueue.take(outgoing.messageId) || run {
+                            markSending(outgoing.messageId)
+                            sendIndividualMessage(outgoing.messageId, outgoing.uri)
+                        }
+                    },
+                    { outgoing -> markFailed(outgoing.messageId, SmsManager.RESULT_ERROR_GENERIC_FAILURE) }
+                )
 
                 // mark original message as sent
                 markSent(message.id)
+
+                retVal.addAll(childMessages)
             } else {
                 markSending(message.id)
 
-                // individual message to send, send it
-                val sentIntent = Intent(context, MessageSentReceiver::class.java)
-                    .putExtra(MessageSentReceiver.EXTRA_QUIK_MESSAGE_ID, message.id)
-
-                val deliveryIntent =
-                    if (prefs.delivery.get())
-                        Intent(context, MessageDeliveredReceiver::class.java)
-                            .putExtra(MessageDeliveredReceiver.EXTRA_QUIK_MESSAGE_ID, message.id)
-                    else null
-
-                // use values from os provider to resend the message, except subId
-                if (!QkTransaction.sendMessage(context, message.getUri(), sentIntent, deliveryIntent))
+                if (!sendIndividualMessage(message.id, message.getUri()))
                     Timber.e("message id ${message.id} not sent by smsmms")
-            }
 
-            retVal.add(message)
+                retVal.add(message)
+            }
         }
 
         return retVal
     }
 
+    /**
+     * Hands the message to the radio, returning false if smsmms couldn't
+     */
+    private fun sendIndividualMessage(messageId: Long, uri: Uri): Boolean {
+        val sentIntent = Intent(context, MessageSentReceiver::class.java)
+            .putExtra(MessageSentReceiver.EXTRA_QUIK_MESSAGE_ID, messageId)
+
+        val deliveryIntent =
+            if (prefs.delivery.get())
+                Intent(context, MessageDeliveredReceiver::class.java)
+                    .putExtra(MessageDeliveredReceiver.EXTRA_QUIK_MESSAGE_ID, messageId)
+            else null
+
+        // use values from os provider to resend the message, except subId
+        return QkTransaction.sendMessage(context, uri, sentIntent, deliveryIntent)
+    }
+
     override fun sendMessage(messageId: Long) =
         getMessage(messageId)
             ?.let { message -> sendMessage(message) }
             ?: listOf()
 
-    override fun cancelDelayedSmsAlarm(messageId: Long) =
-        (context.getSystemService(Context.ALARM_SERVICE) as AlarmManager)
-            .cancel(getIntentForDelayedSms(messageId))
-
-    private fun getIntentForDelayedSms(messageId: Long) =
-        PendingIntent.getBroadcast(
-            context,
-            messageId.toInt(),
-            Intent(context, SendDelayedMessageReceiver::class.java)
-                .putExtra(MESSAGE_ID_EXTRA, messageId),
-            PendingIntent.FLAG_UPDATE_CURRENT or PendingIntent.FLAG_IMMUTABLE
-        )
+    override fun cancelDelayedMessage(messageId: Long) = outboundQueue.remove(messageId)
+
+    override fun sendQueuedMessages(): Collection<Message> =
+        outboundQueue.takeDue().flatMap { queuedMessage ->
+            val message = getUnmanagedMessage(queuedMessage.messageId) ?: run {
+                Timber.w("queued message id ${queuedMessage.messageId} no longer exists")
+                outboundQueue.remove(queuedMessage.messageId)
+                return@flatMap listOf<Message>()
+            }
+
+            // a delayed message is shown as sent when its delay is up, but a retry keeps its place
+            if (queuedMessage.attempts == 0) {
+                markAsSendingNow(message.id)
+            }
+
+            sendMessage(message)
+        }
+
+    override fun retryFailedMessage(messageId: Long, resultCode: Int): Boolean {
+        val message = getUnmanagedMessage(messageId) ?: return false
+
+        // only retry when the radio couldn't reach the network, since anything else is likely to
+        // fail again
+        val transient = when (message.isSms()) {
+            true -> resultCode in listOf(
+                SmsManager.RESULT_ERROR_RADIO_OFF,
+                SmsManager.RESULT_ERROR_NO_SERVICE
+            )
+            false -> resultCode in listOf(
+                SmsManager.MMS_ERROR_UNABLE_CONNECT_MMS,
+                SmsManager.MMS_ERROR_IO_ERROR,
+                SmsManager.MMS_ERROR_RETRY,
+                SmsManager.MMS_ERROR_NO_DATA_NETWORK
+            )
+        }
+
+        return transient && outboundQueue.retry(messageId)
+    }
 
     override fun insertReceivedSms(subId: Int, address: String, body: String, sentTime: Long)
     : Message {
@@ -768,6 +837,101 @@ open class MessageRepositoryImpl @Inject constructor(
         return message
     }
 
+    override fun processReceivedMessage(
+        messageId: Long,
+        action: BlockingClient.Action,
+        filtered: Boolean,
+        markRead: Boolean
+    ): MessageRepository.ReceiveResult = Realm.getDefaultInstance().use { realm ->
+        realm.refresh()
+
+        val message = realm.where(Message::class.java)
+            .equalTo("id", messageId)
+            .findFirst()
+            ?: return MessageRepository.ReceiveResult.Failed
+
+        val threadId = message.threadId
+        val blocked = action is BlockingClient.Action.Block
+
+        // blocked and 'drop blocked' is on, so there's nothing else to update
+        if (blocked && prefs.drop.get()) {
+            deleteMessages(listOf(messageId))
+            return MessageRepository.ReceiveResult.Dropped
+        }
+
+        // Anything that requires the content provider needs to be done before we start the transaction
+        if (filtered) {
+            message.getUri()
+                .takeIf { uri -> uri != Uri.EMPTY }
+                ?.let { uri -> context.contentResolver.delete(uri, null, null) }
+        } else if (realm.where(Conversation::class.java).equalTo("id", threadId).count() == 0L) {
+            conversationRepo.createConversation(threadId) ?: return MessageRepository.ReceiveResult.Failed
+            realm.refresh()
+        }
+
+        var result: MessageRepository.ReceiveResult = MessageRepository.ReceiveResult.Failed
+        realm.executeTransaction {
+            val conversation = realm.where(Conversation::class.java)
+                .equalTo("id", threadId)
+                .findFirst()
+
+            if (blocked || markRead) {
+                realm.where(Message::class.java)
+                    .equalTo("threadId", threadId)
+                    .beginGroup()
+                    .equalTo("read", false)
+                    .or()
+                    .equalTo("seen", false)
+                    .endGroup()
+                    .findAll()
+                    .forEach { unread -> unread.seen = true; unread.read = true }
+            }
+
+            when {
+                action is BlockingClient.Action.Block -> conversation?.takeIf { !it.blocked }?.let {
+                    it.blocked = true
+                    it.blockingClient = prefs.blockingManager.get()
+                    it.blockReason = action.reason
+                }
+
+                action is BlockingClient.Action.Unblock -> conversation?.let {
+                    it.blocked = false
+                    it.blockingClient = null
+                    it.blockReason = null
+                }
+            }
+
+            if (filtered) {
+                message.deleteFromRealm()
+                result = MessageRepository.ReceiveResult.Dropped
+                return@executeTransaction
+            }
+
+            if (conversation == null) {
+                return@executeTransaction
+            }
+
+            conversation.lastMessage = realm.where(Message::class.java)
+                .equalTo("threadId", threadId)
+                .sort("date", Sort.DESCENDING)
+                .findFirst()
+
+            result = when (conversation.blocked) {
+                true -> MessageRepository.ReceiveResult.Blocked(threadId)
+                false -> {
+                    conversation.archived = false
+                    MessageRepository.ReceiveResult.Received(threadId)
+                }
+            }
+        }
+
+        if (blocked || markRead) {
+            telephonyMarkSeenRead(seen = true, read = true, threadIds = listOf(threadId))
+        }
+
+        result
+    }
+
     override fun markAsSendingNow(messageId: Long) =
         Realm.getDefaultInstance().use { realm ->
             realm.refresh()
@@ -818,6 +982,8 @@ open class MessageRepositoryImpl @Inject constructor(
     override fun markSent(messageId: Long) {
         Timber.v("mark message id $messageId as sent")
 
+        outboundQueue.remove(messageId)
+
         Realm.getDefaultInstance().use { realm ->
             realm.refresh()
 
@@ -854,6 +1020,8 @@ open class MessageRepositoryImpl @Inject constructor(
         Realm.getDefaultInstance().use { realm ->
             Timber.v("mark message id $messageId as failed. code $resultCode")
 
+            outboundQueue.remove(messageId)
+
             realm.refresh()
 
             realm.where(Message::class.java).equalTo("id", messageId).findFirst()
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2017 Moez Bhatti <moez.bhatti@gmail.com>
+ *
+ * This file is part of QKSMS.
+ *
+ * QKSMS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * QKSMS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QKSMS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.octoshrimpy.quik.util
+
+import android.content.Context
+import android.database.ContentObserver
+import android.provider.ContactsContract
+import android.provider.ContactsContract.CommonDataKinds.Email
+import android.provider.ContactsContract.CommonDataKinds.Phone
+import dev.octoshrimpy.quik.extensions.map
+import dev.octoshrimpy.quik.manager.PermissionManager
+import java.util.concurrent.atomic.AtomicLong
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * An in-memory index of the addresses that belong to a contact, so that we can check if a sender is a contact without
+ * querying the contacts provider for every message
+ *
+ * The index is loaded from the contacts provider with a query for all of the phone numbers and one for all of the
+ * emails. An observer on the provider marks it as stale whenever contacts change, and it's reloaded on the next
+ * lookup, so it's kept fresh whether or not the app has synced its own copy of the contacts
+ *
+ * Phone numbers are bucketed by their last [MIN_MATCH] digits, the same way the contacts provider narrows down caller
+ * id lookups, and a match is then confirmed by comparing the whole number. Emails and alphanumeric sender ids are
+ * matched by their lowercased address
+ */
+@Singleton
+class ContactMembershipIndex @Inject constructor(
+    private val context: Context,
+    private val permissionManager: PermissionManager,
+    private val phoneNumberUtils: PhoneNumberUtils
+) {
+
+    companion object {
+        private const val MIN_MATCH = 7
+    }
+
+    private class Index(
+        val version: Long,
+        val numbers: Map<String, List<String>>,
+        val addresses: Set<String>
+    )
+
+    // Incremented whenever the contacts provider changes
+    private val providerVersion = AtomicLong()
+
+    @Volatile private var index: Index? = null
+    @Volatile private var observing = false
+
+    private val observer = object : ContentObserver(null) {
+        override fun onChange(selfChange: Boolean) {
+            providerVersion.incrementAndGet()
+        }
+    }
+
+    init {
+        registerObserver()
+    }
+
+    /**
+     * Returns whether or not the [address] belongs to a contact, or null if the index can't be loaded or kept fresh,
+     * ie. without the contacts permission, in which case the caller should query the provider instead
+     */
+    fun contains(address: String): Boolean? {
+        val index = getIndex() ?: return null
+
+        val key = getKey(address)
+        return when {
+            isNumberKey(key) -> index.numbers[key].orEmpty().any { number -> phoneNumberUtils.compare(number, address) }
+            else -> index.addresses.contains(key)
+        }
+    }
+
+    private fun getIndex(): Index? {
+        // If we didn't have the contacts permission when we were created, we may have it now. Without an observer we
+        // wouldn't know when the index goes stale, so it isn't used
+        if (!observe()) {
+            return null
+        }
+
+        return index?.takeIf { current -> current.version == providerVersion.get() } ?: buildIndex()
+    }
+
+    @Synchronized
+    private fun buildIndex(): Index? {
+        // Read the version first, so that a change made while we're loading leaves the index stale
+        val version = providerVersion.get()
+        index?.takeIf { current -> current.version == version }?.let { return it }
+
+        val numbers = tryOrNull {
+            context.contentResolver.query(Phone.CONTENT_URI, arrayOf(Phone.NUMBER), null, null, null)
+                    ?.use { cursor -> cursor.map { it.getString(0) }.filterNotNull() }
+        } ?: return null
+
+        val emails = tryOrNull {
+            context.contentResolver.query(Email.CONTENT_URI, arrayOf(Email.ADDRESS), null, null, null)
+                    ?.use { cursor -> cursor.map { it.getString(0) }.filterNotNull() }
+        } ?: return null
+
+        val numbersByKey = HashMap<String, MutableList<String>>()
+        val addresses = HashSet<String>()
+        (numbers + emails).forEach { address ->
+            val key = getKey(address)
+            when {
+                key.isEmpty() -> Unit
+                isNumberKey(key) -> numbersByKey.getOrPut(key) { ArrayList(1) } += address
+                else -> addresses += key
+            }
+        }
+
+        return Index(version, numbersByKey, addresses).also { index = it }
+    }
+
+    private fun observe(): Boolean {
+        if (!observing) {
+            registerObserver()
+        }
+
+        return observing && permissionManager.hasContacts()
+    }
+
+    @Synchronized
+    private fun registerObserver() {
+        if (!observing && permissionManager.hasContacts()) {
+            observing = tryOrNull {
+                context.contentResolver.registerContentObserver(ContactsContract.AUTHORITY_URI, true, observer)
+                true
+            } ?: false
+
+            // Anything loaded before we were observing can't be trusted
+            index = null
+        }
+    }
+
+    private fun getKey(address: String): String {
+        if (address.contains('@')) {
+            return address.trim().lowercase()
+        }
+
+        val digits = address.filter { char -> char in '0'..'9' }
+        return when (digits.isEmpty()) {
+            true -> address.trim().lowercase() // Alphanumeric sender ids
+            false -> digits.takeLast(MIN_MATCH)
+        }
+    }
+
+    private fun isNumberKey(key: String): Boolean = key.isNotEmpty() && key.all { char -> char in '0'..'9' }
+
+}
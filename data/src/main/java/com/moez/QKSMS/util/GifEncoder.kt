@@ -24,7 +24,7 @@ import androidx.annotation.VisibleForTesting
 import com.bumptech.glide.gifdecoder.GifDecoder
 import com.bumptech.glide.gifdecoder.GifHeaderParser
 import com.bumptech.glide.gifdecoder.StandardGifDecoder
-import com.bumptech.glide.gifencoder.AnimatedGifEncoder
+import com.bumptech.glide.gifencoder.ParallelGifEncoder
 import com.bumptech.glide.load.Transformation
 import com.bumptech.glide.load.engine.Resource
 import com.bumptech.glide.load.engine.bitmap_recycle.BitmapPool
@@ -46,10 +46,14 @@ class GifEncoder internal constructor(
 
     private val provider = GifBitmapProvider(bitmapPool)
 
-    fun encodeTransformedToStream(drawable: GifDrawable, os: OutputStream): Boolean {
+    /**
+     * Re-encodes the [drawable], keeping only every [frameStep]th frame
+     */
+    fun encodeTransformedToStream(drawable: GifDrawable, os: OutputStream, frameStep: Int = 1): Boolean {
         val transformation = drawable.frameTransformation
         val decoder = decodeHeaders(drawable.buffer)
         val encoder = factory.buildEncoder()
+        encoder.setFrameStep(frameStep)
         if (!encoder.start(os)) {
             return false
         }
@@ -58,12 +62,11 @@ class GifEncoder internal constructor(
             val currentFrame = decoder.nextFrame
             val transformedResource = getTransformedFrame(currentFrame, transformation, drawable)
             try {
-                if (!encoder.addFrame(transformedResource.get())) {
+                val delay = decoder.getDelay(decoder.currentFrameIndex)
+                if (!encoder.addFrame(transformedResource.get(), delay)) {
+                    encoder.finish()
                     return false
                 }
-                val currentFrameIndex = decoder.currentFrameIndex
-                val delay = decoder.getDelay(currentFrameIndex)
-                encoder.setDelay(delay)
 
                 decoder.advance()
             } finally {
@@ -107,7 +110,7 @@ class GifEncoder internal constructor(
 
         fun buildParser() = GifHeaderParser()
 
-        fun buildEncoder() = AnimatedGifEncoder()
+        fun buildEncoder() = ParallelGifEncoder()
 
         fun buildFrameResource(bitmap: Bitmap, bitmapPool: BitmapPool) = BitmapResource(bitmap, bitmapPool)
     }
@@ -0,0 +1,353 @@
+/*
+ * Copyright (C) 2017 Moez Bhatti <moez.bhatti@gmail.com>
+ *
+ * This file is part of QKSMS.
+ *
+ * QKSMS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * QKSMS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QKSMS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.octoshrimpy.quik.util
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.net.Uri
+import android.os.SystemClock
+import android.util.LruCache
+import timber.log.Timber
+import java.io.ByteArrayOutputStream
+import java.util.concurrent.Callable
+import java.util.concurrent.CancellationException
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Future
+import java.util.concurrent.FutureTask
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import javax.inject.Inject
+import javax.inject.Singleton
+import kotlin.math.roundToInt
+import kotlin.math.sqrt
+
+/**
+ * Scales and compresses image attachments so that they fit within the size limits of an MMS.
+ *
+ * Each source is first scaled to fit the max dimensions. If the images are then too large to send
+ * together, the ones that are over their share of the budget are decoded again into a bitmap, and
+ * compressed further from that bitmap by binary searching the JPEG quality and then the scale.
+ * Images are processed concurrently on a small, bounded pool.
+ *
+ * Results are cached, so that attachments can be compressed ahead of time while the message is
+ * being written, and the work reused when it's sent.
+ */
+@Singleton
+class ImageCompressor @Inject constructor(private val context: Context) {
+
+    companion object {
+        private const val THREADS = 2
+        private const val QUALITY = 90
+
+        // The qualities to search through before we start shrinking the image, and the quality
+        // used once we do
+        private val QUALITIES = (50..85 step 5).toList()
+        private const val SCALED_QUALITY = 70
+
+        private const val MIN_SCALE = 0.1
+        private const val SCALE_ATTEMPTS = 6
+
+        // The most we'll thin out an animation, keeping every nth frame, before shrinking it
+        private const val MAX_FRAME_STEP = 3
+
+        private const val CACHE_BYTES = 8 * 1024 * 1024
+
+        private val executor = ThreadPoolExecutor(THREADS, THREADS, 30, TimeUnit.SECONDS, LinkedBlockingQueue())
+                .apply { allowCoreThreadTimeOut(true) }
+    }
+
+    class Image(val uri: Uri, val isGif: Boolean)
+
+    private data class Key(val uri: Uri, val maxWidth: Int, val maxHeight: Int)
+
+    private class Compressed(val maxBytes: Int, val bytes: ByteArray)
+
+    // The images scaled to fit the max dimensions, and those that were compressed further
+    private val scaledCache = object : LruCache<Key, ByteArray>(CACHE_BYTES) {
+        override fun sizeOf(key: Key, value: ByteArray) = value.size
+    }
+    private val compressedCache = object : LruCache<Key, Compressed>(CACHE_BYTES) {
+        override fun sizeOf(key: Key, value: Compressed) = value.bytes.size
+    }
+
+    // Images that are being scaled, so that a send can pick up work that was started while composing
+    private val scaling = HashMap<Key, Future<ByteArray>>()
+
+    /**
+     * Returns the compressed bytes for each of the [images], in the same order. GIFs are re-encoded
+     * as GIFs, and everything else as JPEG
+     */
+    fun compress(images: List<Image>, maxWidth: Int, maxHeight: Int, maxBytes: Double): List<ByteArray> {
+        if (images.isEmpty()) return listOf()
+
+        val scaled = images
+                .map { image -> scale(image, maxWidth, maxHeight) }
+                .mapIndexed { index, future -> awaitScaled(future, images[index], maxWidth, maxHeight) }
+
+        val totalBytes = scaled.sumOf { it.size }
+        if (totalBytes <= maxBytes) {
+            return scaled
+        }
+
+        // Give each image a share of the budget proportional to its size, and shrink the ones
+        // that don't fit in theirs
+        return images
+                .mapIndexed { index, image ->
+                    val key = Key(image.uri, maxWidth, maxHeight)
+                    val bytes = scaled[index]
+                    val budget = bytes.size / totalBytes.toDouble() * maxBytes
+
+                    // A result compressed for a larger budget is as good as we'd get, if it fits
+                    val cached = compressedCache.get(key)
+                            ?.takeIf { cached -> cached.maxBytes >= budget && cached.bytes.size <= budget }
+
+                    when {
+                        bytes.size <= budget -> completed(bytes)
+                        cached != null -> completed(cached.bytes)
+                        else -> submit {
+                            when (image.isGif) {
+                                true -> compressGif(image.uri, bytes, maxWidth, maxHeight, budget.toInt())
+                                false -> compressJpeg(image.uri, bytes, maxWidth, maxHeight, budget.toInt())
+                            }.also { compressed -> compressedCache.put(key, Compressed(budget.toInt(), compressed)) }
+                        }
+                    }
+                }
+                .map(::await)
+    }
+
+    /**
+     * Cancels any work for the image at [uri], and drops its cached results. Called once the image
+     * has been sent or removed from the draft, so that the caches don't keep holding it
+     */
+    fun cancel(uri: Uri) {
+        synchronized(scaling) {
+            scaling.keys.filter { key -> key.uri == uri }.forEach { key -> scaling.remove(key)?.cancel(true) }
+        }
+
+        scaledCache.snapshot().keys.filter { key -> key.uri == uri }.forEach { key -> scaledCache.remove(key) }
+        compressedCache.snapshot().keys.filter { key -> key.uri == uri }.forEach { key -> compressedCache.remove(key) }
+    }
+
+    /**
+     * Returns the image scaled to fit the max dimensions, from the cache if we can, or else by
+     * joining or starting the work to scale it
+     */
+    private fun scale(image: Image, maxWidth: Int, maxHeight: Int): Future<ByteArray> {
+        val key = Key(image.uri, maxWidth, maxHeight)
+        scaledCache.get(key)?.let { bytes -> return completed(bytes) }
+
+        return synchronized(scaling) {
+            scaling[key] ?: run {
+                // If the work is cancelled, its result is stale and the key may already belong to newer work
+                lateinit var task: FutureTask<ByteArray>
+                task = FutureTask {
+                    try {
+                        scale(image.uri, image.isGif, maxWidth, maxHeight)
+                                .also { bytes -> if (!task.isCancelled) scaledCache.put(key, bytes) }
+                    } finally {
+                        synchronized(scaling) { if (scaling[key] === task) scaling.remove(key) }
+                    }
+                }
+                scaling[key] = task
+                executor.execute(task)
+                task
+            }
+        }
+    }
+
+    private fun scale(uri: Uri, isGif: Boolean, maxWidth: Int, maxHeight: Int): ByteArray = when (isGif) {
+        true -> ImageUtils.getScaledGif(context, uri, maxWidth, maxHeight, QUALITY)
+        false -> ImageUtils.getScaledImage(context, uri, maxWidth, maxHeight, QUALITY)
+    }
+
+    /**
+     * If the work was shared with a precompression that's since been cancelled, scale it ourselves
+     */
+    private fun awaitScaled(future: Future<ByteArray>, image: Image, maxWidth: Int, maxHeight: Int): ByteArray {
+        return try {
+            await(future)
+        } catch (e: CancellationException) {
+            scale(image.uri, image.isGif, maxWidth, maxHeight)
+        }
+    }
+
+    /**
+     * Searches from a bitmap decoded from the source, rather than from the scaled JPEG, so that the
+     * image only goes through JPEG compression once
+     */
+    private fun compressJpeg(uri: Uri, originalBytes: ByteArray, maxWidth: Int, maxHeight: Int, maxBytes: Int): ByteArray {
+        val start = SystemClock.elapsedRealtime()
+        return try {
+            ImageUtils.withScaledBitmap(context, uri, maxWidth, maxHeight) { bitmap ->
+                compressJpeg(bitmap, originalBytes, maxBytes, start)
+            }
+        } catch (e: ExecutionException) {
+            Timber.w(e, "Failed to decode ${originalBytes.size / 1024}Kb image")
+            originalBytes
+        }
+    }
+
+    private fun compressJpeg(bitmap: Bitmap, originalBytes: ByteArray, maxBytes: Int, start: Long): ByteArray {
+        val output = ByteArrayOutputStream(maxBytes)
+        var attempts = 0
+        var bestBytes: ByteArray? = null
+        var smallestBytes = originalBytes
+
+        // Encodes the bitmap with the given scale and quality, and returns true if it fit
+        fun encode(scale: Double, quality: Int): Boolean {
+            val width = (bitmap.width * scale).roundToInt().coerceAtLeast(1)
+            val height = (bitmap.height * scale).roundToInt().coerceAtLeast(1)
+            val scaled = if (scale < 1) Bitmap.createScaledBitmap(bitmap, width, height, true) else bitmap
+
+            attempts++
+            output.reset()
+            scaled.compress(Bitmap.CompressFormat.JPEG, quality, output)
+            if (scaled !== bitmap) scaled.recycle()
+
+            Timber.d("Compression attempt $attempts: ${output.size() / 1024}/${maxBytes / 1024}Kb " +
+                    "(${bitmap.width}*${bitmap.height} -> $width*$height, q$quality)")
+
+            if (output.size() < smallestBytes.size) {
+                smallestBytes = output.toByteArray()
+            }
+            return output.size() <= maxBytes
+        }
+
+        // Find the highest quality that fits at full size
+        var low = 0
+        var high = QUALITIES.lastIndex
+        while (low <= high) {
+            val mid = (low + high) ushr 1
+            if (encode(1.0, QUALITIES[mid])) {
+                bestBytes = output.toByteArray()
+                low = mid + 1
+            } else {
+                high = mid - 1
+            }
+        }
+
+        // If lowering the quality wasn't enough, find the largest scale that fits
+        if (bestBytes == null) {
+            var minScale = MIN_SCALE
+            var maxScale = 1.0
+            repeat(SCALE_ATTEMPTS) {
+                val scale = (minScale + maxScale) / 2
+                if (encode(scale, SCALED_QUALITY)) {
+                    bestBytes = output.toByteArray()
+                    minScale = scale
+                } else {
+                    maxScale = scale
+                }
+            }
+        }
+
+        return finish(originalBytes, bestBytes ?: smallestBytes, maxBytes, attempts, start)
+    }
+
+    /**
+     * GIFs can't be shrunk from a single frame, so each attempt has to re-decode the source. Frames
+     * are dropped before the dimensions are reduced, so that what's left stays as large and sharp
+     * as the budget allows
+     */
+    private fun compressGif(uri: Uri, originalBytes: ByteArray, maxWidth: Int, maxHeight: Int, maxBytes: Int): ByteArray {
+        val start = SystemClock.elapsedRealtime()
+
+        // Get the dimensions the gif was scaled to
+        val options = BitmapFactory.Options().apply { inJustDecodeBounds = true }
+        context.contentResolver.openInputStream(uri)?.use { BitmapFactory.decodeStream(it, null, options) }
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return originalBytes
+        }
+
+        val fit = minOf(1.0, maxWidth / options.outWidth.toDouble(), maxHeight / options.outHeight.toDouble())
+        val width = options.outWidth * fit
+        val height = options.outHeight * fit
+
+        var attempts = 0
+        var smallestBytes = originalBytes
+
+        // Encodes the gif with the given scale and frame step, and returns the bytes if they fit
+        fun encode(scale: Double, frameStep: Int): ByteArray? {
+            val newWidth = (width * scale).roundToInt().coerceAtLeast(1)
+            val newHeight = (height * scale).roundToInt().coerceAtLeast(1)
+
+            attempts++
+            val bytes = ImageUtils.getScaledGif(context, uri, newWidth, newHeight, QUALITY, frameStep)
+
+            Timber.d("Compression attempt $attempts: ${bytes.size / 1024}/${maxBytes / 1024}Kb " +
+                    "(${width.toInt()}*${height.toInt()} -> $newWidth*$newHeight, every ${frameStep}x frames)")
+
+            if (bytes.size < smallestBytes.size) {
+                smallestBytes = bytes
+            }
+            return bytes.takeIf { bytes.size <= maxBytes }
+        }
+
+        // Drop frames first, as long as that's enough
+        for (frameStep in 2..MAX_FRAME_STEP) {
+            encode(1.0, frameStep)?.let { bytes -> return finish(originalBytes, bytes, maxBytes, attempts, start) }
+        }
+
+        // Otherwise, find the largest scale that fits. The size is roughly proportional to the
+        // area, so start from there and then bisect
+        var bestBytes: ByteArray? = null
+        var minScale = MIN_SCALE
+        var maxScale = 1.0
+        var scale = (sqrt(maxBytes / smallestBytes.size.toDouble()) * 0.95).coerceIn(MIN_SCALE, 1.0)
+        repeat(SCALE_ATTEMPTS) {
+            val bytes = encode(scale, MAX_FRAME_STEP)
+            if (bytes != null) {
+                bestBytes = bytes
+                minScale = scale
+            } else {
+                maxScale = scale
+            }
+            scale = (minScale + maxScale) / 2
+        }
+
+        return finish(originalBytes, bestBytes ?: smallestBytes, maxBytes, attempts, start)
+    }
+
+    private fun finish(originalBytes: ByteArray, bytes: ByteArray, maxBytes: Int, attempts: Int, start: Long): ByteArray {
+        val millis = SystemClock.elapsedRealtime() - start
+        if (bytes.size > maxBytes) {
+            Timber.w("Failed to compress ${originalBytes.size / 1024}Kb to ${maxBytes / 1024}Kb " +
+                    "in $attempts attempts, ${millis}ms")
+        } else {
+            Timber.v("Compressed ${originalBytes.size / 1024}Kb to ${bytes.size / 1024}Kb with a target size of " +
+                    "${maxBytes / 1024}Kb in $attempts attempts, ${millis}ms")
+        }
+        return bytes
+    }
+
+    private fun submit(task: () -> ByteArray): Future<ByteArray> = executor.submit(Callable(task))
+
+    private fun completed(bytes: ByteArray): Future<ByteArray> = FutureTask { bytes }.apply { run() }
+
+    private fun await(future: Future<ByteArray>): ByteArray {
+        return try {
+            future.get()
+        } catch (e: ExecutionException) {
+            throw e.cause ?: e
+        }
+    }
+
+}
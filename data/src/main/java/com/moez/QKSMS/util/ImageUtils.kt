@@ -19,6 +19,7 @@
 package dev.octoshrimpy.quik.util
 
 import android.content.Context
+import android.graphics.Bitmap
 import android.net.Uri
 import com.bumptech.glide.load.engine.DiskCacheStrategy
 import com.bumptech.glide.request.RequestOptions
@@ -26,7 +27,14 @@ import java.io.ByteArrayOutputStream
 
 object ImageUtils {
 
-    fun getScaledGif(context: Context, uri: Uri, maxWidth: Int, maxHeight: Int, quality: Int = 90): ByteArray {
+    fun getScaledGif(
+        context: Context,
+        uri: Uri,
+        maxWidth: Int,
+        maxHeight: Int,
+        quality: Int = 90,
+        frameStep: Int = 1
+    ): ByteArray {
         val gif = GlideApp
                 .with(context)
                 .asGif()
@@ -37,10 +45,35 @@ object ImageUtils {
                 .get()
 
         val outputStream = ByteArrayOutputStream()
-        GifEncoder(context, GlideApp.get(context).bitmapPool).encodeTransformedToStream(gif, outputStream)
+        GifEncoder(context, GlideApp.get(context).bitmapPool).encodeTransformedToStream(gif, outputStream, frameStep)
         return outputStream.toByteArray()
     }
 
+    /**
+     * Decodes the image once, downsampled to fit the max dimensions, and hands the bitmap to
+     * [block]. The bitmap belongs to Glide and goes back to its pool afterwards, so it mustn't be
+     * kept or recycled
+     */
+    fun <T> withScaledBitmap(context: Context, uri: Uri, maxWidth: Int, maxHeight: Int, block: (Bitmap) -> T): T {
+        val target = GlideApp
+            .with(context)
+            .asBitmap()
+            .load(uri)
+            .apply(
+                RequestOptions()
+                .diskCacheStrategy(DiskCacheStrategy.NONE)
+                .skipMemoryCache(true)
+            )
+            .centerInside()
+            .submit(maxWidth, maxHeight)
+
+        return try {
+            block(target.get())
+        } finally {
+            GlideApp.with(context).clear(target)
+        }
+    }
+
     fun getScaledImage(context: Context, uri: Uri, maxWidth: Int, maxHeight: Int, quality: Int = 90): ByteArray {
         return GlideApp
             .with(context)
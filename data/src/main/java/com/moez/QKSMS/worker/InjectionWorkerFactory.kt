@@ -24,26 +24,20 @@ import androidx.work.Worker
 import androidx.work.WorkerFactory
 import androidx.work.WorkerParameters
 import dev.octoshrimpy.quik.blocking.BlockingClient
-import dev.octoshrimpy.quik.interactor.UpdateBadge
 import dev.octoshrimpy.quik.manager.ActiveConversationManager
 import dev.octoshrimpy.quik.manager.NotificationManager
-import dev.octoshrimpy.quik.manager.ShortcutManager
+import dev.octoshrimpy.quik.manager.ReceivedMessageCoalescer
 import dev.octoshrimpy.quik.repository.ContactRepository
-import dev.octoshrimpy.quik.repository.ConversationRepository
 import dev.octoshrimpy.quik.repository.MessageContentFilterRepository
 import dev.octoshrimpy.quik.repository.MessageRepository
 import dev.octoshrimpy.quik.repository.ScheduledMessageRepository
 import dev.octoshrimpy.quik.repository.SyncRepository
-import dev.octoshrimpy.quik.util.Preferences
 import javax.inject.Inject
 
 class InjectionWorkerFactory @Inject constructor(
-    private val conversationRepo: ConversationRepository,
     private val blockingClient: BlockingClient,
-    private val prefs: Preferences,
     private val messageRepo: MessageRepository,
-    private val updateBadge: UpdateBadge,
-    private val shortcutManager: ShortcutManager,
+    private val receivedMessageCoalescer: ReceivedMessageCoalescer,
     private val scheduledMessageRepository: ScheduledMessageRepository,
     private val notificationManager: NotificationManager,
     private val activeConversationManager: ActiveConversationManager,
@@ -67,26 +61,20 @@ class InjectionWorkerFactory @Inject constructor(
             is HousekeepingWorker ->
                 instance.scheduledMessageRepository = scheduledMessageRepository
             is ReceiveSmsWorker -> {
-                instance.conversationRepo  = conversationRepo
                 instance.blockingClient = blockingClient
-                instance.prefs = prefs
                 instance.messageRepo = messageRepo
-                instance.shortcutManager = shortcutManager
                 instance.notificationManager = notificationManager
-                instance.updateBadge =  updateBadge
+                instance.receivedMessageCoalescer = receivedMessageCoalescer
                 instance.filterRepo = filterRepo
                 instance.contactsRepo = contactRepo
             }
             is ReceiveMmsWorker -> {
                 instance.syncRepo = syncRepo
                 instance.activeConversationManager = activeConversationManager
-                instance.conversationRepo = conversationRepo
                 instance.blockingClient = blockingClient
-                instance.prefs = prefs
                 instance.messageRepo = messageRepo
-                instance.shortcutManager = shortcutManager
                 instance.notificationManager = notificationManager
-                instance.updateBadge = updateBadge
+                instance.receivedMessageCoalescer = receivedMessageCoalescer
                 instance.filterRepo = filterRepo
                 instance.contactsRepo = contactRepo
             }
@@ -44,20 +44,17 @@ import com.klinker.android.send_message.MmsSentReceiver
 import com.klinker.android.send_message.SmsManagerFactory
 import com.klinker.android.send_message.Utils
 import dev.octoshrimpy.quik.blocking.BlockingClient
-import dev.octoshrimpy.quik.interactor.UpdateBadge
 import dev.octoshrimpy.quik.manager.ActiveConversationManager
 import dev.octoshrimpy.quik.manager.NotificationManager
-import dev.octoshrimpy.quik.manager.ShortcutManager
+import dev.octoshrimpy.quik.manager.ReceiveLatencyTracker
+import dev.octoshrimpy.quik.manager.ReceivedMessageCoalescer
 import dev.octoshrimpy.quik.receiver.MessageSentReceiver
 import dev.octoshrimpy.quik.repository.ContactRepository
-import dev.octoshrimpy.quik.repository.ConversationRepository
 import dev.octoshrimpy.quik.repository.MessageContentFilterRepository
 import dev.octoshrimpy.quik.repository.MessageRepository
 import dev.octoshrimpy.quik.repository.SyncRepository
-import dev.octoshrimpy.quik.util.Preferences
 import timber.log.Timber
 import java.io.File
-import java.io.FileInputStream
 import java.io.FileNotFoundException
 import java.io.FileOutputStream
 import java.io.IOException
@@ -72,26 +69,27 @@ class ReceiveMmsWorker(appContext: Context, workerParams: WorkerParameters)
         const val INPUT_DATA_EXTRA_LOCATION_URL = "locationUrl"
         const val INPUT_DATA_EXTRA_MMS_HTTP_STATUS = "mmsHttpStatus"
         const val INPUT_DATA_EXTRA_URI = "extraUri"
+        const val INPUT_DATA_RECEIVED_AT = "receivedAt"
 
         private const val LOCATION_SELECTION =
             Telephony.Mms.MESSAGE_TYPE + "=? AND " + Telephony.Mms.CONTENT_LOCATION + " =?"
     }
 
     @Inject lateinit var activeConversationManager: ActiveConversationManager
-    @Inject lateinit var conversationRepo: ConversationRepository
     @Inject lateinit var blockingClient: BlockingClient
-    @Inject lateinit var prefs: Preferences
     @Inject lateinit var syncRepo: SyncRepository
     @Inject lateinit var messageRepo: MessageRepository
     @Inject lateinit var notificationManager: NotificationManager
-    @Inject lateinit var updateBadge: UpdateBadge
-    @Inject lateinit var shortcutManager: ShortcutManager
+    @Inject lateinit var receivedMessageCoalescer: ReceivedMessageCoalescer
     @Inject lateinit var filterRepo: MessageContentFilterRepository
     @Inject lateinit var contactsRepo: ContactRepository
 
     override fun doWork(): Result {
         Timber.v("started")
 
+        val trace = ReceiveLatencyTracker.Trace(inputData.getLong(INPUT_DATA_RECEIVED_AT, 0))
+        trace.mark(ReceiveLatencyTracker.Stage.SCHEDULED)
+
         val subscriptionId = inputData.getInt(INPUT_DATA_SUBSCRIPTION_ID, -1)
         val filePath = inputData.getString(INPUT_DATA_EXTRA_FILE_PATH) ?: ""
         val locationUrl = inputData.getString(INPUT_DATA_EXTRA_LOCATION_URL) ?: ""
@@ -116,26 +114,17 @@ class ReceiveMmsWorker(appContext: Context, workerParams: WorkerParameters)
 
         val downloadFile = File(filePath)
         try {
-            // read file into a bytearray
-            val mmsData = FileInputStream(downloadFile).use { inputStream ->
-                val fileLength = downloadFile.length().toInt()
-                ByteArray(fileLength).let { bytes ->
-                    inputStream.read(bytes, 0, fileLength)
-                    bytes
-                }
-            }
+            Timber.v("response length: ${downloadFile.length()}")
 
-            Timber.v("response buffered length: ${mmsData.size}")
-
-            if (mmsData.isNotEmpty()) {
+            if (downloadFile.length() > 0) {
                 // build notification ind (beware this must be done prior to downloadrequest.persist)
                 val notificationInd =
                     PduPersister.getPduPersister(applicationContext).load(extraUri.toUri())
                             as NotificationInd
 
-                // persist message
+                // persist message, parsed directly from the downloaded file
                 val messageUri = DownloadRequest.persist(
-                    applicationContext, mmsData,
+                    applicationContext, downloadFile,
                     Overridden(MmsConfig(applicationContext), null),
                     locationUrl, subscriptionId, null
                 )
@@ -153,81 +142,44 @@ class ReceiveMmsWorker(appContext: Context, workerParams: WorkerParameters)
                     // Sync the message
                     val message = syncRepo.syncMessage(messageUri)
                         ?: return Result.failure(inputData)
-
-                    // TODO: Ideally this is done when we're saving the MMS to ContentResolver
-                    // This change can be made once we move the MMS storing code to the Data module
-                    if (activeConversationManager.getActiveConversation() == message.threadId) {
-                        messageRepo.markRead(listOf(message.threadId))
-                    }
+                    trace.mark(ReceiveLatencyTracker.Stage.LOADED)
 
                     // Because we use the smsmms library for receiving and storing MMS, we'll need
                     // to check if it should be blocked after we've pulled it into realm. If it
                     // turns out that it should be dropped, then delete it
                     // TODO Don't store blocked messages in the first place
                     val action = blockingClient.shouldBlock(message.address).blockingGet()
-                    val shouldDrop = prefs.drop.get()
-                    Timber.v("block=$action, drop=$shouldDrop")
-
-                    if (action is BlockingClient.Action.Block && shouldDrop) {
-                        messageRepo.deleteMessages(listOf(message.id))
-                    } else {
-                        when (action) {
-                            is BlockingClient.Action.Block -> {
-                                messageRepo.markRead(listOf(message.threadId))
-                                conversationRepo.markBlocked(
-                                    listOf(message.threadId),
-                                    prefs.blockingManager.get(),
-                                    action.reason
-                                )
-                            }
-
-                            is BlockingClient.Action.Unblock ->
-                                conversationRepo.markUnblocked(message.threadId)
-
-                            else -> Unit
-                        }
+                    val filtered = filterRepo.isBlocked(message.getText(), message.address, contactsRepo)
+                    Timber.v("block=$action, filtered=$filtered")
+                    trace.mark(ReceiveLatencyTracker.Stage.BLOCKING)
 
-                        val messageFilterAction = filterRepo.isBlocked(message.getText(), message.address, contactsRepo)
-                        if (messageFilterAction) {
-                            Timber.v("message dropped based on content filters")
-                            messageRepo.deleteMessages(listOf(message.id))
-                            return Result.failure(inputData)
-                        }
+                    // TODO: Ideally marking as read is done when we're saving the MMS to ContentResolver
+                    // This change can be made once we move the MMS storing code to the Data module
+                    val markRead = activeConversationManager.getActiveConversation() == message.threadId
 
-                        // update the conversation
-                        conversationRepo.updateConversations(listOf(message.threadId))
-                        val conversation =
-                            conversationRepo.getOrCreateConversation(message.threadId)
-                                ?: return Result.failure(inputData)
+                    // apply blocking, filtering, read state, last message and unarchive changes in a
+                    // single transaction
+                    when (val result = messageRepo.processReceivedMessage(message.id, action, filtered, markRead)) {
+                        is MessageRepository.ReceiveResult.Received -> {
+                            trace.mark(ReceiveLatencyTracker.Stage.REALM)
 
-                        // don't notify (continue) for blocked conversations
-                        if (conversation.blocked) {
-                            Timber.v("no notifications for blocked")
-                            return Result.success(inputData)
+                            // update notification, shortcuts, badge and widget, coalesced with other
+                            // messages received in a burst
+                            receivedMessageCoalescer.onMessageReceived(result.threadId, trace)
                         }
 
-                        // unarchive conversation if necessary
-                        if (conversation.archived)
-                            conversationRepo.markUnarchived(listOf(conversation.id))
-
-                        // unarchive conversation if necessary
-                        if (conversation.archived) {
-                            Timber.v("conversation unarchived")
-                            conversationRepo.markUnarchived(listOf(conversation.id))
+                        is MessageRepository.ReceiveResult.Dropped -> {
+                            Timber.v("message dropped by blocking or content filters")
+                            if (filtered) return Result.failure(inputData)
                         }
 
-                        // update/create notification
-                        Timber.v("update/create notification")
-                        notificationManager.update(conversation.id)
-
-                        // update shortcuts
-                        Timber.v("update shortcuts")
-                        shortcutManager.updateShortcuts()
-                        shortcutManager.reportShortcutUsed(conversation.id)
+                        is MessageRepository.ReceiveResult.Blocked -> {
+                            // don't notify (continue) for blocked conversations
+                            Timber.v("no notifications for blocked")
+                            return Result.success(inputData)
+                        }
 
-                        // update the badge and widget
-                        Timber.v("update badge and widget")
-                        updateBadge.execute(Unit)
+                        is MessageRepository.ReceiveResult.Failed -> return Result.failure(inputData)
                     }
 
                     // send ack to mmsc
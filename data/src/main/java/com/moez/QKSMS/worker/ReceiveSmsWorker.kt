@@ -23,14 +23,12 @@ import androidx.work.ForegroundInfo
 import androidx.work.Worker
 import androidx.work.WorkerParameters
 import dev.octoshrimpy.quik.blocking.BlockingClient
-import dev.octoshrimpy.quik.interactor.UpdateBadge
 import dev.octoshrimpy.quik.manager.NotificationManager
-import dev.octoshrimpy.quik.manager.ShortcutManager
+import dev.octoshrimpy.quik.manager.ReceiveLatencyTracker
+import dev.octoshrimpy.quik.manager.ReceivedMessageCoalescer
 import dev.octoshrimpy.quik.repository.ContactRepository
-import dev.octoshrimpy.quik.repository.ConversationRepository
 import dev.octoshrimpy.quik.repository.MessageContentFilterRepository
 import dev.octoshrimpy.quik.repository.MessageRepository
-import dev.octoshrimpy.quik.util.Preferences
 import timber.log.Timber
 import javax.inject.Inject
 
@@ -38,93 +36,57 @@ class ReceiveSmsWorker(appContext: Context, workerParams: WorkerParameters)
     : Worker(appContext, workerParams) {
     companion object {
         const val INPUT_DATA_KEY_MESSAGE_ID = "messageId"
+        const val INPUT_DATA_KEY_RECEIVED_AT = "receivedAt"
     }
 
-    @Inject lateinit var conversationRepo: ConversationRepository
     @Inject lateinit var blockingClient: BlockingClient
-    @Inject lateinit var prefs: Preferences
     @Inject lateinit var messageRepo: MessageRepository
     @Inject lateinit var notificationManager: NotificationManager
-    @Inject lateinit var updateBadge: UpdateBadge
-    @Inject lateinit var shortcutManager: ShortcutManager
+    @Inject lateinit var receivedMessageCoalescer: ReceivedMessageCoalescer
     @Inject lateinit var filterRepo: MessageContentFilterRepository
     @Inject lateinit var contactsRepo: ContactRepository
 
     override fun doWork(): Result {
         Timber.v("started")
 
+        val trace = ReceiveLatencyTracker.Trace(inputData.getLong(INPUT_DATA_KEY_RECEIVED_AT, 0))
+        trace.mark(ReceiveLatencyTracker.Stage.SCHEDULED)
+
         val messageId = inputData.getLong(INPUT_DATA_KEY_MESSAGE_ID, -1)
         if (messageId < 0) {
             Timber.v("failed. message id was {messageId}")
             return Result.failure(inputData)
         }
 
-        val message = messageRepo.getMessage(messageId) ?: return Result.failure(inputData)
+        val message = messageRepo.getUnmanagedMessage(messageId) ?: return Result.failure(inputData)
+        trace.mark(ReceiveLatencyTracker.Stage.LOADED)
 
         val action = blockingClient.shouldBlock(message.address).blockingGet()
+        val filtered = filterRepo.isBlocked(message.getText(), message.address, contactsRepo)
+        Timber.v("block=$action, filtered=$filtered")
+        trace.mark(ReceiveLatencyTracker.Stage.BLOCKING)
 
-        when {
-            ((action is BlockingClient.Action.Block) && prefs.drop.get()) -> {
-                // blocked and 'drop blocked' remove from db and don't continue
-                Timber.v("address is blocked and drop blocked is on. dropped")
-                messageRepo.deleteMessages(listOf(message.id))
-                return Result.failure(inputData)
-            }
+        // apply blocking, filtering, last message and unarchive changes in a single transaction
+        val conversationId = when (val result = messageRepo.processReceivedMessage(message.id, action, filtered, false)) {
+            is MessageRepository.ReceiveResult.Received -> result.threadId
 
-            action is BlockingClient.Action.Block -> {
-                // blocked
-                Timber.v("address is blocked")
-                messageRepo.markRead(listOf(message.threadId))
-                conversationRepo.markBlocked(
-                    listOf(message.threadId),
-                    prefs.blockingManager.get(),
-                    action.reason
-                )
+            is MessageRepository.ReceiveResult.Dropped -> {
+                Timber.v("message dropped by blocking or content filters")
+                return Result.failure(inputData)
             }
 
-            action is BlockingClient.Action.Unblock -> {
-                // unblock
-                Timber.v("unblock conversation if blocked")
-                conversationRepo.markUnblocked(message.threadId)
+            is MessageRepository.ReceiveResult.Blocked -> {
+                // don't notify (continue) for blocked conversations
+                Timber.v("no notifications for blocked")
+                return Result.failure(inputData)
             }
-        }
 
-        val messageFilterAction = filterRepo.isBlocked(message.getText(), message.address, contactsRepo)
-        if (messageFilterAction) {
-            Timber.v("message dropped based on content filters")
-            messageRepo.deleteMessages(listOf(message.id))
-            return Result.failure(inputData)
+            is MessageRepository.ReceiveResult.Failed -> return Result.failure(inputData)
         }
+        trace.mark(ReceiveLatencyTracker.Stage.REALM)
 
-        // update and fetch conversation
-        conversationRepo.updateConversations(listOf(message.threadId))
-        val conversation = conversationRepo.getOrCreateConversation(message.threadId)
-            ?: return Result.failure(inputData)
-
-        // don't notify (continue) for blocked conversations
-        if (conversation.blocked) {
-            Timber.v("no notifications for blocked")
-            return Result.failure(inputData)
-        }
-
-        // unarchive conversation if necessary
-        if (conversation.archived) {
-            Timber.v("conversation unarchived")
-            conversationRepo.markUnarchived(listOf(conversation.id))
-        }
-
-        // update/create notification
-        Timber.v("update/create notification")
-        notificationManager.update(conversation.id)
-
-        // update shortcuts
-        Timber.v("update shortcuts")
-        shortcutManager.updateShortcuts()
-        shortcutManager.reportShortcutUsed(conversation.id)
-
-        // update the badge and widget
-        Timber.v("update badge and widget")
-        updateBadge.execute(Unit)
+        // update notification, shortcuts, badge and widget, coalesced with other messages received in a burst
+        receivedMessageCoalescer.onMessageReceived(conversationId, trace)
 
         Timber.v("finished")
 
@@ -40,8 +40,8 @@ class ActionDelayedMessage @Inject constructor(
         Flowable.just(params).doOnNext {
             val updateConversations = mutableListOf<Long>()
 
-            // cancel the timer before doing anything else
-            messageRepo.cancelDelayedSmsAlarm(params.messageId)
+            // take it out of the queue before doing anything else
+            messageRepo.cancelDelayedMessage(params.messageId)
 
             messageRepo.getUnmanagedMessage(params.messageId)?.let { message ->
                 when (params.action) {
@@ -32,6 +32,11 @@ class MarkFailed @Inject constructor(
     override fun buildObservable(params: Params): Flowable<Unit> =
         Flowable.just(Unit)
             .doOnNext {
+                // the radio may just be out of service, in which case the message is queued to
+                // be sent again
+                if (messageRepo.retryFailedMessage(params.messageId, params.resultCode))
+                    return@doOnNext
+
                 if (messageRepo.markFailed(params.messageId, params.resultCode))
                     notificationManager.notifyFailed(params.messageId)
             }
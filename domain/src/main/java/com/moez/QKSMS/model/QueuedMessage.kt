@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2017 Moez Bhatti <moez.bhatti@gmail.com>
+ *
+ * This file is part of QKSMS.
+ *
+ * QKSMS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * QKSMS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QKSMS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.octoshrimpy.quik.model
+
+import io.realm.RealmObject
+import io.realm.annotations.Index
+import io.realm.annotations.PrimaryKey
+
+/**
+ * A message in the outbound queue, waiting until [sendTime] to be sent, or to be retried after the
+ * radio failed to send it
+ *
+ * While [sending], the message has been handed to the radio and we're waiting to hear whether it
+ * was sent, and [sendTime] is when that happened
+ */
+open class QueuedMessage(
+    @PrimaryKey var messageId: Long = 0,
+    @Index var sendTime: Long = 0,
+    var attempts: Int = 0,
+    var sending: Boolean = false
+) : RealmObject()
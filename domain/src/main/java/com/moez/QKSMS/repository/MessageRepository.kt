@@ -19,6 +19,7 @@
 package dev.octoshrimpy.quik.repository
 
 import android.net.Uri
+import dev.octoshrimpy.quik.blocking.BlockingClient
 import dev.octoshrimpy.quik.model.Attachment
 import dev.octoshrimpy.quik.model.Message
 import dev.octoshrimpy.quik.model.MmsPart
@@ -38,8 +39,26 @@ interface MessageRepository {
         data class Failure(val error: Throwable) : DeduplicationResult()
     }
 
+    sealed class BulkSendProgress {
+        object Idle : BulkSendProgress()
+        /** [total] messages are being sent to individual recipients, of which [submitted] have been handed to the radio */
+        data class Running(val total: Int, val submitted: Int, val failed: Int) : BulkSendProgress()
+    }
+
+    sealed class ReceiveResult {
+        /** The message was deleted, either because the sender is blocked and dropped, or by a content filter */
+        object Dropped : ReceiveResult()
+        /** The message or its conversation couldn't be found */
+        object Failed : ReceiveResult()
+        /** The message was received in a blocked conversation, and shouldn't be notified */
+        data class Blocked(val threadId: Long) : ReceiveResult()
+        data class Received(val threadId: Long) : ReceiveResult()
+    }
+
     val deduplicationProgress: Observable<DeduplicationProgress>
 
+    val bulkSendProgress: Observable<BulkSendProgress>
+
     fun getMessages(threadId: Long, query: String = ""): RealmResults<Message>
 
     fun getMessagesSync(threadId: Long, query: String = ""): RealmResults<Message>
@@ -84,19 +103,62 @@ interface MessageRepository {
 
     fun markDeliveryFailed(messageId: Long, resultCode: Int)
 
+    /**
+     * Compresses the image attachments to fit the MMS limits for [subId] ahead of time, so that
+     * [sendNewMessages] can reuse the results. Blocks until done, or until the thread is interrupted
+     */
+    fun compressAttachments(subId: Int, attachments: Collection<Attachment>)
+
+    /**
+     * Cancels any compression of the [attachment], which has been removed from the message
+     */
+    fun cancelAttachmentCompression(attachment: Attachment)
+
     fun sendNewMessages(
         subId: Int, toAddresses: Collection<String>, body: String,
         attachments: Collection<Attachment>, sendAsGroup: Boolean, delayMs: Int = 0
     ): Collection<Message>
 
+    /**
+     * Sends the [message]. If it's to several recipients but not as a group, it's split into a
+     * message per recipient, which are sent in the background while [bulkSendProgress] reports
+     * on them, and queued so that they're still sent if the process dies first. Returns the
+     * messages that were created and sent
+     */
     fun sendMessage(message: Message): Collection<Message>
 
     fun sendMessage(messageId: Long): Collection<Message>
 
-    fun cancelDelayedSmsAlarm(messageId: Long)
+    /**
+     * Removes the delayed message from the outbound queue, so that it isn't sent
+     */
+    fun cancelDelayedMessage(messageId: Long)
+
+    /**
+     * Sends the messages in the outbound queue that are due, and returns them
+     */
+    fun sendQueuedMessages(): Collection<Message>
+
+    /**
+     * Queues the message to be sent again if it failed because the radio couldn't reach the
+     * network, and it hasn't been retried too many times already. Returns false if it's not going
+     * to be retried, and should be marked as failed
+     */
+    fun retryFailedMessage(messageId: Long, resultCode: Int): Boolean
 
     fun insertReceivedSms(subId: Int, address: String, body: String, sentTime: Long): Message
 
+    /**
+     * Applies the result of the blocking and content filter checks for a newly received message, marks it as read if
+     * requested, and updates its conversation's last message and archived state, all in a single Realm transaction
+     */
+    fun processReceivedMessage(
+        messageId: Long,
+        action: BlockingClient.Action,
+        filtered: Boolean,
+        markRead: Boolean
+    ): ReceiveResult
+
     fun deleteMessages(messageIds: Collection<Long>)
 
     fun getOldMessageCounts(maxAgeDays: Int): Map<Long, Int>
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2017 Moez Bhatti <moez.bhatti@gmail.com>
+ *
+ * This file is part of QKSMS.
+ *
+ * QKSMS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * QKSMS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QKSMS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dev.octoshrimpy.quik.common.util
+
+import android.content.res.Resources
+import android.telephony.SmsMessage
+import com.android.internal.telephony.GsmAlphabet
+import com.klinker.android.send_message.EncodingPlanner
+import com.klinker.android.send_message.StripAccents
+import dev.octoshrimpy.quik.util.tryOrNull
+import kotlin.math.min
+
+/**
+ * Counts the SMS segments needed for a draft as it's typed, like [SmsMessage.calculateLength]
+ * does, but only the text that changed since the previous draft is looked up in the GSM
+ * alphabet, so that long drafts stay cheap to count on every keystroke
+ *
+ * When accents are stripped, the count is for the text [EncodingPlanner] would send, and
+ * [Length.saved] is how many segments that saves
+ *
+ * Only the default GSM alphabet and extension table are counted incrementally. When the platform
+ * has national language tables enabled, which it may encode the text with, each draft is counted
+ * in full by [SmsMessage.calculateLength] instead. Drafts must be passed in one at a time
+ */
+class SmsSegmentCounter {
+
+    companion object {
+
+        /**
+         * Whether the platform has any national language shift tables enabled, read from the same
+         * config as the framework's GsmAlphabet
+         */
+        private val nationalTablesEnabled: Boolean by lazy {
+            listOf("config_sms_enabled_single_shift_tables", "config_sms_enabled_locking_shift_tables")
+                .any { name ->
+                    tryOrNull(false) {
+                        val resources = Resources.getSystem()
+                        val id = resources.getIdentifier(name, "array", "android")
+                        id != 0 && resources.getIntArray(id).any { table -> table != 0 }
+                    } ?: false
+                }
+        }
+    }
+
+    data class Length(
+        val messages: Int,
+        val codeUnits: Int,
+        val remaining: Int,
+        val codeUnitSize: Int,
+        val saved: Int = 0
+    )
+
+    private var text = ""
+
+    // Septets needed for the text, not counting the unencodable chars
+    private var septets = 0
+
+    // The number of chars which aren't in the GSM alphabet
+    private var unencodable = 0
+
+    // Septets needed once the unencodable chars are transliterated, and the number of chars that
+    // can't be
+    private var strippedSeptets = 0
+    private var untransliterable = 0
+
+    fun calculateLength(draft: CharSequence, stripAccents: Boolean): Length {
+        if (nationalTablesEnabled) {
+            return calculateFullLength(draft.toString(), stripAccents)
+        }
+
+        val old = text
+        val new = draft.toString()
+
+        // Find the part of the text which was replaced. Comparing chars is much cheaper than
+        // looking them up in the alphabet tables
+        val shortest = min(old.length, new.length)
+        var prefix = 0
+        while (prefix < shortest && old[prefix] == new[prefix]) {
+            prefix++
+        }
+        var suffix = 0
+        while (suffix < shortest - prefix
+                && old[old.length - suffix - 1] == new[new.length - suffix - 1]) {
+            suffix++
+        }
+
+        count(old, prefix, old.length - suffix, -1)
+        count(new, prefix, new.length - suffix, 1)
+        text = new
+
+        val typed = when (unencodable) {
+            0 -> sevenBitLength(septets)
+            else -> sixteenBitLength(new.length)
+        }
+
+        // Like StripAccents, accents are only stripped from text that doesn't fit in one segment.
+        // Stripping the chars that are in the GSM alphabet doesn't change the count, so only the
+        // ones that keep the text out of it need to be counted
+        if (stripAccents && typed.messages > 1 && unencodable > 0 && untransliterable == 0) {
+            val stripped = sevenBitLength(strippedSeptets)
+            return stripped.copy(saved = typed.messages - stripped.messages)
+        }
+
+        return typed
+    }
+
+    private fun calculateFullLength(draft: String, stripAccents: Boolean): Length {
+        val typed = SmsMessage.calculateLength(draft, false)
+                .let { array -> Length(array[0], array[1], array[2], array[3]) }
+
+        val stripped = when (stripAccents) {
+            true -> StripAccents.stripAccents(draft)
+            false -> draft
+        }
+        if (stripped === draft) {
+            return typed
+        }
+
+        return SmsMessage.calculateLength(stripped, false)
+                .let { array -> Length(array[0], array[1], array[2], array[3], (typed.messages - array[0]).coerceAtLeast(0)) }
+    }
+
+    private fun count(text: String, start: Int, end: Int, sign: Int) {
+        for (i in start until end) {
+            val count = GsmAlphabet.countGsmSeptetsUsingTables(text[i], 0, 0)
+            if (count != -1) {
+                septets += sign * count
+                strippedSeptets += sign * count
+                continue
+            }
+
+            unencodable += sign
+            val transliteration = EncodingPlanner.getTransliteration(text[i])
+            if (transliteration == 0.toChar()) {
+                strippedSeptets += sign
+                untransliterable += sign
+            } else {
+                val transliterationCount =
+                        GsmAlphabet.countGsmSeptetsUsingTables(transliteration, 0, 0)
+                strippedSeptets += sign * transliterationCount
+            }
+        }
+    }
+
+    private fun sevenBitLength(septets: Int): Length {
+        return length(septets, SmsMessage.MAX_USER_DATA_SEPTETS,
+                SmsMessage.MAX_USER_DATA_SEPTETS_WITH_HEADER, SmsMessage.ENCODING_7BIT)
+    }
+
+    private fun sixteenBitLength(chars: Int): Length {
+        return length(chars, SmsMessage.MAX_USER_DATA_BYTES / 2,
+                SmsMessage.MAX_USER_DATA_BYTES_WITH_HEADER / 2, SmsMessage.ENCODING_16BIT)
+    }
+
+    private fun length(codeUnits: Int, max: Int, maxWithHeader: Int, codeUnitSize: Int): Length {
+        return when {
+            codeUnits > max -> {
+                val messages = (codeUnits + maxWithHeader - 1) / maxWithHeader
+                Length(messages, codeUnits, messages * maxWithHeader - codeUnits, codeUnitSize)
+            }
+
+            else -> Length(1, codeUnits, max - codeUnits, codeUnitSize)
+        }
+    }
+
+}
@@ -80,6 +80,7 @@ import dev.octoshrimpy.quik.feature.compose.editing.ChipsAdapter
 import dev.octoshrimpy.quik.feature.contacts.ContactsActivity
 import dev.octoshrimpy.quik.model.Attachment
 import dev.octoshrimpy.quik.model.Recipient
+import dev.octoshrimpy.quik.repository.MessageRepository
 import io.reactivex.Observable
 import io.reactivex.android.schedulers.AndroidSchedulers
 import io.reactivex.disposables.Disposable
@@ -411,9 +412,16 @@ class ComposeActivity : QkThemedActivity(), ComposeView {
             else -> state.conversationtitle
         }
 
-        binding.toolbarSubtitle.setVisible(state.query.isNotEmpty())
-        binding.toolbarSubtitle.text = getString(R.string.compose_subtitle_results, state.searchSelectionPosition,
-            state.searchResults)
+        val bulkSendProgress = state.bulkSendProgress as? MessageRepository.BulkSendProgress.Running
+        binding.toolbarSubtitle.setVisible(state.query.isNotEmpty() || bulkSendProgress != null)
+        binding.toolbarSubtitle.text = when {
+            state.query.isNotEmpty() -> getString(R.string.compose_subtitle_results, state.searchSelectionPosition,
+                state.searchResults)
+            bulkSendProgress == null -> null
+            bulkSendProgress.failed > 0 -> getString(R.string.compose_subtitle_sending_failed,
+                bulkSendProgress.submitted, bulkSendProgress.total, bulkSendProgress.failed)
+            else -> getString(R.string.compose_subtitle_sending, bulkSendProgress.submitted, bulkSendProgress.total)
+        }
 
         binding.toolbarTitle.setVisible(!state.editingMode)
         binding.chips.setVisible(state.editingMode)
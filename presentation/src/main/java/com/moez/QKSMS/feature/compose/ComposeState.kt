@@ -23,6 +23,7 @@ import dev.octoshrimpy.quik.model.Attachment
 import dev.octoshrimpy.quik.model.Conversation
 import dev.octoshrimpy.quik.model.Message
 import dev.octoshrimpy.quik.model.Recipient
+import dev.octoshrimpy.quik.repository.MessageRepository
 import io.realm.RealmResults
 
 data class ComposeState(
@@ -52,4 +53,5 @@ data class ComposeState(
     val recipientCount: Int = 1,
     val audioMsgRecording: Boolean = false,
     val saveDraft: Boolean = true,
+    val bulkSendProgress: MessageRepository.BulkSendProgress = MessageRepository.BulkSendProgress.Idle,
 )
\ No newline at end of file
@@ -24,7 +24,6 @@ import android.media.AudioAttributes
 import android.media.AudioDeviceInfo
 import android.net.Uri
 import android.os.Vibrator
-import android.telephony.SmsMessage
 import android.widget.Toast
 import androidx.core.content.FileProvider
 import androidx.core.content.getSystemService
@@ -43,6 +42,7 @@ import dev.octoshrimpy.quik.common.Navigator
 import dev.octoshrimpy.quik.common.base.QkViewModel
 import dev.octoshrimpy.quik.common.util.ClipboardUtils
 import dev.octoshrimpy.quik.common.util.MessageDetailsFormatter
+import dev.octoshrimpy.quik.common.util.SmsSegmentCounter
 import dev.octoshrimpy.quik.common.util.extensions.makeToast
 import dev.octoshrimpy.quik.common.widget.MicInputCloudView
 import dev.octoshrimpy.quik.common.widget.QkContextMenuRecyclerView
@@ -80,7 +80,6 @@ import dev.octoshrimpy.quik.util.Preferences
 import dev.octoshrimpy.quik.extensions.getResourceBytes
 import dev.octoshrimpy.quik.util.Constants.Companion.DELAY_CANCELLED_CACHED_ATTACHMENTS_FILE_PREFIX
 import dev.octoshrimpy.quik.util.Constants.Companion.SAVED_MESSAGE_TEXT_FILE_PREFIX
-import dev.octoshrimpy.quik.util.tryOrNull
 import io.reactivex.Observable
 import io.reactivex.android.schedulers.AndroidSchedulers
 import io.reactivex.rxkotlin.Observables
@@ -94,6 +93,7 @@ import timber.log.Timber
 import java.text.SimpleDateFormat
 import java.util.Locale
 import java.util.UUID
+import java.util.concurrent.TimeUnit
 import javax.inject.Inject
 import javax.inject.Named
 
@@ -288,6 +288,23 @@ class ComposeViewModel @Inject constructor(
             newState { copy(subscription = sub) }
         }.subscribe()
 
+        // show the progress of a message being sent to many individual recipients
+        disposables += messageRepo.bulkSendProgress
+            .sample(250, TimeUnit.MILLISECONDS, true)
+            .distinctUntilChanged()
+            .subscribe { progress -> newState { copy(bulkSendProgress = progress) } }
+
+        // compress image attachments in the background as soon as they're added, so that sending
+        // doesn't have to wait for it
+        disposables += state
+            .map { state -> state.attachments to (state.subscription?.subscriptionId ?: -1) }
+            .distinctUntilChanged()
+            .switchMap { (attachments, subId) ->
+                Observable.fromCallable { messageRepo.compressAttachments(subId, attachments) }
+                    .subscribeOn(Schedulers.io())
+            }
+            .subscribe()
+
         // checks if there are any scheduled messages in convo
         disposables += conversation
             .distinctUntilChanged { conversation -> conversation.id }
@@ -684,7 +701,7 @@ class ComposeViewModel @Inject constructor(
         view.cancelDelayedIntent
             // most important thing first - cancel the send timer
             .map {
-                messageId -> messageRepo.cancelDelayedSmsAlarm(messageId)
+                messageId -> messageRepo.cancelDelayedMessage(messageId)
 
                 messageRepo.getUnmanagedMessage(messageId).also {
                     // copy text from copy of message being cancelled
@@ -902,6 +919,7 @@ class ComposeViewModel @Inject constructor(
                 .autoDisposable(view.scope())
                 .subscribe {
                     newState { copy(attachments = attachments - it) }
+                    messageRepo.cancelAttachmentCompression(it)
 
                     // if the attachment is backed by a local file, delete the file
                     it.removeCacheFile()
@@ -944,14 +962,17 @@ class ComposeViewModel @Inject constructor(
             }
 
         // Show the remaining character counter when necessary
+        val segmentCounter = SmsSegmentCounter()
         view.textChangedIntent
+                .map { draft -> draft.toString() }
                 .observeOn(Schedulers.computation())
-                .mapNotNull { draft -> tryOrNull { SmsMessage.calculateLength(draft, prefs.unicode.get()) } }
-                .map { array ->
-                    val messages = array[0]
-                    val remaining = array[2]
+                .map { draft -> segmentCounter.calculateLength(draft, prefs.unicode.get()) }
+                .map { length ->
+                    val messages = length.messages
+                    val remaining = length.remaining
 
                     when {
+                        length.saved > 0 -> "$remaining / $messages (-${length.saved})"
                         messages <= 1 && remaining > 10 -> ""
                         messages <= 1 && remaining <= 10 -> "$remaining"
                         else -> "$remaining / $messages"
@@ -18,12 +18,12 @@
  */
 package dev.octoshrimpy.quik.feature.qkreply
 
-import android.telephony.SmsMessage
 import com.uber.autodispose.android.lifecycle.scope
 import com.uber.autodispose.autoDisposable
 import dev.octoshrimpy.quik.R
 import dev.octoshrimpy.quik.common.Navigator
 import dev.octoshrimpy.quik.common.base.QkViewModel
+import dev.octoshrimpy.quik.common.util.SmsSegmentCounter
 import dev.octoshrimpy.quik.compat.SubscriptionManagerCompat
 import dev.octoshrimpy.quik.extensions.asObservable
 import dev.octoshrimpy.quik.extensions.mapNotNull
@@ -34,6 +34,7 @@ import dev.octoshrimpy.quik.model.Message
 import dev.octoshrimpy.quik.repository.ConversationRepository
 import dev.octoshrimpy.quik.repository.MessageRepository
 import dev.octoshrimpy.quik.util.ActiveSubscriptionObservable
+import dev.octoshrimpy.quik.util.Preferences
 import io.reactivex.rxkotlin.Observables
 import io.reactivex.rxkotlin.plusAssign
 import io.reactivex.rxkotlin.withLatestFrom
@@ -52,6 +53,7 @@ class QkReplyViewModel @Inject constructor(
     private val markRead: MarkRead,
     private val messageRepo: MessageRepository,
     private val navigator: Navigator,
+    private val prefs: Preferences,
     private val sendNewMessage: SendNewMessage,
     private val subscriptionManager: SubscriptionManagerCompat
 ) : QkViewModel<QkReplyView, QkReplyState>(QkReplyState(threadId = threadId)) {
@@ -170,14 +172,17 @@ class QkReplyViewModel @Inject constructor(
                 .subscribe { canSend -> newState { copy(canSend = canSend) } }
 
         // Show the remaining character counter when necessary
+        val segmentCounter = SmsSegmentCounter()
         view.textChangedIntent
+                .map { draft -> draft.toString() }
                 .observeOn(Schedulers.computation())
-                .map { draft -> SmsMessage.calculateLength(draft, false) }
-                .map { array ->
-                    val messages = array[0]
-                    val remaining = array[2]
+                .map { draft -> segmentCounter.calculateLength(draft, prefs.unicode.get()) }
+                .map { length ->
+                    val messages = length.messages
+                    val remaining = length.remaining
 
                     when {
+                        length.saved > 0 -> "$remaining / $messages (-${length.saved})"
                         messages <= 1 && remaining > 10 -> ""
                         messages <= 1 && remaining <= 10 -> "$remaining"
                         else -> "$remaining / $messages"